@@ -0,0 +1,72 @@
+package com.redhat.ceylon.compiler.typechecker.benchmark;
+
+import java.io.File;
+import java.util.Arrays;
+
+import com.redhat.ceylon.compiler.typechecker.TypeChecker;
+import com.redhat.ceylon.compiler.typechecker.TypeCheckerBuilder;
+import com.redhat.ceylon.compiler.typechecker.context.PhasedUnit;
+import com.redhat.ceylon.compiler.typechecker.io.ClosableVirtualFile;
+import com.redhat.ceylon.compiler.typechecker.io.VFS;
+import com.redhat.ceylon.compiler.typechecker.model.Unit;
+
+/**
+ * The source archive of the language module, and the
+ * model obtained by type checking it, which the 
+ * benchmarks of the model operate on.
+ *
+ * The archive is given by the system property 
+ * <code>ceylon.language.src</code>, or else is the 
+ * latest version of the language module in the local 
+ * repository.
+ */
+class LanguageModule {
+
+    static File getSourceArchive() {
+        String path = System.getProperty("ceylon.language.src");
+        if (path!=null) {
+            return new File(path);
+        }
+        File langDir = new File(System.getProperty("user.home"), 
+                ".ceylon/repo/ceylon/language");
+        String[] versions = langDir.list();
+        if (versions==null || versions.length==0) {
+            throw new IllegalStateException("language module not found in repository: " + 
+                    langDir + " (set ceylon.language.src)");
+        }
+        Arrays.sort(versions);
+        String version = versions[versions.length-1]; //last
+        return new File(langDir, version + "/ceylon.language-" + version + ".src");
+    }
+
+    static ClosableVirtualFile open() {
+        return new VFS().getFromZipFile(getSourceArchive());
+    }
+
+    /**
+     * Type check the language module.
+     */
+    static TypeChecker typeCheck(ClosableVirtualFile archive) {
+        TypeChecker typeChecker = new TypeCheckerBuilder()
+                .verbose(false)
+                .addSrcDirectory(archive)
+                .getTypeChecker();
+        typeChecker.process(true);
+        return typeChecker;
+    }
+
+    /**
+     * A unit of the package <code>ceylon.language</code> 
+     * of the type checked language module, through which 
+     * its declarations may be found.
+     */
+    static Unit getUnit(TypeChecker typeChecker) {
+        for (PhasedUnit pu: typeChecker.getPhasedUnits().getPhasedUnits()) {
+            if (pu.getPackage().getNameAsString().equals("ceylon.language")) {
+                return pu.getUnit();
+            }
+        }
+        throw new IllegalStateException("no unit of ceylon.language");
+    }
+
+}
@@ -0,0 +1,41 @@
+package com.redhat.ceylon.compiler.typechecker.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import com.redhat.ceylon.compiler.typechecker.model.Declaration;
+import com.redhat.ceylon.compiler.typechecker.model.Util;
+
+/**
+ * The lookup of the members of <code>String</code> by 
+ * name, among its own members, and among the members 
+ * it inherits, including a name which is not a member,
+ * for which every supertype is searched.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Benchmark)
+public class LookupMemberBenchmark {
+
+    @Param({"size", "iterator", "trimmed", "missing"})
+    public String name;
+
+    @Benchmark
+    public Declaration lookupMember(ModelState state) {
+        return Util.lookupMember(state.stringDeclaration.getMembers(), 
+                name, null, false);
+    }
+
+    @Benchmark
+    public Declaration getMember(ModelState state) {
+        return state.stringDeclaration.getMember(name, null, false);
+    }
+
+}
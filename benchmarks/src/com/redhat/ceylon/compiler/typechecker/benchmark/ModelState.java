@@ -0,0 +1,87 @@
+package com.redhat.ceylon.compiler.typechecker.benchmark;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import com.redhat.ceylon.compiler.typechecker.io.ClosableVirtualFile;
+import com.redhat.ceylon.compiler.typechecker.model.Interface;
+import com.redhat.ceylon.compiler.typechecker.model.ProducedType;
+import com.redhat.ceylon.compiler.typechecker.model.TypeDeclaration;
+import com.redhat.ceylon.compiler.typechecker.model.TypeParameter;
+import com.redhat.ceylon.compiler.typechecker.model.Unit;
+
+/**
+ * The model of the type checked language module, and
+ * some types of the language module, shared by the
+ * benchmarks of the model.
+ */
+@State(Scope.Benchmark)
+public class ModelState {
+
+    ClosableVirtualFile archive;
+    Unit unit;
+
+    TypeDeclaration stringDeclaration;
+    Interface iterableDeclaration;
+
+    ProducedType objectType;
+    ProducedType nullType;
+    ProducedType stringType;
+    ProducedType integerType;
+    ProducedType optionalStringType;
+    ProducedType sequentialOfStringType;
+    ProducedType iterableOfObjectType;
+    ProducedType iterableOfStringType;
+    ProducedType entryType;
+
+    /** <code>Iterable&lt;Element,Absent&gt;</code> */
+    ProducedType genericIterableType;
+    /** <code>{Element*}-&gt;[Element*]</code>, mentioning 
+     *  the type parameters of <code>Iterable</code> */
+    ProducedType genericEntryType;
+    /** <code>Element-&gt;String, Absent-&gt;Null</code> */
+    Map<TypeParameter,ProducedType> substitutions;
+
+    /** types which are, or are not, subtypes of each other */
+    List<ProducedType> types;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        archive = LanguageModule.open();
+        unit = LanguageModule.getUnit(LanguageModule.typeCheck(archive));
+        stringDeclaration = unit.getStringDeclaration();
+        iterableDeclaration = unit.getIterableDeclaration();
+        objectType = unit.getObjectDeclaration().getType();
+        nullType = unit.getNullDeclaration().getType();
+        stringType = stringDeclaration.getType();
+        integerType = unit.getIntegerDeclaration().getType();
+        optionalStringType = unit.getOptionalType(stringType);
+        sequentialOfStringType = unit.getSequentialType(stringType);
+        iterableOfObjectType = unit.getIterableType(objectType);
+        iterableOfStringType = unit.getIterableType(stringType);
+        entryType = unit.getEntryType(integerType, stringType);
+        genericIterableType = iterableDeclaration.getType();
+        ProducedType elementType = iterableDeclaration.getTypeParameters()
+                .get(0).getType();
+        genericEntryType = unit.getEntryType(unit.getIterableType(elementType), 
+                unit.getSequentialType(elementType));
+        substitutions = iterableOfStringType.getTypeArguments();
+        types = Arrays.asList(stringType, integerType, nullType, 
+                optionalStringType, sequentialOfStringType, 
+                iterableOfStringType, iterableOfObjectType, 
+                entryType, objectType);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        archive.close();
+    }
+
+}
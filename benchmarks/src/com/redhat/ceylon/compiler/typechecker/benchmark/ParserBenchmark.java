@@ -0,0 +1,89 @@
+package com.redhat.ceylon.compiler.typechecker.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.antlr.runtime.CommonTokenStream;
+import org.antlr.runtime.RecognitionException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.redhat.ceylon.compiler.typechecker.parser.ByteBufferCharStream;
+import com.redhat.ceylon.compiler.typechecker.parser.CeylonLexer;
+import com.redhat.ceylon.compiler.typechecker.parser.CeylonParser;
+import com.redhat.ceylon.compiler.typechecker.tree.Tree;
+
+/**
+ * Lexing and parsing of the sources in 
+ * <code>test/main</code>, or in the directory given by
+ * the system property <code>ceylon.benchmark.sources</code>,
+ * which are read into memory beforehand.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+public class ParserBenchmark {
+
+    private final List<ByteBuffer> sources = new ArrayList<ByteBuffer>();
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        File dir = new File(System.getProperty("ceylon.benchmark.sources", 
+                "test/main"));
+        if (!dir.isDirectory()) {
+            throw new IllegalStateException("source directory not found: " + 
+                    dir.getAbsolutePath());
+        }
+        read(dir);
+    }
+
+    private void read(File dir) throws IOException {
+        File[] files = dir.listFiles();
+        if (files!=null) {
+            for (File file: files) {
+                if (file.isDirectory()) {
+                    read(file);
+                }
+                else if (file.getName().endsWith(".ceylon")) {
+                    sources.add(ByteBuffer.wrap(Files.readAllBytes(file.toPath())));
+                }
+            }
+        }
+    }
+
+    @Benchmark
+    public int lex() {
+        int count = 0;
+        for (ByteBuffer source: sources) {
+            CeylonLexer lexer = new CeylonLexer(new ByteBufferCharStream(source, "UTF-8"));
+            CommonTokenStream tokens = new CommonTokenStream(lexer);
+            tokens.fill();
+            count += tokens.size();
+        }
+        return count;
+    }
+
+    @Benchmark
+    public List<Tree.CompilationUnit> parse() throws RecognitionException {
+        List<Tree.CompilationUnit> result = 
+                new ArrayList<Tree.CompilationUnit>(sources.size());
+        for (ByteBuffer source: sources) {
+            CeylonLexer lexer = new CeylonLexer(new ByteBufferCharStream(source, "UTF-8"));
+            CeylonParser parser = new CeylonParser(new CommonTokenStream(lexer));
+            result.add(parser.compilationUnit());
+        }
+        return result;
+    }
+
+}
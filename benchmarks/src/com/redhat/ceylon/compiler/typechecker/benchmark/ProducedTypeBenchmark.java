@@ -0,0 +1,80 @@
+package com.redhat.ceylon.compiler.typechecker.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+
+import com.redhat.ceylon.compiler.typechecker.model.ProducedType;
+
+/**
+ * Subtyping, supertypes and substitution of the types
+ * of the language module.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ProducedTypeBenchmark {
+
+    /**
+     * <code>[String*]</code> is a subtype of 
+     * <code>{Object*}</code>, found by a search of the
+     * supertypes of <code>Sequential</code>.
+     */
+    @Benchmark
+    public boolean isSubtypeOf(ModelState state) {
+        return state.sequentialOfStringType
+                .isSubtypeOf(state.iterableOfObjectType);
+    }
+
+    /**
+     * <code>String?</code> is not a subtype of 
+     * <code>Object</code>, since the union has a case
+     * which is not.
+     */
+    @Benchmark
+    public boolean isNotSubtypeOf(ModelState state) {
+        return state.optionalStringType
+                .isSubtypeOf(state.objectType);
+    }
+
+    /**
+     * Every pair of the types.
+     */
+    @Benchmark
+    public int isSubtypeOfAll(ModelState state) {
+        int count = 0;
+        for (ProducedType t: state.types) {
+            for (ProducedType u: state.types) {
+                if (t.isSubtypeOf(u)) {
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * The <code>Iterable</code> supertype of 
+     * <code>[String*]</code>.
+     */
+    @Benchmark
+    public ProducedType getSupertype(ModelState state) {
+        return state.sequentialOfStringType
+                .getSupertype(state.iterableDeclaration);
+    }
+
+    @Benchmark
+    public ProducedType substitute(ModelState state) {
+        return state.genericIterableType
+                .substitute(state.substitutions);
+    }
+
+    @Benchmark
+    public ProducedType substituteNested(ModelState state) {
+        return state.genericEntryType
+                .substitute(state.substitutions);
+    }
+
+}
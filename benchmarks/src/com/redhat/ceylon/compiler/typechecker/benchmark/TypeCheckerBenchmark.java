@@ -0,0 +1,51 @@
+package com.redhat.ceylon.compiler.typechecker.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.redhat.ceylon.compiler.typechecker.TypeChecker;
+import com.redhat.ceylon.compiler.typechecker.io.ClosableVirtualFile;
+
+/**
+ * Type checking the whole language module, from its
+ * source archive, including parsing it, and resolving
+ * its modules.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 10)
+@Measurement(iterations = 10)
+@Fork(3)
+@State(Scope.Benchmark)
+public class TypeCheckerBenchmark {
+
+    private ClosableVirtualFile archive;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        archive = LanguageModule.open();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        archive.close();
+    }
+
+    @Benchmark
+    public TypeChecker process() {
+        return LanguageModule.typeCheck(archive);
+    }
+
+}
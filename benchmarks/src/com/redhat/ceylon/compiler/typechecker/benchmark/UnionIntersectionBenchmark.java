@@ -0,0 +1,70 @@
+package com.redhat.ceylon.compiler.typechecker.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+
+import com.redhat.ceylon.compiler.typechecker.model.ProducedType;
+import com.redhat.ceylon.compiler.typechecker.model.Util;
+
+/**
+ * The canonicalization of the cases of union types and 
+ * the satisfied types of intersection types, which 
+ * eliminates the types which are subtypes (supertypes) 
+ * of another type of the list.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class UnionIntersectionBenchmark {
+
+    @Benchmark
+    public List<ProducedType> addToUnion(ModelState state) {
+        List<ProducedType> list = new ArrayList<ProducedType>();
+        for (ProducedType t: state.types) {
+            Util.addToUnion(list, t);
+        }
+        return list;
+    }
+
+    /**
+     * A union of types none of which is a subtype of 
+     * another.
+     */
+    @Benchmark
+    public List<ProducedType> addToUnionDisjoint(ModelState state) {
+        List<ProducedType> list = new ArrayList<ProducedType>();
+        Util.addToUnion(list, state.stringType);
+        Util.addToUnion(list, state.integerType);
+        Util.addToUnion(list, state.nullType);
+        Util.addToUnion(list, state.entryType);
+        return list;
+    }
+
+    @Benchmark
+    public List<ProducedType> addToIntersection(ModelState state) {
+        List<ProducedType> list = new ArrayList<ProducedType>();
+        Util.addToIntersection(list, state.iterableOfObjectType, state.unit);
+        Util.addToIntersection(list, state.sequentialOfStringType, state.unit);
+        Util.addToIntersection(list, state.objectType, state.unit);
+        Util.addToIntersection(list, state.iterableOfStringType, state.unit);
+        return list;
+    }
+
+    /**
+     * An intersection of disjoint classes, which is
+     * <code>Nothing</code>.
+     */
+    @Benchmark
+    public List<ProducedType> addToIntersectionDisjoint(ModelState state) {
+        List<ProducedType> list = new ArrayList<ProducedType>();
+        Util.addToIntersection(list, state.stringType, state.unit);
+        Util.addToIntersection(list, state.integerType, state.unit);
+        return list;
+    }
+
+}
@@ -1,18 +1,45 @@
 package com.redhat.ceylon.compiler.typechecker;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
 import com.redhat.ceylon.cmr.api.RepositoryManager;
 import com.redhat.ceylon.common.Versions;
+import com.redhat.ceylon.compiler.typechecker.analyzer.ModuleManager;
 import com.redhat.ceylon.compiler.typechecker.analyzer.ModuleValidator;
 import com.redhat.ceylon.compiler.typechecker.context.Context;
+import com.redhat.ceylon.compiler.typechecker.context.ParseCache;
 import com.redhat.ceylon.compiler.typechecker.context.PhasedUnit;
 import com.redhat.ceylon.compiler.typechecker.context.PhasedUnits;
 import com.redhat.ceylon.compiler.typechecker.io.VFS;
 import com.redhat.ceylon.compiler.typechecker.io.VirtualFile;
+import com.redhat.ceylon.compiler.typechecker.io.impl.Helper;
+import com.redhat.ceylon.compiler.typechecker.model.Declaration;
+import com.redhat.ceylon.compiler.typechecker.model.DeclarationDependencies;
+import com.redhat.ceylon.compiler.typechecker.model.ImportList;
 import com.redhat.ceylon.compiler.typechecker.model.Module;
+import com.redhat.ceylon.compiler.typechecker.model.Package;
+import com.redhat.ceylon.compiler.typechecker.model.TypeDeclaration;
+import com.redhat.ceylon.compiler.typechecker.model.TypedDeclaration;
+import com.redhat.ceylon.compiler.typechecker.model.Unit;
+import com.redhat.ceylon.compiler.typechecker.model.Util;
+import com.redhat.ceylon.compiler.typechecker.snapshot.DeclarationSignatures;
+import com.redhat.ceylon.compiler.typechecker.snapshot.ModelSnapshotStore;
 import com.redhat.ceylon.compiler.typechecker.tree.Message;
 import com.redhat.ceylon.compiler.typechecker.util.AssertionVisitor;
+import com.redhat.ceylon.compiler.typechecker.util.MetricsListener;
 import com.redhat.ceylon.compiler.typechecker.util.ModuleManagerFactory;
 import com.redhat.ceylon.compiler.typechecker.util.StatisticsVisitor;
 
@@ -34,21 +61,39 @@ public class TypeChecker {
     private final boolean verifyDependencies;
     private final AssertionVisitor assertionVisitor;
     private final StatisticsVisitor statsVisitor;
+    private final int parallelism;
+    private final boolean retainTokens;
+    private final boolean lazyDependencies;
+    private final boolean incrementalUpdates;
+    private final List<VirtualFile> srcDirectories;
 
     //package level
     TypeChecker(VFS vfs, List<VirtualFile> srcDirectories, RepositoryManager repositoryManager, boolean verifyDependencies,
             AssertionVisitor assertionVisitor, ModuleManagerFactory moduleManagerFactory, boolean verbose, boolean statistics,
-            List<String> moduleFilters, String encoding) {
+            List<String> moduleFilters, String encoding, int parallelism, 
+            ModelSnapshotStore modelSnapshots, boolean retainTokens, 
+            ParseCache parseCache, MetricsListener metricsListener,
+            boolean lazyDependencies, boolean incrementalUpdates) {
         long start = System.nanoTime();
         this.verbose = verbose;
         this.statistics = statistics;
         this.context = new Context(repositoryManager, vfs);
+        this.context.setModelSnapshots(modelSnapshots);
+        this.context.setParseCache(parseCache);
+        this.context.setMetricsListener(metricsListener);
         this.phasedUnits = new PhasedUnits(context, moduleManagerFactory);
         this.verifyDependencies = verifyDependencies;
         this.assertionVisitor = assertionVisitor;
+        this.parallelism = parallelism;
+        this.retainTokens = retainTokens;
+        this.lazyDependencies = lazyDependencies;
+        this.incrementalUpdates = incrementalUpdates;
+        this.srcDirectories = new ArrayList<VirtualFile>(srcDirectories);
         statsVisitor = new StatisticsVisitor();
         phasedUnits.setModuleFilters(moduleFilters);
         phasedUnits.setEncoding(encoding);
+        phasedUnits.setParallelism(parallelism);
+        phasedUnits.setRecordDependencies(incrementalUpdates);
         phasedUnits.parseUnits(srcDirectories);
         long time = System.nanoTime()-start;
         if(statistics)
@@ -130,6 +175,383 @@ public class TypeChecker {
         	System.out.println("Type checked in " + time/1000000 + " ms");
     }
 
+    /**
+     * Typecheck the source files again after some of them
+     * have been added, modified, or deleted. Only the
+     * changed files are parsed and typechecked again, along
+     * with the units which refer to a declaration of a 
+     * deleted file, any unit which had unresolved 
+     * references or duplicate declarations, since the 
+     * change may have fixed them, and the units which 
+     * refer to a declaration whose signature was changed,
+     * or whose signature refers, directly or transitively,
+     * to a declaration whose signature was changed, and,
+     * when a toplevel declaration is added to a package,
+     * the units of the package, the units which import
+     * from it, and the units which refer to a declaration
+     * with the same name, since their names may now
+     * resolve to the new declaration. A unit
+     * which refers only to declarations whose bodies were
+     * changed is not typechecked again, and still refers
+     * to the declarations of the model, since the
+     * declarations of a unit which is typechecked again
+     * keep their identity. Must be called
+     * after {@link #process()}, by a type checker built
+     * for incremental updates.
+     *
+     * The assertions are not run over the units which were
+     * typechecked again: their errors may be found in the
+     * returned phased units.
+     *
+     * @param changed the added or modified source files
+     * @param removed the paths of the deleted source files,
+     *        relative to their source directory
+     * @return the phased units which were typechecked again
+     * @throws IllegalArgumentException if a module or
+     *         package descriptor was changed, or a source
+     *         file added to a package which does not exist,
+     *         in which case a new type checker is needed
+     * @throws IllegalStateException if the type checker 
+     *         was not built for incremental updates
+     * 
+     * @see TypeCheckerBuilder#incrementalUpdates(boolean)
+     */
+    public List<PhasedUnit> update(Collection<VirtualFile> changed, 
+            Collection<String> removed) {
+        if (!incrementalUpdates) {
+            throw new IllegalStateException("the type checker does not record the dependencies between units");
+        }
+        long start = System.nanoTime();
+        //check everything before touching the model
+        List<PhasedUnit> removedUnits = new ArrayList<PhasedUnit>();
+        Set<String> removedPaths = new HashSet<String>();
+        for (String relativePath: removed) {
+            checkNotDescriptor(Helper.getSimpleName(relativePath));
+            PhasedUnit pu = phasedUnits.getPhasedUnitFromRelativePath(relativePath);
+            if (pu!=null) {
+                removedUnits.add(pu);
+                removedPaths.add(pu.getUnitFile().getPath());
+            }
+        }
+        List<VirtualFile> addedFiles = new ArrayList<VirtualFile>();
+        List<VirtualFile> addedSrcDirs = new ArrayList<VirtualFile>();
+        List<Package> addedPackages = new ArrayList<Package>();
+        Set<String> dirtyPaths = new LinkedHashSet<String>();
+        for (VirtualFile file: changed) {
+            checkNotDescriptor(file.getName());
+            if (phasedUnits.getPhasedUnit(file)!=null) {
+                dirtyPaths.add(file.getPath());
+            }
+            else {
+                VirtualFile srcDir = getSrcDirectory(file);
+                addedFiles.add(file);
+                addedSrcDirs.add(srcDir);
+                addedPackages.add(getPackage(file, srcDir));
+            }
+        }
+        
+        //the changes may have added a declaration which
+        //was missing, or removed a duplicate declaration
+        if (!changed.isEmpty() || !removedUnits.isEmpty()) {
+            for (PhasedUnit pu: phasedUnits.getPhasedUnits()) {
+                Unit unit = pu.getUnit();
+                if (!isDescriptor(pu) &&
+                        (!unit.getUnresolvedReferences().isEmpty() ||
+                        !unit.getDuplicateDeclarations().isEmpty())) {
+                    dirtyPaths.add(pu.getUnitFile().getPath());
+                }
+            }
+        }
+        
+        //the units which depend on a deleted unit hold on 
+        //to its declarations, so they are dirty too
+        for (PhasedUnit pu: removedUnits) {
+            for (String dependent: pu.getUnit().getDependentsOf()) {
+                PhasedUnit dpu = phasedUnits.getPhasedUnit(dependent);
+                if (dpu!=null && !isDescriptor(dpu) &&
+                        !removedPaths.contains(dependent)) {
+                    dirtyPaths.add(dependent);
+                }
+            }
+        }
+        dirtyPaths.removeAll(removedPaths);
+        
+        for (PhasedUnit pu: removedUnits) {
+            clearProducedTypeCache(pu.getUnit());
+            phasedUnits.removePhasedUnitForRelativePath(pu.getPathRelativeToSrcDir());
+        }
+        for (PhasedUnit pu: phasedUnits.getPhasedUnits()) {
+            pu.getUnit().getDependentsOf().removeAll(removedPaths);
+        }
+        
+        //the signatures of the toplevel declarations of
+        //the dirty units before the update
+        Map<String,DeclarationSignatures> signatures = 
+                new HashMap<String,DeclarationSignatures>();
+        //the added units, which are parsed, but not yet 
+        //typechecked
+        Map<String,PhasedUnit> addedUnits = 
+                new HashMap<String,PhasedUnit>();
+        for (int i=0; i<addedFiles.size(); i++) {
+            String path = addedFiles.get(i).getPath();
+            addedUnits.put(path, phasedUnits.reparseUnit(addedFiles.get(i), 
+                    addedSrcDirs.get(i), addedPackages.get(i)));
+            signatures.put(path, DeclarationSignatures.none());
+            dirtyPaths.add(path);
+        }
+        
+        List<PhasedUnit> listOfUnits;
+        while (true) {
+            //the dirty units record their dependencies again
+            //when they are typechecked
+            for (PhasedUnit pu: phasedUnits.getPhasedUnits()) {
+                pu.getUnit().getDependentsOf().removeAll(dirtyPaths);
+            }
+            //the trees of the dirty units are decorated with 
+            //the model and errors of the previous run, so 
+            //parse them again, rather than reusing them
+            Map<PhasedUnit,Object> reparsed = new IdentityHashMap<PhasedUnit,Object>();
+            Set<Module> reusingModules = new HashSet<Module>();
+            for (String path: dirtyPaths) {
+                PhasedUnit pu = addedUnits.remove(path);
+                if (pu==null) {
+                    pu = phasedUnits.getPhasedUnit(path);
+                    if (pu==null) {
+                        continue;
+                    }
+                    Unit unit = pu.getUnit();
+                    if (!signatures.containsKey(path)) {
+                        signatures.put(path, DeclarationSignatures.of(unit));
+                    }
+                    clearProducedTypeCache(unit);
+                    pu = phasedUnits.reparseUnit(pu.getUnitFile(), 
+                            pu.getSrcDir(), pu.getPackage());
+                    //the units which are not typechecked again
+                    //still depend on the unit, and refer to its
+                    //declarations, so the new model keeps them
+                    pu.getUnit().getDependentsOf().addAll(unit.getDependentsOf());
+                    pu.reuseDeclarationsOf(unit);
+                    Module module = pu.getPackage().getModule();
+                    if (module!=null) {
+                        reusingModules.add(module);
+                    }
+                }
+                reparsed.put(pu, path);
+            }
+            //the canonical types of the reused declarations
+            //memoise what their aliases resolved to in the 
+            //previous model, so the new model must not be 
+            //given them
+            for (Module module: reusingModules) {
+                module.getInterner().clear();
+            }
+            
+            //typecheck in the order of the whole project
+            listOfUnits = new ArrayList<PhasedUnit>(reparsed.size());
+            for (PhasedUnit pu: phasedUnits.getPhasedUnits()) {
+                if (reparsed.containsKey(pu)) {
+                    listOfUnits.add(pu);
+                }
+            }
+            executeUnitPhases(listOfUnits);
+            
+            //the units which refer to a declaration affected
+            //by a change to a signature are dirty too, and
+            //may in turn change further signatures
+            Set<String> changes = new HashSet<String>();
+            //the simple names of the toplevel declarations
+            //added to each package
+            Map<Package,Set<String>> addedNames = 
+                    new HashMap<Package,Set<String>>();
+            for (PhasedUnit pu: listOfUnits) {
+                String path = pu.getUnitFile().getPath();
+                DeclarationSignatures before = signatures.get(path);
+                changes.addAll(DeclarationSignatures.of(pu.getUnit())
+                        .getChangesSince(before));
+                for (Declaration d: pu.getUnit().getDeclarations()) {
+                    if (d.isToplevel() && d.getName()!=null &&
+                            !before.getQualifiedNames()
+                                    .contains(d.getQualifiedNameString())) {
+                        Set<String> names = addedNames.get(pu.getPackage());
+                        if (names==null) {
+                            names = new HashSet<String>();
+                            addedNames.put(pu.getPackage(), names);
+                        }
+                        names.add(d.getName());
+                    }
+                }
+            }
+            Set<String> affected = getAffectedDeclarations(changes);
+            Set<String> dependents = new LinkedHashSet<String>();
+            if (!affected.isEmpty() || !addedNames.isEmpty()) {
+                for (PhasedUnit pu: phasedUnits.getPhasedUnits()) {
+                    String path = pu.getUnitFile().getPath();
+                    if (!dirtyPaths.contains(path) && !isDescriptor(pu) &&
+                            (pu.getUnit().getDeclarationDependencies()
+                                    .dependsOnAny(affected) ||
+                            mayResolveToAddedName(pu.getUnit(), addedNames))) {
+                        dependents.add(path);
+                    }
+                }
+            }
+            if (dependents.isEmpty()) {
+                break;
+            }
+            dirtyPaths.addAll(dependents);
+        }
+        
+        long time = System.nanoTime()-start;
+        if(statistics)
+            System.out.println("Updated " + listOfUnits.size() + " units in " + time/1000000 + " ms");
+        return listOfUnits;
+    }
+    
+    /**
+     * The given toplevel declarations, and the toplevel 
+     * declarations whose signatures refer, directly or
+     * transitively, to one of them.
+     * 
+     * @param changes the qualified names of the toplevel
+     *        declarations whose signatures changed
+     * @return the qualified names of the toplevel 
+     *         declarations affected by the changes
+     */
+    private Set<String> getAffectedDeclarations(Set<String> changes) {
+        Set<String> affected = new HashSet<String>(changes);
+        if (changes.isEmpty()) {
+            return affected;
+        }
+        Map<String,List<String>> signatureDependents = 
+                new HashMap<String,List<String>>();
+        for (PhasedUnit pu: phasedUnits.getPhasedUnits()) {
+            DeclarationDependencies dependencies = 
+                    pu.getUnit().getDeclarationDependencies();
+            for (Declaration d: dependencies.getDependents()) {
+                String name = d.getQualifiedNameString();
+                for (Declaration dependency: 
+                        dependencies.getSignatureDependencies(d)) {
+                    String dependencyName = dependency.getQualifiedNameString();
+                    List<String> list = signatureDependents.get(dependencyName);
+                    if (list==null) {
+                        list = new ArrayList<String>();
+                        signatureDependents.put(dependencyName, list);
+                    }
+                    list.add(name);
+                }
+            }
+        }
+        LinkedList<String> worklist = new LinkedList<String>(changes);
+        while (!worklist.isEmpty()) {
+            List<String> list = signatureDependents.get(worklist.removeFirst());
+            if (list!=null) {
+                for (String name: list) {
+                    if (affected.add(name)) {
+                        worklist.add(name);
+                    }
+                }
+            }
+        }
+        return affected;
+    }
+    
+    /**
+     * May a name of the given unit resolve to one of the
+     * toplevel declarations added to a package, instead of
+     * to the declaration it resolved to before? That is,
+     * does the unit belong to the package, or import from 
+     * it, or refer to some other toplevel declaration with 
+     * the same name?
+     */
+    private static boolean mayResolveToAddedName(Unit unit, 
+            Map<Package,Set<String>> addedNames) {
+        if (addedNames.isEmpty()) {
+            return false;
+        }
+        if (addedNames.containsKey(unit.getPackage())) {
+            return true;
+        }
+        for (ImportList il: unit.getImportLists()) {
+            if (addedNames.containsKey(il.getImportedScope())) {
+                return true;
+            }
+        }
+        Set<String> names = new HashSet<String>();
+        for (Set<String> set: addedNames.values()) {
+            names.addAll(set);
+        }
+        return unit.getDeclarationDependencies().dependsOnAnyNamed(names);
+    }
+    
+    /**
+     * Descriptors are processed by the module phases, which
+     * are not run again by {@link #update}.
+     */
+    private static boolean isDescriptor(PhasedUnit pu) {
+        String fileName = pu.getUnitFile().getName();
+        return ModuleManager.MODULE_FILE.equals(fileName) ||
+                ModuleManager.PACKAGE_FILE.equals(fileName);
+    }
+    
+    private static void checkNotDescriptor(String fileName) {
+        if (ModuleManager.MODULE_FILE.equals(fileName) ||
+                ModuleManager.PACKAGE_FILE.equals(fileName)) {
+            throw new IllegalArgumentException("module and package descriptors may not be updated: " + 
+                    fileName);
+        }
+    }
+    
+    private VirtualFile getSrcDirectory(VirtualFile file) {
+        String path = file.getPath();
+        for (VirtualFile srcDir: srcDirectories) {
+            String srcPath = srcDir.getPath();
+            if (srcDir.isFolder() && 
+                    path.startsWith(srcPath) &&
+                    path.length()>srcPath.length() &&
+                    (srcPath.endsWith("/") || 
+                            path.charAt(srcPath.length())=='/')) {
+                return srcDir;
+            }
+        }
+        throw new IllegalArgumentException("source file is not in a source directory: " + 
+                path);
+    }
+    
+    private Package getPackage(VirtualFile file, VirtualFile srcDir) {
+        String relativePath = Helper.computeRelativePath(file, srcDir);
+        int lastSlash = relativePath.lastIndexOf('/');
+        String packageName = lastSlash<0 ? "" : 
+            relativePath.substring(0, lastSlash).replace('/', '.');
+        for (Module module: phasedUnits.getModuleManager().getCompiledModules()) {
+            Package pkg = module.getDirectPackage(packageName);
+            if (pkg!=null) {
+                return pkg;
+            }
+        }
+        Package pkg = context.getModules().getDefaultModule()
+                .getDirectPackage(packageName);
+        if (pkg!=null) {
+            return pkg;
+        }
+        throw new IllegalArgumentException("source file is not in a known package: " + 
+                file.getPath());
+    }
+    
+    private void clearProducedTypeCache(Unit unit) {
+        Set<Module> modules = context.getModules().getListOfModules();
+        for (Declaration d: unit.getDeclarations()) {
+            if (d instanceof TypeDeclaration) {
+                TypeDeclaration td = (TypeDeclaration) d;
+                Util.clearProducedTypeCache(td);
+                //the supertypes of a type are cached by the 
+                //module of each supertype, which may be any
+                //module the module of the type imports
+                for (Module module: modules) {
+                    module.clearCache(td);
+                }
+            }
+        }
+    }
+    
     private void executePhases(PhasedUnits phasedUnits, boolean forceSilence) {
         final List<PhasedUnit> listOfUnits = phasedUnits.getPhasedUnits();
 
@@ -145,44 +567,201 @@ public class TypeChecker {
         }
 
         final ModuleValidator moduleValidator = new ModuleValidator(context, phasedUnits);
+        moduleValidator.setParallelism(parallelism);
+        moduleValidator.setLazyDependencies(lazyDependencies);
         if (verifyDependencies) {
             moduleValidator.verifyModuleDependencyTree();
         }
         phasedUnitsOfDependencies = moduleValidator.getPhasedUnitsOfDependencies();
 
+        executeUnitPhases(listOfUnits);
+
+        if (!forceSilence) {
+            for (PhasedUnit pu : listOfUnits) {
+                if (verbose) {
+                    pu.display();
+                }
+                pu.generateStatistics(statsVisitor);
+                pu.runAssertions(assertionVisitor);
+            }
+            if(verbose||statistics)
+            	statsVisitor.print();
+            assertionVisitor.print(verbose);
+        }
+        
+    }
+    
+    /**
+     * Run the type checking phases over the given units.
+     */
+    private void executeUnitPhases(List<PhasedUnit> listOfUnits) {
+        //the declaration scanning phases build the shared
+        //model and detect duplicate and circular declarations
+        //across units, so their results depend on the order
+        //in which units are visited: always run them in order
+        long validateTreeTime = 0;
+        long scanDeclarationsTime = 0;
         for (PhasedUnit pu : listOfUnits) {
+            long start = System.nanoTime();
             pu.validateTree();
+            long validated = System.nanoTime();
             pu.scanDeclarations();
+            validateTreeTime += validated-start;
+            scanDeclarationsTime += System.nanoTime()-validated;
         }
+        reportPhase(MetricsListener.VALIDATE_TREE, listOfUnits, validateTreeTime);
+        reportPhase(MetricsListener.SCAN_DECLARATIONS, listOfUnits, scanDeclarationsTime);
+        long start = System.nanoTime();
         for (PhasedUnit pu : listOfUnits) {
             pu.scanTypeDeclarations();
         }
+        start = phaseCompleted(MetricsListener.SCAN_TYPE_DECLARATIONS, listOfUnits, start);
         for (PhasedUnit pu: listOfUnits) {
             pu.validateRefinement();
         }
-        for (PhasedUnit pu : listOfUnits) {
-            pu.analyseTypes();
+        start = phaseCompleted(MetricsListener.VALIDATE_REFINEMENT, listOfUnits, start);
+        //the analysis phases write to the tree of the unit
+        //being analysed, and to the model of other units only
+        //through thread safe structures, such as the set of
+        //dependents of a unit, so they may be run across 
+        //units concurrently, with a barrier between phases,
+        //except that the ExpressionVisitor sets the inferred
+        //type of each declaration of the unit without an
+        //explicit type, which other units read if it is a
+        //toplevel or shared declaration
+        ForkJoinPool pool = parallelism>1 && listOfUnits.size()>1 ? 
+                new ForkJoinPool(parallelism) : null;
+        try {
+            //the types other units see then depend on the 
+            //order in which units are analysed, so analyse 
+            //them in order
+            ForkJoinPool typesPool = 
+                    hasInferredSharedTypes(listOfUnits) ? null : pool;
+            executePhase(typesPool, listOfUnits, new Phase() {
+                @Override
+                public void execute(PhasedUnit pu) {
+                    pu.analyseTypes();
+                }
+            });
+            start = phaseCompleted(MetricsListener.ANALYSE_TYPES, listOfUnits, start);
+            executePhase(pool, listOfUnits, new Phase() {
+                @Override
+                public void execute(PhasedUnit pu) {
+                    pu.analyseFlow();
+                }
+            });
+            start = phaseCompleted(MetricsListener.ANALYSE_FLOW, listOfUnits, start);
+            executePhase(pool, listOfUnits, new Phase() {
+                @Override
+                public void execute(PhasedUnit pu) {
+                    pu.analyseUsage();
+                }
+            });
+            phaseCompleted(MetricsListener.ANALYSE_USAGE, listOfUnits, start);
         }
-        for (PhasedUnit pu: listOfUnits) {
-            pu.analyseFlow();
+        finally {
+            if (pool!=null) {
+                pool.shutdown();
+            }
+        }
+        if (!retainTokens) {
+            for (PhasedUnit pu: listOfUnits) {
+                pu.discardTokens();
+            }
         }
+    }
+    
+    /**
+     * Whether the type of a toplevel or shared declaration
+     * of one of the given units will be inferred when the
+     * unit is analysed. That is an error, except in dynamic
+     * interfaces. Every other declaration visible outside 
+     * its unit has its type by now.
+     */
+    private static boolean hasInferredSharedTypes(List<PhasedUnit> listOfUnits) {
         for (PhasedUnit pu: listOfUnits) {
-            pu.analyseUsage();
+            for (Declaration d: pu.getUnit().getDeclarations()) {
+                if (d instanceof TypedDeclaration && 
+                        (d.isToplevel() || d.isShared()) &&
+                        ((TypedDeclaration) d).getType()==null) {
+                    return true;
+                }
+            }
         }
-
-        if (!forceSilence) {
-            for (PhasedUnit pu : listOfUnits) {
-                if (verbose) {
-                    pu.display();
+        return false;
+    }
+    
+    /**
+     * Report the time taken by the given phase, which 
+     * started at the given time, to the metrics listener,
+     * if there is one, and return the current time.
+     */
+    private long phaseCompleted(String phase, List<PhasedUnit> listOfUnits, 
+            long start) {
+        long now = System.nanoTime();
+        reportPhase(phase, listOfUnits, now-start);
+        return now;
+    }
+    
+    private void reportPhase(String phase, List<PhasedUnit> listOfUnits, 
+            long nanos) {
+        MetricsListener metricsListener = context.getMetricsListener();
+        if (metricsListener!=null) {
+            metricsListener.phaseCompleted(phase, listOfUnits.size(), nanos);
+        }
+    }
+    
+    private static interface Phase {
+        void execute(PhasedUnit pu);
+    }
+    
+    /**
+     * Run the given phase over all the units, on the given 
+     * pool if there is one, and return once the phase has 
+     * completed for every unit. If the phase fails for 
+     * several units, the failure of the first unit in the 
+     * list is rethrown, as it would have been by a 
+     * sequential run.
+     */
+    private static void executePhase(ForkJoinPool pool, 
+            List<PhasedUnit> listOfUnits, final Phase phase) {
+        if (pool==null) {
+            for (PhasedUnit pu: listOfUnits) {
+                phase.execute(pu);
+            }
+        }
+        else {
+            List<Callable<Void>> tasks = 
+                    new ArrayList<Callable<Void>>(listOfUnits.size());
+            for (final PhasedUnit pu: listOfUnits) {
+                tasks.add(new Callable<Void>() {
+                    @Override
+                    public Void call() {
+                        phase.execute(pu);
+                        return null;
+                    }
+                });
+            }
+            for (Future<Void> result: pool.invokeAll(tasks)) {
+                try {
+                    result.get();
+                }
+                catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    throw new RuntimeException(ie);
+                }
+                catch (ExecutionException ee) {
+                    Throwable cause = ee.getCause();
+                    if (cause instanceof RuntimeException) {
+                        throw (RuntimeException) cause;
+                    }
+                    if (cause instanceof Error) {
+                        throw (Error) cause;
+                    }
+                    throw new RuntimeException(cause);
                 }
-                pu.generateStatistics(statsVisitor);
-                pu.runAssertions(assertionVisitor);
             }
-            if(verbose||statistics)
-            	statsVisitor.print();
-            assertionVisitor.print(verbose);
         }
-        
     }
     
     public int getErrors(){
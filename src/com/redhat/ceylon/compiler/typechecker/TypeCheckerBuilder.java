@@ -6,10 +6,13 @@ import java.util.List;
 
 import com.redhat.ceylon.cmr.api.RepositoryManager;
 import com.redhat.ceylon.cmr.ceylon.CeylonUtils;
+import com.redhat.ceylon.compiler.typechecker.context.ParseCache;
 import com.redhat.ceylon.compiler.typechecker.io.VFS;
 import com.redhat.ceylon.compiler.typechecker.io.VirtualFile;
 import com.redhat.ceylon.compiler.typechecker.io.cmr.impl.LeakingLogger;
+import com.redhat.ceylon.compiler.typechecker.snapshot.ModelSnapshotStore;
 import com.redhat.ceylon.compiler.typechecker.util.AssertionVisitor;
+import com.redhat.ceylon.compiler.typechecker.util.MetricsListener;
 import com.redhat.ceylon.compiler.typechecker.util.ModuleManagerFactory;
 
 /**
@@ -38,6 +41,13 @@ public class TypeCheckerBuilder {
     private ModuleManagerFactory moduleManagerFactory;
     private RepositoryManager repositoryManager;
     private List<String> moduleFilters = new ArrayList<String>();
+    private int parallelism = 1;
+    private ModelSnapshotStore modelSnapshots;
+    private boolean retainTokens = true;
+    private ParseCache parseCache;
+    private MetricsListener metricsListener;
+    private boolean lazyDependencies = false;
+    private boolean incrementalUpdates = false;
 
     public TypeCheckerBuilder() {}
 
@@ -112,6 +122,125 @@ public class TypeCheckerBuilder {
         return this;
     }
 
+    /**
+     * Sets the number of threads used to parse the source
+     * files and to run the type checking phases over the
+     * compilation units. The
+     * default, <code>1</code>, runs every phase on the
+     * calling thread. A value of <code>0</code> uses one
+     * thread per available processor.
+     *
+     * @param parallelism the number of worker threads
+     * @return this builder
+     */
+    public TypeCheckerBuilder parallelism(int parallelism) {
+        if (parallelism<0) {
+            throw new IllegalArgumentException("parallelism must not be negative");
+        }
+        this.parallelism = parallelism==0 ? 
+                Runtime.getRuntime().availableProcessors() : 
+                parallelism;
+        return this;
+    }
+
+    /**
+     * Sets a directory in which the models of the source
+     * modules which are dependencies of the checked code
+     * are cached. A module whose model has been cached by
+     * a previous run of the same version of the type
+     * checker is loaded from the cache instead of being
+     * parsed and typechecked again.
+     *
+     * @param directory the cache directory, or null to
+     *        disable caching
+     * @return this builder
+     */
+    public TypeCheckerBuilder modelSnapshots(File directory) {
+        this.modelSnapshots = directory==null ? 
+                null : new ModelSnapshotStore(directory);
+        return this;
+    }
+
+    /**
+     * Determines if the tokens of each source file are
+     * kept once the file has been typechecked. They are
+     * kept by default. The tokens held by the trees of
+     * the compilation units are always kept.
+     *
+     * @param retainTokens false to discard the tokens
+     *        once the type checking phases are complete
+     * @return this builder
+     */
+    public TypeCheckerBuilder retainTokens(boolean retainTokens) {
+        this.retainTokens = retainTokens;
+        return this;
+    }
+
+    /**
+     * Sets a cache of parsed source files, which may be
+     * shared with other type checkers, so that a source 
+     * file which has not changed since it was parsed for
+     * any of them is not parsed again.
+     *
+     * @param parseCache the cache, for example 
+     *        {@link ParseCache#getShared()}, or null to
+     *        always parse the source files
+     * @return this builder
+     */
+    public TypeCheckerBuilder parseCache(ParseCache parseCache) {
+        this.parseCache = parseCache;
+        return this;
+    }
+
+    /**
+     * Sets a listener to the time spent by each type 
+     * checking phase, by each visitor, and on each source
+     * file.
+     *
+     * @param metricsListener the listener, for example a
+     *        {@link com.redhat.ceylon.compiler.typechecker.util.PhaseStatistics},
+     *        or null to measure nothing
+     * @return this builder
+     */
+    public TypeCheckerBuilder metricsListener(MetricsListener metricsListener) {
+        this.metricsListener = metricsListener;
+        return this;
+    }
+
+    /**
+     * Determines if the source files of the dependencies
+     * are only typechecked as far as the source files of
+     * the project need them. A package of a dependency is
+     * only scanned once it is imported, and a source file
+     * only typechecked once one of its declarations is
+     * used. By default every source file of every 
+     * dependency is typechecked.
+     *
+     * @param lazyDependencies true to typecheck the
+     *        dependencies on demand
+     * @return this builder
+     */
+    public TypeCheckerBuilder lazyDependencies(boolean lazyDependencies) {
+        this.lazyDependencies = lazyDependencies;
+        return this;
+    }
+
+    /**
+     * Determines if the type checker records which source
+     * files depend on each other, so that it may typecheck
+     * only the affected source files again after a change,
+     * using {@link TypeChecker#update}. By default nothing
+     * is recorded, and update() may not be called.
+     *
+     * @param incrementalUpdates true to allow incremental
+     *        updates
+     * @return this builder
+     */
+    public TypeCheckerBuilder incrementalUpdates(boolean incrementalUpdates) {
+        this.incrementalUpdates = incrementalUpdates;
+        return this;
+    }
+
     public TypeCheckerBuilder moduleManagerFactory(ModuleManagerFactory moduleManagerFactory){
     	this.moduleManagerFactory = moduleManagerFactory;
     	return this;
@@ -133,7 +262,9 @@ public class TypeCheckerBuilder {
                     .buildManager();
         }
         return new TypeChecker(vfs, srcDirectories, repositoryManager, verifyDependencies, assertionVisitor,
-                moduleManagerFactory, verbose, statistics, moduleFilters, encoding);
+                moduleManagerFactory, verbose, statistics, moduleFilters, encoding, parallelism, modelSnapshots, 
+                retainTokens, parseCache, metricsListener, lazyDependencies, 
+                incrementalUpdates);
     }
 
 }
@@ -0,0 +1,370 @@
+package com.redhat.ceylon.compiler.typechecker.analyzer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.redhat.ceylon.compiler.typechecker.model.Declaration;
+import com.redhat.ceylon.compiler.typechecker.model.Parameter;
+import com.redhat.ceylon.compiler.typechecker.model.Scope;
+import com.redhat.ceylon.compiler.typechecker.model.Setter;
+import com.redhat.ceylon.compiler.typechecker.model.TypeDeclaration;
+import com.redhat.ceylon.compiler.typechecker.model.Unit;
+import com.redhat.ceylon.compiler.typechecker.tree.Message;
+import com.redhat.ceylon.compiler.typechecker.tree.NaturalVisitor;
+import com.redhat.ceylon.compiler.typechecker.tree.Node;
+import com.redhat.ceylon.compiler.typechecker.tree.Tree;
+import com.redhat.ceylon.compiler.typechecker.tree.Visitor;
+
+/**
+ * Runs the {@link SpecificationVisitor} for every
+ * declaration of a compilation unit, and the
+ * {@link SelfReferenceVisitor} for every type
+ * declaration, reporting exactly the errors that
+ * walking the whole compilation unit once for each
+ * declaration would report.
+ *
+ * A single pass over the compilation unit first
+ * records where each declaration is declared or
+ * referred to. The SpecificationVisitor for a
+ * declaration then skips every statement declaring
+ * something else which does not mention it, since the
+ * visitor saves and restores its state around such
+ * statements, and never reports an error within them.
+ * The SelfReferenceVisitor for a type only walks the
+ * declaration of the type, since nothing outside it
+ * is in the body of the type.
+ *
+ * An exception thrown by one of these visitors is
+ * reported once for every walk which reaches the
+ * node, and the restricted walks reach fewer nodes.
+ * So the whole compilation unit is still walked for
+ * each declaration when the unit already has errors,
+ * since the visitors may then find the model to be
+ * incomplete, and when a restricted walk fails, in
+ * which case the messages it reported are removed
+ * first.
+ *
+ * @see Mentions
+ */
+public class DeclarationFlowVisitor extends Visitor {
+
+    private final Unit unit;
+
+    public DeclarationFlowVisitor(Unit unit) {
+        this.unit = unit;
+    }
+
+    @Override
+    public void visit(Tree.CompilationUnit that) {
+        Mentions mentions = new Mentions();
+        that.visitChildren(mentions);
+        if (!mentions.failed && !mentions.erroneous) {
+            visitMentions(that, mentions);
+            if (!mentions.failed) {
+                return;
+            }
+            //forget what the restricted walks reported
+            that.visit(new MessageTruncator(mentions.messageCounts));
+        }
+        //fall back to walking everything
+        for (Declaration d: unit.getDeclarations()) {
+            if (d.getName()!=null) {
+                that.visit(new SpecificationVisitor(d));
+                if (d instanceof TypeDeclaration) {
+                    that.visit(new SelfReferenceVisitor((TypeDeclaration) d));
+                }
+            }
+        }
+    }
+
+    private void visitMentions(Tree.CompilationUnit that, 
+            final Mentions mentions) {
+        for (Declaration d: unit.getDeclarations()) {
+            if (mentions.failed) {
+                return;
+            }
+            if (d.getName()!=null) {
+                that.visit(new SpecificationVisitor(d, mentions) {
+                    @Override
+                    public void handleException(Exception e, Node node) {
+                        mentions.failed = true;
+                    }
+                });
+                if (d instanceof TypeDeclaration) {
+                    new SelfReferenceVisitor((TypeDeclaration) d) {
+                        @Override
+                        public void handleException(Exception e, Node node) {
+                            mentions.failed = true;
+                        }
+                    }.visitDeclaringNodes(mentions);
+                }
+            }
+        }
+    }
+
+    /**
+     * Removes the messages added to the nodes of a
+     * compilation unit since they were counted.
+     */
+    private static final class MessageTruncator extends Visitor {
+
+        private final Map<Node,Integer> messageCounts;
+
+        MessageTruncator(Map<Node,Integer> messageCounts) {
+            this.messageCounts = messageCounts;
+        }
+
+        @Override
+        public void visitAny(Node that) {
+            List<Message> messages = that.getErrors();
+            Integer count = messageCounts.get(that);
+            int keep = count==null ? 0 : count;
+            while (messages.size()>keep) {
+                messages.remove(messages.size()-1);
+            }
+            super.visitAny(that);
+        }
+
+    }
+
+    /**
+     * The positions, in a preorder numbering of the
+     * nodes of a compilation unit, at which each
+     * declaration is declared or referred to, along
+     * with the extent of each declaration, and the
+     * nodes which declare each type. The nodes are
+     * visited in their natural order, so that the
+     * extent of a declaration includes its specifier.
+     * Also counts the messages already reported on 
+     * each node, and whether any of them is an error.
+     */
+    static final class Mentions extends Visitor 
+            implements NaturalVisitor {
+
+        private final Map<Declaration,Positions> positions =
+                new IdentityHashMap<Declaration,Positions>();
+        private final Map<Node,int[]> extents =
+                new IdentityHashMap<Node,int[]>();
+        private final Map<TypeDeclaration,List<TypeNode>> typeNodes =
+                new IdentityHashMap<TypeDeclaration,List<TypeNode>>();
+        private final List<Tree.Super> defaultArgumentSupers =
+                new ArrayList<Tree.Super>();
+        private final List<Integer> defaultArgumentSuperPositions =
+                new ArrayList<Integer>();
+        private final Map<Node,Integer> messageCounts =
+                new IdentityHashMap<Node,Integer>();
+
+        private int position = 0;
+        private int annotationDepth = 0;
+        private int parameterDepth = 0;
+        private boolean failed = false;
+        private boolean erroneous = false;
+
+        @Override
+        public void handleException(Exception e, Node that) {
+            //don't report anything, since the per-declaration
+            //visitors will report their own exceptions
+            failed = true;
+        }
+
+        @Override
+        public void visitAny(Node that) {
+            int start = position++;
+            countMessages(that);
+            mention(that, start);
+            boolean annotations = that instanceof Tree.AnnotationList;
+            boolean parameter = that instanceof Tree.Parameter;
+            if (annotations) annotationDepth++;
+            if (parameter) parameterDepth++;
+            super.visitAny(that);
+            if (annotations) annotationDepth--;
+            if (parameter) parameterDepth--;
+            if (that instanceof Tree.Declaration) {
+                extents.put(that, new int[] { start, position-1 });
+            }
+            TypeDeclaration type = declaredType(that);
+            if (type!=null && annotationDepth==0) {
+                List<TypeNode> nodes = typeNodes.get(type);
+                if (nodes==null) {
+                    nodes = new ArrayList<TypeNode>(1);
+                    typeNodes.put(type, nodes);
+                }
+                nodes.add(new TypeNode(that, start, position-1,
+                        parameterDepth>0));
+            }
+        }
+
+        private void countMessages(Node that) {
+            List<Message> messages = that.getErrors();
+            if (!messages.isEmpty()) {
+                messageCounts.put(that, messages.size());
+                for (Message message: messages) {
+                    if (!(message instanceof UsageWarning)) {
+                        erroneous = true;
+                    }
+                }
+            }
+        }
+
+        private void mention(Node that, int at) {
+            if (that instanceof Tree.Declaration) {
+                Declaration d =
+                        ((Tree.Declaration) that).getDeclarationModel();
+                add(d, at);
+                if (d instanceof Setter) {
+                    Parameter p = ((Setter) d).getParameter();
+                    if (p!=null) {
+                        add(p.getModel(), at);
+                    }
+                }
+            }
+            else if (that instanceof Tree.TypedArgument) {
+                add(((Tree.TypedArgument) that).getDeclarationModel(), at);
+            }
+            else if (that instanceof Tree.MemberOrTypeExpression) {
+                add(((Tree.MemberOrTypeExpression) that).getDeclaration(), at);
+            }
+            else if (that instanceof Tree.MetaLiteral) {
+                add(((Tree.MetaLiteral) that).getDeclaration(), at);
+            }
+            else if (that instanceof Tree.Parameter) {
+                Parameter p = ((Tree.Parameter) that).getParameterModel();
+                if (p!=null) {
+                    add(p.getModel(), at);
+                    Scope scope = that.getScope();
+                    if (that instanceof Tree.InitializerParameter &&
+                            scope!=null && p.getName()!=null) {
+                        add(scope.getDirectMember(p.getName(), null, false), at);
+                    }
+                }
+            }
+            else if (that instanceof Tree.Super &&
+                    parameterDepth>0 && annotationDepth==0) {
+                defaultArgumentSupers.add((Tree.Super) that);
+                defaultArgumentSuperPositions.add(at);
+            }
+        }
+
+        private static TypeDeclaration declaredType(Node that) {
+            if (that instanceof Tree.TypeDeclaration) {
+                return ((Tree.TypeDeclaration) that).getDeclarationModel();
+            }
+            else if (that instanceof Tree.ObjectDefinition) {
+                return ((Tree.ObjectDefinition) that).getAnonymousClass();
+            }
+            else if (that instanceof Tree.ObjectArgument) {
+                return ((Tree.ObjectArgument) that).getAnonymousClass();
+            }
+            else if (that instanceof Tree.ObjectExpression) {
+                return ((Tree.ObjectExpression) that).getAnonymousClass();
+            }
+            else {
+                return null;
+            }
+        }
+
+        private void add(Declaration d, int at) {
+            if (d!=null) {
+                Positions p = positions.get(d);
+                if (p==null) {
+                    p = new Positions();
+                    positions.put(d, p);
+                }
+                p.add(at);
+            }
+        }
+
+        /**
+         * Does the given declaration node declare or
+         * refer to the given declaration anywhere
+         * within it?
+         */
+        boolean isMentionedWithin(Declaration d, Tree.Declaration that) {
+            int[] extent = extents.get(that);
+            if (extent==null) {
+                return true;
+            }
+            Positions p = positions.get(d);
+            return p!=null && p.within(extent[0], extent[1]);
+        }
+
+        /**
+         * The nodes which declare the given type, and
+         * which are not within an annotation.
+         */
+        List<TypeNode> getTypeNodes(TypeDeclaration td) {
+            List<TypeNode> nodes = typeNodes.get(td);
+            if (nodes==null) {
+                return Collections.emptyList();
+            }
+            return nodes;
+        }
+
+        /**
+         * The super references occurring in a parameter
+         * list, and not within an annotation, which do
+         * not occur within the given nodes.
+         */
+        List<Tree.Super> getDefaultArgumentSupers(List<TypeNode> excluding) {
+            List<Tree.Super> supers =
+                    new ArrayList<Tree.Super>(defaultArgumentSupers.size());
+            for (int i=0; i<defaultArgumentSupers.size(); i++) {
+                int at = defaultArgumentSuperPositions.get(i);
+                boolean excluded = false;
+                for (TypeNode tn: excluding) {
+                    if (at>=tn.start && at<=tn.end) {
+                        excluded = true;
+                        break;
+                    }
+                }
+                if (!excluded) {
+                    supers.add(defaultArgumentSupers.get(i));
+                }
+            }
+            return supers;
+        }
+
+    }
+
+    static final class TypeNode {
+        final Node node;
+        final int start;
+        final int end;
+        final boolean inParameter;
+        TypeNode(Node node, int start, int end, boolean inParameter) {
+            this.node = node;
+            this.start = start;
+            this.end = end;
+            this.inParameter = inParameter;
+        }
+    }
+
+    private static final class Positions {
+
+        private int[] positions = new int[2];
+        private int size = 0;
+
+        void add(int position) {
+            if (size==positions.length) {
+                positions = Arrays.copyOf(positions, size*2);
+            }
+            positions[size++] = position;
+        }
+
+        boolean within(int start, int end) {
+            //positions are added in increasing order
+            int i = Arrays.binarySearch(positions, 0, size, start);
+            if (i>=0) {
+                return true;
+            }
+            int next = -i-1;
+            return next<size && positions[next]<=end;
+        }
+
+    }
+
+}
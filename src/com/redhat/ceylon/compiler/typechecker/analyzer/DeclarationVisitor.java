@@ -84,6 +84,7 @@ public class DeclarationVisitor extends Visitor implements NaturalVisitor {
     private String relativePath;
     private boolean dynamic;
     protected UnitFactory unitFactory;
+    private ReusableDeclarations reusableDeclarations;
     
     public DeclarationVisitor(Package pkg, String filename,
             String fullPath, String relativePath, UnitFactory unitFactory) {
@@ -99,6 +100,37 @@ public class DeclarationVisitor extends Visitor implements NaturalVisitor {
         return unit;
     }
     
+    /**
+     * Reuse the declarations of the previous model of the
+     * unit, instead of creating new declarations.
+     */
+    public void setReusableDeclarations(
+            ReusableDeclarations reusableDeclarations) {
+        this.reusableDeclarations = reusableDeclarations;
+    }
+    
+    private <D extends Declaration> D reuse(D model, 
+            Tree.Declaration that) {
+        Tree.Identifier id = that.getIdentifier();
+        if (id==null || id.isMissingToken()) {
+            return model;
+        }
+        else {
+            return reuse(model, getContainer(that), id.getText());
+        }
+    }
+    
+    private <D extends Declaration> D reuse(D model, 
+            Scope container, String name) {
+        return reusableDeclarations==null ? model :
+            reusableDeclarations.reuse(model, container, name);
+    }
+    
+    private Parameter reuse(Parameter parameter) {
+        return reusableDeclarations==null ? parameter :
+            reusableDeclarations.reuse(parameter);
+    }
+    
     private Scope enterScope(Scope innerScope) {
         Scope outerScope = scope;
         scope = innerScope;
@@ -410,7 +442,7 @@ public class DeclarationVisitor extends Visitor implements NaturalVisitor {
     
     @Override
     public void visit(Tree.ClassDefinition that) {
-        Class c = new Class();
+        Class c = reuse(new Class(), that);
         String pname = unit.getPackage().getQualifiedNameString();
         if (!"ceylon.language".equals(pname) ||
             !"Anything".equalsIgnoreCase(name(that.getIdentifier()))) {
@@ -427,7 +459,7 @@ public class DeclarationVisitor extends Visitor implements NaturalVisitor {
     
     @Override
     public void visit(Tree.ClassDeclaration that) {
-        Class c = new ClassAlias();
+        Class c = reuse(new ClassAlias(), that);
         that.setDeclarationModel(c);
         super.visit(that);
         if (that.getParameterList()==null) {
@@ -467,7 +499,7 @@ public class DeclarationVisitor extends Visitor implements NaturalVisitor {
     
     @Override
     public void visit(Tree.Constructor that) {
-        Constructor c = new Constructor();
+        Constructor c = reuse(new Constructor(), that);
         if (scope instanceof Class) {
             Class clazz = (Class) scope;
             c.setExtendedType(clazz.getType());
@@ -508,7 +540,7 @@ public class DeclarationVisitor extends Visitor implements NaturalVisitor {
 
     @Override
     public void visit(Tree.InterfaceDefinition that) {
-        Interface i = new Interface();
+        Interface i = reuse(new Interface(), that);
         i.setDynamic(that.getDynamic());
         defaultExtendedToObject(i);
         that.setDeclarationModel(i);
@@ -517,7 +549,7 @@ public class DeclarationVisitor extends Visitor implements NaturalVisitor {
     
     @Override
     public void visit(Tree.InterfaceDeclaration that) {
-        InterfaceAlias i = new InterfaceAlias();
+        InterfaceAlias i = reuse(new InterfaceAlias(), that);
         that.setDeclarationModel(i);
         super.visit(that);
     }
@@ -540,7 +572,7 @@ public class DeclarationVisitor extends Visitor implements NaturalVisitor {
     
     @Override
     public void visit(Tree.TypeAliasDeclaration that) {
-        TypeAlias a = new TypeAlias();
+        TypeAlias a = reuse(new TypeAlias(), that);
         that.setDeclarationModel(a);
         visitDeclaration(that, a);
         Scope o = enterScope(a);
@@ -552,7 +584,7 @@ public class DeclarationVisitor extends Visitor implements NaturalVisitor {
     public void visit(Tree.TypeParameterDeclaration that) {
         Tree.TypeSpecifier ts = that.getTypeSpecifier();
         Tree.TypeVariance tv = that.getTypeVariance();
-        TypeParameter p = new TypeParameter();
+        TypeParameter p = reuse(new TypeParameter(), that);
         defaultExtendedToAnything(p);
         p.setDeclaration(declaration);
         p.setDefaulted(ts!=null);
@@ -574,7 +606,7 @@ public class DeclarationVisitor extends Visitor implements NaturalVisitor {
     
     @Override
     public void visit(Tree.AnyMethod that) {
-        Method m = new Method();
+        Method m = reuse(new Method(), that);
         that.setDeclarationModel(m);
         visitDeclaration(that, m);
         Scope o = enterScope(m);
@@ -653,12 +685,12 @@ public class DeclarationVisitor extends Visitor implements NaturalVisitor {
         /*if (that.getClassBody()==null) {
             that.addError("missing object body");
         }*/
-        Class c = new Class();
+        Class c = reuse(new Class(), that);
         defaultExtendedToBasic(c);
         c.setAnonymous(true);
         that.setAnonymousClass(c);
         visitDeclaration(that, c, false);
-        Value v = new Value();
+        Value v = reuse(new Value(), that);
         that.setDeclarationModel(v);
         visitDeclaration(that, v);
         that.getType().setTypeModel(c.getType());
@@ -710,7 +742,7 @@ public class DeclarationVisitor extends Visitor implements NaturalVisitor {
     
     @Override
     public void visit(Tree.AttributeDeclaration that) {
-        Value v = new Value();
+        Value v = reuse(new Value(), that);
         that.setDeclarationModel(v);
         v.setTransient(that.getSpecifierOrInitializerExpression() 
                 instanceof Tree.LazySpecifierExpression);
@@ -792,7 +824,7 @@ public class DeclarationVisitor extends Visitor implements NaturalVisitor {
             
     @Override
     public void visit(Tree.AttributeGetterDefinition that) {
-        Value g = new Value();
+        Value g = reuse(new Value(), that);
         g.setTransient(true);
         that.setDeclarationModel(g);
         visitDeclaration(that, g);
@@ -822,18 +854,19 @@ public class DeclarationVisitor extends Visitor implements NaturalVisitor {
     
     @Override
     public void visit(Tree.AttributeSetterDefinition that) {
-        Setter s = new Setter();
+        Setter s = reuse(new Setter(), that);
         that.setDeclarationModel(s);
         visitDeclaration(that, s);
         Scope o = enterScope(s);
         Parameter p = new Parameter();
         p.setHidden(true);
-        Value v = new Value();
+        p.setName(s.getName());
+        p.setDeclaration(s);
+        p = reuse(p);
+        Value v = reuse(new Value(), s, s.getName());
         v.setInitializerParameter(p);
         p.setModel(v);
         v.setName(s.getName());
-        p.setName(s.getName());
-        p.setDeclaration(s);
         visitElement(that, v);
         unit.addDeclaration(v);
         Scope sc = getContainer(that);
@@ -864,6 +897,7 @@ public class DeclarationVisitor extends Visitor implements NaturalVisitor {
         p.setDefaulted(that.getSpecifierExpression()!=null);
         p.setHidden(true);
         p.setName(that.getIdentifier().getText());
+        p = reuse(p);
         that.setParameterModel(p);
 //        visitDeclaration(that, p);
         super.visit(that);
@@ -926,6 +960,8 @@ public class DeclarationVisitor extends Visitor implements NaturalVisitor {
         super.visit(that);
         Value v = (Value) that.getTypedDeclaration().getDeclarationModel();
         p.setName(v.getName());
+        p = reuse(p);
+        that.setParameterModel(p);
         p.setModel(v);
         v.setInitializerParameter(p);
         parameterList.getParameters().add(p);
@@ -954,8 +990,10 @@ public class DeclarationVisitor extends Visitor implements NaturalVisitor {
         that.setParameterModel(p);
         super.visit(that);
         Method m = (Method) that.getTypedDeclaration().getDeclarationModel();
-        p.setModel(m);
         p.setName(m.getName());
+        p = reuse(p);
+        that.setParameterModel(p);
+        p.setModel(m);
         m.setInitializerParameter(p);
         parameterList.getParameters().add(p);
         if (type instanceof Tree.SequencedType) {
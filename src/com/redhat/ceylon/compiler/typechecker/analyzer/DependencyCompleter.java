@@ -0,0 +1,145 @@
+package com.redhat.ceylon.compiler.typechecker.analyzer;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.redhat.ceylon.compiler.typechecker.context.PhasedUnit;
+import com.redhat.ceylon.compiler.typechecker.context.PhasedUnits;
+import com.redhat.ceylon.compiler.typechecker.model.Declaration;
+import com.redhat.ceylon.compiler.typechecker.model.Package;
+import com.redhat.ceylon.compiler.typechecker.model.PackageCompleter;
+import com.redhat.ceylon.compiler.typechecker.model.Unit;
+
+/**
+ * Runs the external module phases over the units of the
+ * dependencies on demand, instead of over every unit up
+ * front. The declarations of the units of a package are
+ * scanned when the package is first searched, and the
+ * type declarations and refinement of a unit when one of
+ * its declarations is first resolved.
+ *
+ * As when the phases run up front, the type declarations
+ * of every unit reached while scanning type declarations
+ * are scanned before the refinement of any of them is
+ * validated. The phase flags of each {@link PhasedUnit}
+ * make sure that no phase runs twice.
+ *
+ * Packages of different versions of a module may have the
+ * same name, so packages and units are compared by
+ * identity.
+ */
+class DependencyCompleter implements PackageCompleter {
+
+    private final Map<Package,List<PhasedUnit>> unscannedUnits =
+            Collections.synchronizedMap(new IdentityHashMap<Package,List<PhasedUnit>>());
+    private final Map<Unit,PhasedUnit> incompleteUnits =
+            Collections.synchronizedMap(new IdentityHashMap<Unit,PhasedUnit>());
+
+    //the rest is guarded by this completer
+    private final Set<Package> scanningPackages =
+            Collections.newSetFromMap(new IdentityHashMap<Package,Boolean>());
+    private final Set<PhasedUnit> scanningUnits =
+            Collections.newSetFromMap(new IdentityHashMap<PhasedUnit,Boolean>());
+    private final LinkedList<PhasedUnit> unvalidatedUnits =
+            new LinkedList<PhasedUnit>();
+    private int depth = 0;
+
+    private DependencyCompleter() {}
+
+    /**
+     * Complete the packages of the given units of the
+     * dependencies on demand.
+     */
+    static void install(List<PhasedUnits> phasedUnitsOfDependencies) {
+        DependencyCompleter completer = new DependencyCompleter();
+        for (PhasedUnits units : phasedUnitsOfDependencies) {
+            for (PhasedUnit pu : units.getPhasedUnits()) {
+                Package pkg = pu.getPackage();
+                List<PhasedUnit> list = completer.unscannedUnits.get(pkg);
+                if (list == null) {
+                    list = new ArrayList<PhasedUnit>();
+                    completer.unscannedUnits.put(pkg, list);
+                }
+                list.add(pu);
+            }
+        }
+        for (Package pkg : new ArrayList<Package>(completer.unscannedUnits.keySet())) {
+            pkg.setCompleter(completer);
+        }
+    }
+
+    @Override
+    public void completeMembers(Package pkg) {
+        if (!unscannedUnits.containsKey(pkg)) {
+            return;
+        }
+        synchronized (this) {
+            List<PhasedUnit> units = unscannedUnits.get(pkg);
+            //a unit of the package searching the package
+            //sees the declarations scanned so far, just as
+            //when the phases run up front
+            if (units == null || !scanningPackages.add(pkg)) {
+                return;
+            }
+            try {
+                for (PhasedUnit pu : units) {
+                    pu.scanDeclarations();
+                    incompleteUnits.put(pu.getUnit(), pu);
+                }
+            }
+            finally {
+                scanningPackages.remove(pkg);
+            }
+            unscannedUnits.remove(pkg);
+        }
+    }
+
+    @Override
+    public void completeDeclaration(Package pkg, Declaration decl) {
+        PhasedUnit pu = incompleteUnits.get(decl.getUnit());
+        if (pu == null) {
+            return;
+        }
+        synchronized (this) {
+            if (!scanningPackages.isEmpty()) {
+                //scanning declarations never needs the
+                //types of other declarations
+                return;
+            }
+            if (!pu.isTypeDeclarationsScanned() && scanningUnits.add(pu)) {
+                depth++;
+                try {
+                    pu.scanTypeDeclarations();
+                }
+                finally {
+                    depth--;
+                    scanningUnits.remove(pu);
+                }
+                unvalidatedUnits.add(pu);
+            }
+            if (depth == 0) {
+                validateRefinement();
+            }
+        }
+    }
+
+    private void validateRefinement() {
+        depth++;
+        try {
+            while (!unvalidatedUnits.isEmpty()) {
+                PhasedUnit pu = unvalidatedUnits.removeFirst();
+                pu.validateRefinement();
+                incompleteUnits.remove(pu.getUnit());
+            }
+        }
+        finally {
+            depth--;
+        }
+    }
+
+}
@@ -2,18 +2,22 @@ package com.redhat.ceylon.compiler.typechecker.analyzer;
 
 import static com.redhat.ceylon.compiler.typechecker.model.Util.formatPath;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
-import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
-import java.util.TreeMap;
 import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
 
 import com.redhat.ceylon.cmr.api.ArtifactContext;
 import com.redhat.ceylon.cmr.api.ArtifactResult;
@@ -22,10 +26,14 @@ import com.redhat.ceylon.compiler.typechecker.TypeChecker;
 import com.redhat.ceylon.compiler.typechecker.context.Context;
 import com.redhat.ceylon.compiler.typechecker.context.PhasedUnits;
 import com.redhat.ceylon.compiler.typechecker.io.ClosableVirtualFile;
+import com.redhat.ceylon.compiler.typechecker.io.VirtualFile;
 import com.redhat.ceylon.compiler.typechecker.model.Module;
 import com.redhat.ceylon.compiler.typechecker.model.ModuleImport;
 import com.redhat.ceylon.compiler.typechecker.model.Modules;
 import com.redhat.ceylon.compiler.typechecker.model.Package;
+import com.redhat.ceylon.compiler.typechecker.snapshot.ModelSnapshotReader;
+import com.redhat.ceylon.compiler.typechecker.snapshot.ModelSnapshotStore;
+import com.redhat.ceylon.compiler.typechecker.snapshot.ModelSnapshotWriter;
 import com.redhat.ceylon.compiler.typechecker.tree.Node;
 import com.redhat.ceylon.compiler.typechecker.tree.Tree.ModuleDescriptor;
 
@@ -49,18 +57,54 @@ public class ModuleManager {
     public static final String MODULE_FILE = "module.ceylon";
     public static final String PACKAGE_FILE = "package.ceylon";
     private final Context context;
-    private final LinkedList<Package> packageStack = new LinkedList<Package>();
-    private Module currentModule;
-    private Modules modules;
+    private int parallelism = 1;
+    private final ThreadLocal<PackageContext> packageContext = new ThreadLocal<PackageContext>();
+    private volatile Package emptyPackage;
+    private volatile Modules modules;
     private static Object PRESENT = new Object();
-    private final Map<ModuleImport,WeakHashMap<Node, Object>> moduleImportToNode = new HashMap<ModuleImport, WeakHashMap<Node, Object>>();
-    private Map<List<String>, Set<String>> topLevelErrorsPerModuleName = new HashMap<List<String>,Set<String>>();
-    private Map<Module, Node> moduleToNode = new TreeMap<Module, Node>();
+    private final ConcurrentMap<ModuleImport,Map<Node, Object>> moduleImportToNode = new ConcurrentHashMap<ModuleImport, Map<Node, Object>>();
+    private ConcurrentMap<List<String>, Set<String>> topLevelErrorsPerModuleName = new ConcurrentHashMap<List<String>,Set<String>>();
+    private ConcurrentMap<Module, Node> moduleToNode = new ConcurrentSkipListMap<Module, Node>();
+    private final Map<Module,byte[]> modulesToSnapshot = new LinkedHashMap<Module,byte[]>();
+    private final Map<Module,PreparedSource> preparedSources = new HashMap<Module,PreparedSource>();
+
+    /**
+     * The package of the directory being walked, and the
+     * module it belongs to, if any, of a thread walking 
+     * the source directories, so that several threads
+     * may walk different directories at once.
+     */
+    private static final class PackageContext {
+        final LinkedList<Package> packageStack = new LinkedList<Package>();
+        Module currentModule;
+    }
 
     public ModuleManager(Context context) {
         this.context = context;
     }
+
+    private PackageContext getPackageContext() {
+        PackageContext pc = packageContext.get();
+        if (pc == null) {
+            pc = new PackageContext();
+            pc.packageStack.addLast(emptyPackage);
+            packageContext.set(pc);
+        }
+        return pc;
+    }
     
+    /**
+     * Sets the number of threads used to lex and parse the
+     * source archive of each dependency.
+     */
+    public void setParallelism(int parallelism) {
+        this.parallelism = parallelism;
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
     protected Package createPackage(String pkgName, Module module) {
         final Package pkg = new Package();
         List<String> name = pkgName.isEmpty() ? Arrays.asList("") : splitModuleName(pkgName); 
@@ -73,8 +117,7 @@ public class ModuleManager {
     }
 
     public void initCoreModules() {
-        packageStack.clear();
-        currentModule = null;
+        packageContext.remove();
         
         modules = context.getModules();
         if ( modules == null ) {
@@ -82,7 +125,7 @@ public class ModuleManager {
             context.setModules(modules);
             //build empty package
             final Package emptyPackage = createPackage("", null);
-            packageStack.addLast(emptyPackage);
+            this.emptyPackage = emptyPackage;
 
             //build default module (module in which packages belong to when not explicitly under a module
             final List<String> defaultModuleName = Collections.singletonList(Module.DEFAULT_MODULE_NAME);
@@ -106,7 +149,7 @@ public class ModuleManager {
         }
         else {
             modules = context.getModules();
-            packageStack.addLast( modules.getDefaultModule().getPackages().get(0) );
+            emptyPackage = modules.getDefaultModule().getPackages().get(0);
         }
     }
 
@@ -126,7 +169,7 @@ public class ModuleManager {
     }
 
     public Package getCurrentPackage() {
-        return packageStack.peekLast();
+        return getPackageContext().packageStack.peekLast();
     }
 
     /**
@@ -138,40 +181,49 @@ public class ModuleManager {
         if (moduleName.size() == 0) {
             return null;
         }
-        Module module = null;
-        final Set<Module> moduleList = context.getModules().getListOfModules();
-        for (Module current : moduleList) {
-            final List<String> names = current.getName();
-            if (moduleName.equals(names)
-                    && compareVersions(current, version, current.getVersion())) {
-                module = current;
-                break;
-            }
-        }
+        final Modules modules = context.getModules();
+        Module module = findModule(modules, moduleName, version);
         if (module == null) {
-            module = createModule(moduleName, version);
-            module.setLanguageModule(modules.getLanguageModule());
-            moduleList.add(module);
+            synchronized (modules) {
+                //another thread may have created it meanwhile
+                module = findModule(modules, moduleName, version);
+                if (module == null) {
+                    module = createModule(moduleName, version);
+                    module.setLanguageModule(modules.getLanguageModule());
+                    modules.getListOfModules().add(module);
+                }
+            }
         }
         return module;
     }
 
+    private Module findModule(Modules modules, List<String> moduleName, String version) {
+        for (Module current : modules.getModules(formatPath(moduleName))) {
+            if (moduleName.equals(current.getName())
+                    && compareVersions(current, version, current.getVersion())) {
+                return current;
+            }
+        }
+        return null;
+    }
+
     protected boolean compareVersions(Module current, String version, String currentVersion) {
         return currentVersion == null || version == null || currentVersion.equals(version);
     }
 
     public void visitModuleFile() {
-        if ( currentModule == null ) {
-            final Package currentPkg = packageStack.peekLast();
+        final PackageContext pc = getPackageContext();
+        if ( pc.currentModule == null ) {
+            final Package currentPkg = pc.packageStack.peekLast();
             final List<String> moduleName = currentPkg.getName();
             //we don't know the version at this stage, will be filled later
-            currentModule = getOrCreateModule(moduleName, null);
-            if ( currentModule != null ) {
-                currentModule.setAvailable(true); // TODO : not necessary anymore ? the phasedUnit will be added. And the buildModuleImport()
+            pc.currentModule = getOrCreateModule(moduleName, null);
+            if ( pc.currentModule != null ) {
+                pc.currentModule.setAvailable(true); // TODO : not necessary anymore ? the phasedUnit will be added. And the buildModuleImport()
                                                   //        function (which calls module.setAvailable()) will be called by the typeChecker
                                                   //        BEFORE the ModuleValidator.verifyModuleDependencyTree() call that uses 
                                                   //        isAvailable()
-                bindPackageToModule(currentPkg, currentModule);
+                bindPackageToModule(currentPkg, pc.currentModule);
             }
             else {
                 addErrorToModule(new ArrayList<String>(), 
@@ -180,37 +232,39 @@ public class ModuleManager {
         }
         else {
             StringBuilder error = new StringBuilder("two modules within the same hierarchy: '");
-            error.append( formatPath( currentModule.getName() ) )
+            error.append( formatPath( pc.currentModule.getName() ) )
                 .append( "' and '" )
-                .append( formatPath( packageStack.peekLast().getName() ) )
+                .append( formatPath( pc.packageStack.peekLast().getName() ) )
                 .append("'");
-            addErrorToModule(currentModule.getName(), error.toString());
-            addErrorToModule(packageStack.peekLast().getName(), error.toString());
+            addErrorToModule(pc.currentModule.getName(), error.toString());
+            addErrorToModule(pc.packageStack.peekLast().getName(), error.toString());
         }
     }
 
     private void createPackageAndAddToModule(String path) {
-        final Package lastPkg = packageStack.peekLast();
+        final PackageContext pc = getPackageContext();
+        final Package lastPkg = pc.packageStack.peekLast();
         List<String> parentName = lastPkg.getName();
         final ArrayList<String> name = new ArrayList<String>(parentName.size() + 1);
         name.addAll(parentName);
         name.add(path);
         
         Package pkg = createPackage(formatPath(name), 
-                currentModule != null ? currentModule : modules.getDefaultModule());
-        packageStack.addLast(pkg);
+                pc.currentModule != null ? pc.currentModule : modules.getDefaultModule());
+        pc.packageStack.addLast(pkg);
     }
 
     private void removeLastPackageAndModuleIfNecessary() {
-        packageStack.pollLast();
-        final boolean moveAboveModuleLevel = currentModule != null
-                && currentModule.getName().size() > packageStack.size() -1; //first package is the empty package
+        final PackageContext pc = getPackageContext();
+        pc.packageStack.pollLast();
+        final boolean moveAboveModuleLevel = pc.currentModule != null
+                && pc.currentModule.getName().size() > pc.packageStack.size() -1; //first package is the empty package
         if (moveAboveModuleLevel) {
-            currentModule = null;
+            pc.currentModule = null;
         }
     }
 
-    private void bindPackageToModule(Package pkg, Module module) {
+    private synchronized void bindPackageToModule(Package pkg, Module module) {
         //undo nomodule setting if necessary
         if (pkg.getModule() != null) {
             pkg.getModule().getPackages().remove(pkg);
@@ -221,10 +275,13 @@ public class ModuleManager {
     }
 
     public void addModuleDependencyDefinition(ModuleImport moduleImport, Node definition) {
-        WeakHashMap<Node, Object> moduleDepDefinition = moduleImportToNode.get(moduleImport);
+        Map<Node, Object> moduleDepDefinition = moduleImportToNode.get(moduleImport);
         if (moduleDepDefinition == null) {
-            moduleDepDefinition = new WeakHashMap<Node, Object>();
-            moduleImportToNode.put(moduleImport, moduleDepDefinition);
+            Map<Node, Object> newDefinition = Collections.synchronizedMap(new WeakHashMap<Node, Object>());
+            moduleDepDefinition = moduleImportToNode.putIfAbsent(moduleImport, newDefinition);
+            if (moduleDepDefinition == null) {
+                moduleDepDefinition = newDefinition;
+            }
         }
         moduleDepDefinition.put(definition, PRESENT);
     }
@@ -256,9 +313,9 @@ public class ModuleManager {
     }
 
     private boolean attachErrorToDependencyDeclaration(ModuleImport moduleImport, String error) {
-        WeakHashMap<Node, Object> moduleDepError = moduleImportToNode.get(moduleImport);
+        Map<Node, Object> moduleDepError = moduleImportToNode.get(moduleImport);
         if (moduleDepError != null) {
-            for ( Node definition :  moduleDepError.keySet() ) {
+            for ( Node definition :  definitions(moduleDepError) ) {
                 definition.addError(new ModuleDependencyAnalysisError(definition, error));
             }
             return true;
@@ -272,9 +329,9 @@ public class ModuleManager {
             addErrorToModule(module, error);
         }else{
             // we must be importing it
-            for(Entry<ModuleImport, WeakHashMap<Node, Object>> entry : moduleImportToNode.entrySet()){
+            for(Entry<ModuleImport, Map<Node, Object>> entry : moduleImportToNode.entrySet()){
                 if(entry.getKey().getModule() == module){
-                    for ( Node definition :  entry.getValue().keySet() ) {
+                    for ( Node definition :  definitions(entry.getValue()) ) {
                         definition.addError(new ModuleDependencyAnalysisError(definition, error));
                     }
                 }
@@ -282,6 +339,12 @@ public class ModuleManager {
         }
     }
 
+    private static List<Node> definitions(Map<Node, Object> moduleDepDefinition) {
+        synchronized (moduleDepDefinition) {
+            return new ArrayList<Node>(moduleDepDefinition.keySet());
+        }
+    }
+
     //must be used *after* addLinkBetweenModuleAndNode has been set ie post ModuleVisitor visit
     public void addErrorToModule(Module module, String error) {
         Node node = moduleToNode.get(module);
@@ -299,8 +362,11 @@ public class ModuleManager {
     protected void addErrorToModule(List<String> moduleName, String error) {
         Set<String> errors = topLevelErrorsPerModuleName.get(moduleName);
         if (errors == null) {
-            errors = new HashSet<String>();
-            topLevelErrorsPerModuleName.put(moduleName, errors);
+            Set<String> newErrors = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+            errors = topLevelErrorsPerModuleName.putIfAbsent(moduleName, newErrors);
+            if (errors == null) {
+                errors = newErrors;
+            }
         }
         errors.add(error);
     }
@@ -352,14 +418,83 @@ public class ModuleManager {
     }
     
     public Module findLoadedModule(String moduleName, String searchedVersion, Modules modules) {
-        for(Module module : modules.getListOfModules()){
-            if(module.getNameAsString().equals(moduleName)) {
-                if (searchedVersion != null && searchedVersion.equals(module.getVersion())){
-                    return module;
+        if (searchedVersion == null) {
+            return null;
+        }
+        return modules.getModule(moduleName, searchedVersion);
+    }
+
+    /**
+     * Retrieve the source artifact of the given module, if
+     * the given artifact of the module is not one, and lex
+     * and parse its units, ahead of {@link #resolveModule},
+     * without touching the model, so that any thread may 
+     * call it as soon as it has retrieved the artifact.
+     * Subclasses which do not read the model from source
+     * artifacts should override it to return null.
+     * 
+     * @return the source artifact and its parsed units, or
+     *         null if the module need not be parsed, or its
+     *         source artifact could not be retrieved or read,
+     *         which is left for resolveModule() to report
+     * 
+     * @see #setPreparedSource(Module, PreparedSource)
+     */
+    public PreparedSource prepareSource(Module module, ArtifactResult artifact) {
+        ModelSnapshotStore store = context.getModelSnapshots();
+        if (store != null && store.hasSnapshot(module)) {
+            //it is probably read from the snapshot
+            return null;
+        }
+        try {
+            ArtifactResult sourceArtifact = artifact;
+            if (!isSourceArtifact(artifact)) {
+                ArtifactContext artifactContext = new ArtifactContext(module.getNameAsString(), module.getVersion(), ArtifactContext.SRC);
+                sourceArtifact = context.getRepositoryManager().getArtifactResult(artifactContext);
+                if (sourceArtifact == null) {
+                    return null;
                 }
             }
+            ClosableVirtualFile virtualArtifact = context.getVfs().getFromZipFile(sourceArtifact.artifact());
+            try {
+                return new PreparedSource(sourceArtifact, 
+                        PhasedUnits.preparseUnits(virtualArtifact, null, 
+                                context.getParseCache()));
+            }
+            finally {
+                virtualArtifact.close();
+            }
+        }
+        catch (Exception e) {
+            return null;
+        }
+    }
+
+    /**
+     * Hands the given source artifact and parsed units, 
+     * prepared by {@link #prepareSource}, to the next call
+     * to {@link #resolveModule} for the given module.
+     */
+    public void setPreparedSource(Module module, PreparedSource preparedSource) {
+        if (preparedSource == null) {
+            preparedSources.remove(module);
+        }
+        else {
+            preparedSources.put(module, preparedSource);
+        }
+    }
+
+    /**
+     * The source artifact of a module, with its units 
+     * lexed and parsed.
+     */
+    public static final class PreparedSource {
+        private final ArtifactResult sourceArtifact;
+        private final PhasedUnits.PreparsedUnits units;
+        PreparedSource(ArtifactResult sourceArtifact, PhasedUnits.PreparsedUnits units) {
+            this.sourceArtifact = sourceArtifact;
+            this.units = units;
         }
-        return null;
     }
 
     public void resolveModule(ArtifactResult artifact, Module module, ModuleImport moduleImport, LinkedList<Module> dependencyTree, List<PhasedUnits> phasedUnitsOfDependencies, boolean forCompiledModule) {
@@ -369,24 +504,45 @@ public class ModuleManager {
         RepositoryManager repositoryManager = context.getRepositoryManager();
         Exception exceptionOnGetArtifact = null;
         ArtifactResult sourceArtifact = null;
-        try {
-            sourceArtifact = repositoryManager.getArtifactResult(artifactContext);
-        } catch (Exception e) {
-            exceptionOnGetArtifact = e;
+        PreparedSource preparedSource = preparedSources.remove(module);
+        if (preparedSource != null) {
+            //retrieved along with the artifact
+            sourceArtifact = preparedSource.sourceArtifact;
+        }
+        else if (isSourceArtifact(artifact)) {
+            //the module validator already retrieved it
+            sourceArtifact = artifact;
+        }
+        else {
+            try {
+                sourceArtifact = repositoryManager.getArtifactResult(artifactContext);
+            } catch (Exception e) {
+                exceptionOnGetArtifact = e;
+            }
         }
         if ( sourceArtifact == null ) {
             ModuleHelper.buildErrorOnMissingArtifact(artifactContext, module, moduleImport, dependencyTree, exceptionOnGetArtifact, this);
         }
         else {
-            
+            byte[] sourceDigest = getSourceDigest(sourceArtifact);
+            if (loadModelSnapshot(module, sourceDigest)) {
+                return;
+            }
             PhasedUnits modulePhasedUnits = createPhasedUnits();
+            modulePhasedUnits.setParallelism(parallelism);
+            if (preparedSource != null) {
+                modulePhasedUnits.setPreparsedUnits(preparedSource.units);
+            }
             ClosableVirtualFile virtualArtifact= null;
             try {
                 virtualArtifact = context.getVfs().getFromZipFile(sourceArtifact.artifact());
-                modulePhasedUnits.parseUnit(virtualArtifact);
+                modulePhasedUnits.parseUnits(Collections.<VirtualFile>singletonList(virtualArtifact));
                 //populate module.getDependencies()
                 modulePhasedUnits.visitModules();
                 addToPhasedUnitsOfDependencies(modulePhasedUnits, phasedUnitsOfDependencies, module);
+                if (sourceDigest != null) {
+                    modulesToSnapshot.put(module, sourceDigest);
+                }
             } catch (Exception e) {
                 StringBuilder error = new StringBuilder("unable to read source artifact for ");
                 error.append(artifactContext.toString());
@@ -400,6 +556,127 @@ public class ModuleManager {
         }
     }
 
+    private static boolean isSourceArtifact(ArtifactResult artifact) {
+        File file = artifact == null ? null : artifact.artifact();
+        return file != null && file.getName().endsWith(ArtifactContext.SRC);
+    }
+
+    /**
+     * The digest of the given source artifact, if model 
+     * snapshots are enabled and it can be read.
+     */
+    private byte[] getSourceDigest(ArtifactResult sourceArtifact) {
+        if (context.getModelSnapshots() == null) {
+            return null;
+        }
+        try {
+            return ModelSnapshotStore.digest(sourceArtifact.artifact());
+        }
+        catch (Exception e) {
+            //no snapshot can be checked against it
+            return null;
+        }
+    }
+
+    /**
+     * Populate the given module from the model snapshot 
+     * cache, if there is one, and it has a snapshot of 
+     * the module written from the source artifact with 
+     * the given digest.
+     * 
+     * @return true if the module was loaded
+     */
+    protected boolean loadModelSnapshot(Module module, byte[] sourceDigest) {
+        if (sourceDigest == null) {
+            return false;
+        }
+        return loadModelSnapshot(module, context.getModelSnapshots(), sourceDigest);
+    }
+
+    /**
+     * Populate the given module from the given directory 
+     * of model snapshots, if it has a usable snapshot of 
+     * the module, whatever artifact it was written from.
+     * 
+     * @return true if the module was loaded
+     */
+    protected boolean loadModelSnapshot(Module module, ModelSnapshotStore store) {
+        return loadModelSnapshot(module, store, null);
+    }
+
+    private boolean loadModelSnapshot(Module module, ModelSnapshotStore store, byte[] sourceDigest) {
+        if (store == null || !store.hasSnapshot(module)) {
+            return false;
+        }
+        int packages = module.getPackages().size();
+        int imports = module.getImports().size();
+        final List<Module> createdModules = new ArrayList<Module>();
+        ModelSnapshotReader reader = new ModelSnapshotReader(modules) {
+            @Override
+            protected Package createPackage(String name, Module module) {
+                return ModuleManager.this.createPackage(name, module);
+            }
+            @Override
+            protected Module getOrCreateModule(String name, String version) {
+                List<String> moduleName = splitModuleName(name);
+                Module existing = findModule(modules, moduleName, version);
+                Module result = ModuleManager.this.getOrCreateModule(moduleName, version);
+                if (existing == null) {
+                    createdModules.add(result);
+                }
+                return result;
+            }
+        };
+        reader.setSourceDigest(sourceDigest);
+        try {
+            store.load(module, reader);
+        }
+        catch (IOException e) {
+            //stale or unreadable snapshot: undo anything 
+            //we read, and fall back to the source artifact
+            module.getPackages().subList(packages, module.getPackages().size()).clear();
+            for (ModuleImport moduleImport : 
+                    new ArrayList<ModuleImport>(module.getImports().subList(imports, module.getImports().size()))) {
+                module.removeImport(moduleImport);
+            }
+            modules.getListOfModules().removeAll(createdModules);
+            return false;
+        }
+        module.setAvailable(true);
+        return true;
+    }
+
+    /**
+     * Write model snapshots of the modules that were read 
+     * from source artifacts, once their models are complete,
+     * so that subsequent runs can skip them.
+     */
+    public void saveModelSnapshots() {
+        ModelSnapshotStore store = context.getModelSnapshots();
+        if (store != null) {
+            for (Map.Entry<Module,byte[]> entry : modulesToSnapshot.entrySet()) {
+                ModelSnapshotWriter writer = new ModelSnapshotWriter();
+                writer.setSourceDigest(entry.getValue());
+                try {
+                    store.save(entry.getKey(), writer);
+                }
+                catch (IOException e) {
+                    //the snapshot is only a cache
+                }
+            }
+        }
+        modulesToSnapshot.clear();
+    }
+
+    /**
+     * Forget the modules that were read from source 
+     * artifacts, without writing snapshots of them, since 
+     * their models will not be complete.
+     */
+    public void discardModelSnapshots() {
+        modulesToSnapshot.clear();
+    }
+
     protected void addToPhasedUnitsOfDependencies(PhasedUnits modulePhasedUnits, List<PhasedUnits> phasedUnitsOfDependencies, Module module) {
         phasedUnitsOfDependencies.add(modulePhasedUnits);
     }
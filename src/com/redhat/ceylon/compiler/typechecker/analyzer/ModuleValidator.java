@@ -7,6 +7,10 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
 import com.redhat.ceylon.cmr.api.ArtifactContext;
 import com.redhat.ceylon.cmr.api.ArtifactResult;
@@ -31,6 +35,10 @@ public class ModuleValidator {
     private List<PhasedUnits> phasedUnitsOfDependencies;
     private final ModuleManager moduleManager;
     private Map<Module, ArtifactResult> searchedArtifacts = new HashMap<Module, ArtifactResult>();
+    private int parallelism = 1;
+    private boolean lazyDependencies = false;
+    private ForkJoinPool pool;
+    private final Map<Module, Future<PrefetchedArtifact>> prefetchedArtifacts = new HashMap<Module, Future<PrefetchedArtifact>>();
 
     public static interface ProgressListener {
         void retrievingModuleArtifact(Module module, ArtifactContext artifactContext);
@@ -57,6 +65,33 @@ public class ModuleValidator {
         this.listener = listener;
     }
 
+    /**
+     * Sets the number of threads used to retrieve the 
+     * artifacts of the dependencies and to parse their 
+     * source archives. With more than one thread, the 
+     * repository manager must support concurrent lookups.
+     * The dependency tree is still walked, and any errors
+     * and conflicts reported, in the same order as with a
+     * single thread.
+     */
+    public void setParallelism(int parallelism) {
+        this.parallelism = parallelism;
+        moduleManager.setParallelism(parallelism);
+    }
+
+    /**
+     * Determines if the units of the dependencies are only
+     * analysed on demand: the declarations of a package
+     * when it is first searched, and the type declarations
+     * and refinement of a unit when one of its declarations
+     * is first resolved. By default every unit of every
+     * dependency is analysed up front. No model snapshot is
+     * written of a dependency which is analysed on demand.
+     */
+    public void setLazyDependencies(boolean lazyDependencies) {
+        this.lazyDependencies = lazyDependencies;
+    }
+
     public List<PhasedUnits> getPhasedUnitsOfDependencies() {
         return phasedUnitsOfDependencies;
     }
@@ -80,14 +115,37 @@ public class ModuleValidator {
         modules.add(context.getModules().getLanguageModule());
         modules.add(context.getModules().getDefaultModule());
         modules.addAll(compiledModules);
-        for (Module module : modules) {
-            dependencyTree.addLast(module);
-            //we don't care about propagated dependency here as top modules are independent from one another
-            verifyModuleDependencyTree(module.getImports(), dependencyTree, new ArrayList<Module>(), ImportDepth.First, searchedArtifacts);
-            dependencyTree.pollLast();
+        if (parallelism>1) {
+            pool = new ForkJoinPool(parallelism);
+        }
+        try {
+            for (Module module : modules) {
+                prefetchArtifacts(module.getImports(), searchedArtifacts);
+            }
+            for (Module module : modules) {
+                dependencyTree.addLast(module);
+                //we don't care about propagated dependency here as top modules are independent from one another
+                verifyModuleDependencyTree(module.getImports(), dependencyTree, new ArrayList<Module>(), ImportDepth.First, searchedArtifacts);
+                dependencyTree.pollLast();
+            }
+        }
+        finally {
+            if (pool != null) {
+                pool.shutdownNow();
+                pool = null;
+            }
+            prefetchedArtifacts.clear();
         }
         moduleManager.addImplicitImports();
         executeExternalModulePhases();
+        if (lazyDependencies) {
+            //the dependencies are only analysed on demand, so
+            //their models are not complete enough to save
+            moduleManager.discardModelSnapshots();
+        }
+        else {
+            moduleManager.saveModelSnapshots();
+        }
     }
 
     public final long numberOfModulesNotAlreadySearched() {
@@ -193,7 +251,7 @@ public class ModuleValidator {
                     ArtifactContext artifactContext = new ArtifactContext(module.getNameAsString(), module.getVersion(), getArtifactSuffixes(searchedArtifactExtensions));
                     listener.retrievingModuleArtifact(module, artifactContext);
                     try {
-                        artifact = repositoryManager.getArtifactResult(artifactContext);
+                        artifact = getArtifactResult(repositoryManager, module, artifactContext);
                     } catch (Exception e) {
                         exceptionOnGetArtifact = catchIfPossible(e);
                     }
@@ -211,6 +269,8 @@ public class ModuleValidator {
                 }
             }
             moduleManager.visitedModule(module, forCompiledModule);
+            //start retrieving the next level while we walk this one
+            prefetchArtifacts(module.getImports(), alreadySearchedArtifacts);
             dependencyTree.addLast(module);
             List<Module> subModulePropagatedDependencies = new ArrayList<Module>();
             verifyModuleDependencyTree( module.getImports(), dependencyTree, subModulePropagatedDependencies, newImportDepth, alreadySearchedArtifacts);
@@ -230,6 +290,92 @@ public class ModuleValidator {
         }
     }
 
+    /**
+     * Start retrieving, in the background, the artifacts of 
+     * the given imports which are not available and have not
+     * already been searched for, and parsing the units of
+     * each module as soon as its artifact is retrieved. The
+     * walk of the dependency tree picks up the results when 
+     * it reaches each module, so the model is still built, 
+     * and the listener notified, in the order of the walk.
+     * 
+     * @see ModuleManager#prepareSource(Module, ArtifactResult)
+     */
+    private void prefetchArtifacts(Collection<ModuleImport> moduleImports, 
+            Map<Module, ArtifactResult> alreadySearchedArtifacts) {
+        if (pool == null) {
+            return;
+        }
+        final RepositoryManager repositoryManager = context.getRepositoryManager();
+        String[] suffixes = getArtifactSuffixes(moduleManager.getSearchedArtifactExtensions());
+        for (ModuleImport moduleImport : moduleImports) {
+            Module module = moduleImport.getModule();
+            if (module.isAvailable() 
+                    || alreadySearchedArtifacts.containsKey(module) 
+                    || prefetchedArtifacts.containsKey(module)) {
+                continue;
+            }
+            final Module prefetchedModule = module;
+            final ArtifactContext artifactContext = new ArtifactContext(module.getNameAsString(), module.getVersion(), suffixes);
+            prefetchedArtifacts.put(module, pool.submit(new Callable<PrefetchedArtifact>() {
+                @Override
+                public PrefetchedArtifact call() throws Exception {
+                    ArtifactResult artifact = repositoryManager.getArtifactResult(artifactContext);
+                    return new PrefetchedArtifact(artifact, artifact == null ? null : 
+                            moduleManager.prepareSource(prefetchedModule, artifact));
+                }
+            }));
+        }
+    }
+
+    /**
+     * Retrieve the artifact of the given module, waiting for 
+     * the background retrieval if it was prefetched, and 
+     * rethrowing whatever the retrieval threw. The units 
+     * parsed along with a prefetched artifact are handed to
+     * the module manager, for it to resolve the module.
+     */
+    private ArtifactResult getArtifactResult(RepositoryManager repositoryManager, 
+            Module module, ArtifactContext artifactContext) throws Exception {
+        Future<PrefetchedArtifact> future = prefetchedArtifacts.remove(module);
+        if (future == null) {
+            return repositoryManager.getArtifactResult(artifactContext);
+        }
+        try {
+            PrefetchedArtifact prefetched = future.get();
+            moduleManager.setPreparedSource(module, prefetched.preparedSource);
+            return prefetched.artifact;
+        }
+        catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw ie;
+        }
+        catch (ExecutionException ee) {
+            Throwable cause = ee.getCause();
+            if (cause instanceof Exception) {
+                throw (Exception) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw ee;
+        }
+    }
+
+    /**
+     * An artifact retrieved in the background, along with
+     * the source of the module, if it was prepared.
+     */
+    private static final class PrefetchedArtifact {
+        final ArtifactResult artifact;
+        final ModuleManager.PreparedSource preparedSource;
+        PrefetchedArtifact(ArtifactResult artifact, 
+                ModuleManager.PreparedSource preparedSource) {
+            this.artifact = artifact;
+            this.preparedSource = preparedSource;
+        }
+    }
+
     protected Exception catchIfPossible(Exception e) {
         return e;
     }
@@ -270,6 +416,10 @@ public class ModuleValidator {
     protected void executeExternalModulePhases() {
         //moduleimport phase already done
         //Already called from within verifyModuleDependencyTree
+        if (lazyDependencies) {
+            DependencyCompleter.install(phasedUnitsOfDependencies);
+            return;
+        }
         for (PhasedUnits units : phasedUnitsOfDependencies) {
             for (PhasedUnit pu : units.getPhasedUnits()) {
                 pu.scanDeclarations();
@@ -62,6 +62,23 @@ import com.redhat.ceylon.compiler.typechecker.tree.Visitor;
  *
  */
 public class RefinementVisitor extends Visitor {
+    
+    private ReusableDeclarations reusableDeclarations;
+    
+    /**
+     * Reuse the shortcut refinements of the previous model
+     * of the unit, instead of creating new declarations.
+     */
+    public void setReusableDeclarations(
+            ReusableDeclarations reusableDeclarations) {
+        this.reusableDeclarations = reusableDeclarations;
+    }
+    
+    private <D extends Declaration> D reuse(D model, 
+            ClassOrInterface container, String name) {
+        return reusableDeclarations==null ? model :
+            reusableDeclarations.reuse(model, container, name);
+    }
         
     @Override
     public void visit(Tree.AnyMethod that) {
@@ -808,7 +825,7 @@ public class RefinementVisitor extends Visitor {
             that.addError("inherited attribute may not be assigned in initializer and is variable so may not be refined by non-variable: " + 
                     message(sv));
         }
-        Value v = new Value();
+        Value v = reuse(new Value(), c, sv.getName());
         v.setName(sv.getName());
         v.setShared(true);
         v.setActual(true);
@@ -853,7 +870,7 @@ public class RefinementVisitor extends Visitor {
                     message(sm));
         }
         final ProducedReference rm = getRefinedMember(sm,c);
-        Method m = new Method();
+        Method m = reuse(new Method(), c, sm.getName());
         m.setName(sm.getName());
         List<Tree.ParameterList> tpls;
         Tree.Term me = that.getBaseMemberExpression();
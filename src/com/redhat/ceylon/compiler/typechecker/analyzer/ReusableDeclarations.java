@@ -0,0 +1,153 @@
+package com.redhat.ceylon.compiler.typechecker.analyzer;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.redhat.ceylon.compiler.typechecker.model.Declaration;
+import com.redhat.ceylon.compiler.typechecker.model.MethodOrValue;
+import com.redhat.ceylon.compiler.typechecker.model.Parameter;
+import com.redhat.ceylon.compiler.typechecker.model.Unit;
+
+/**
+ * The declarations of the previous model of a unit which
+ * is typechecked again, for the new model to reuse. The
+ * units which are not typechecked again keep referring
+ * to the declarations of the previous model, so these
+ * must stay the declarations of the unit.
+ *
+ * A declaration is reused by the new declaration of the
+ * same kind with the same name in the same container,
+ * which is itself reused, if the container is a
+ * declaration. A parameter is reused by the new parameter
+ * with the same name of the same declaration. A reused
+ * declaration or parameter is first reset to the state
+ * of the new one, so nothing of the previous model
+ * survives but its identity.
+ */
+public class ReusableDeclarations {
+
+    private final Map<Key,Object> reusable =
+            new HashMap<Key,Object>();
+
+    private static final class Key {
+        final Object owner;
+        final String name;
+        final java.lang.Class<?> kind;
+        Key(Object owner, String name, java.lang.Class<?> kind) {
+            this.owner = owner;
+            this.name = name;
+            this.kind = kind;
+        }
+        @Override
+        public boolean equals(Object obj) {
+            if (obj instanceof Key) {
+                Key that = (Key) obj;
+                return owner==that.owner &&
+                        kind==that.kind &&
+                        name.equals(that.name);
+            }
+            else {
+                return false;
+            }
+        }
+        @Override
+        public int hashCode() {
+            return (System.identityHashCode(owner)*31 +
+                    name.hashCode())*31 + kind.hashCode();
+        }
+    }
+
+    /**
+     * The declarations and parameters of the given unit.
+     */
+    public ReusableDeclarations(Unit previous) {
+        for (Declaration d: previous.getDeclarations()) {
+            String name = d.getName();
+            if (name!=null && d.getContainer()!=null) {
+                reusable.put(new Key(d.getContainer(), name,
+                        d.getClass()), d);
+            }
+            if (d instanceof MethodOrValue) {
+                Parameter p =
+                        ((MethodOrValue) d).getInitializerParameter();
+                if (p!=null && p.getName()!=null &&
+                        p.getDeclaration()!=null) {
+                    reusable.put(new Key(p.getDeclaration(),
+                            p.getName(), Parameter.class), p);
+                }
+            }
+        }
+    }
+
+    /**
+     * The declaration to use instead of the given new
+     * declaration, which has not been configured yet.
+     *
+     * @param model the new declaration
+     * @param container the container of the declaration
+     * @param name the name of the declaration, or null
+     *
+     * @return the reusable declaration, reset to the
+     *         state of the new declaration, or the new
+     *         declaration, if none may be reused
+     */
+    <D extends Declaration> D reuse(D model, Object container,
+            String name) {
+        return reuse(model, new Key(container, name,
+                model.getClass()));
+    }
+
+    /**
+     * The parameter to use instead of the given new
+     * parameter, whose name and declaration are set.
+     *
+     * @return the reusable parameter, reset to the state
+     *         of the new parameter, or the new parameter,
+     *         if none may be reused
+     */
+    Parameter reuse(Parameter parameter) {
+        return reuse(parameter, new Key(parameter.getDeclaration(),
+                parameter.getName(), Parameter.class));
+    }
+
+    private <T> T reuse(T model, Key key) {
+        if (key.owner==null || key.name==null) {
+            return model;
+        }
+        @SuppressWarnings("unchecked")
+        T reused = (T) reusable.remove(key);
+        if (reused==null || reused==model) {
+            return model;
+        }
+        else {
+            reset(reused, model);
+            return reused;
+        }
+    }
+
+    /**
+     * Copy the state of the given new object into the
+     * given reused object of the same class.
+     */
+    private static void reset(Object reused, Object model) {
+        try {
+            for (java.lang.Class<?> c = model.getClass();
+                    c!=Object.class;
+                    c = c.getSuperclass()) {
+                for (Field f: c.getDeclaredFields()) {
+                    if (!Modifier.isStatic(f.getModifiers())) {
+                        f.setAccessible(true);
+                        Object value = f.get(model);
+                        f.set(reused, value==model ? reused : value);
+                    }
+                }
+            }
+        }
+        catch (IllegalAccessException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+}
@@ -3,6 +3,8 @@ package com.redhat.ceylon.compiler.typechecker.analyzer;
 import static com.redhat.ceylon.compiler.typechecker.analyzer.Util.eliminateParensAndWidening;
 import static com.redhat.ceylon.compiler.typechecker.analyzer.Util.getLastExecutableStatement;
 
+import java.util.List;
+
 import com.redhat.ceylon.compiler.typechecker.model.Constructor;
 import com.redhat.ceylon.compiler.typechecker.model.Declaration;
 import com.redhat.ceylon.compiler.typechecker.model.MethodOrValue;
@@ -33,6 +35,25 @@ public class SelfReferenceVisitor extends Visitor {
         typeDeclaration = td;
     }
     
+    /**
+     * Visit only the nodes which declare the type, which
+     * is equivalent to visiting the whole compilation
+     * unit, except that a super reference in a default
+     * argument outside them must still be reported.
+     */
+    void visitDeclaringNodes(DeclarationFlowVisitor.Mentions mentions) {
+        List<DeclarationFlowVisitor.TypeNode> nodes = 
+                mentions.getTypeNodes(typeDeclaration);
+        for (DeclarationFlowVisitor.TypeNode tn: nodes) {
+            defaultArgument = tn.inParameter;
+            tn.node.visit(this);
+        }
+        defaultArgument = false;
+        for (Super s: mentions.getDefaultArgumentSupers(nodes)) {
+            addDefaultArgumentSuperError(s);
+        }
+    }
+    
     private void visitExtendedType(Tree.ExtendedTypeExpression that) {
         Declaration member = that.getDeclaration();
         if (member!=null && !typeDeclaration.isAlias() && 
@@ -310,10 +331,14 @@ public class SelfReferenceVisitor extends Visitor {
     public void visit(Super that) {
         super.visit(that);
         if (defaultArgument) {
-            that.addError("reference to super from default argument expression");
+            addDefaultArgumentSuperError(that);
         }
     }
 
+    private static void addDefaultArgumentSuperError(Super that) {
+        that.addError("reference to super from default argument expression");
+    }
+
     @Override
     public void visit(Tree.Return that) {
         super.visit(that);
@@ -33,6 +33,7 @@ import com.redhat.ceylon.compiler.typechecker.tree.Visitor;
 public class SpecificationVisitor extends Visitor {
     
     private final Declaration declaration;
+    private final DeclarationFlowVisitor.Mentions mentions;
     
     private SpecificationState specified = 
             new SpecificationState(false, false);
@@ -93,7 +94,27 @@ public class SpecificationVisitor extends Visitor {
     }
     
     public SpecificationVisitor(Declaration declaration) {
+        this(declaration, null);
+    }
+    
+    SpecificationVisitor(Declaration declaration, 
+            DeclarationFlowVisitor.Mentions mentions) {
         this.declaration = declaration;
+        this.mentions = mentions;
+    }
+    
+    /**
+     * Is the given statement a declaration of something
+     * else which never mentions the declaration? If so,
+     * visiting it would leave the state of this visitor 
+     * unchanged, except for the declaration section.
+     */
+    private boolean isUnrelated(Tree.Statement st) {
+        return mentions!=null && 
+                st instanceof Tree.Declaration && 
+                !(st instanceof Tree.Constructor) &&
+                !mentions.isMentionedWithin(declaration, 
+                        (Tree.Declaration) st);
     }
     
     private void declare() {
@@ -497,6 +518,9 @@ public class SpecificationVisitor extends Visitor {
     @Override
     public void visit(Tree.CompilationUnit that) {
     	for (Tree.Declaration st: that.getDeclarations()) {
+    		if (isUnrelated(st)) {
+    			continue;
+    		}
     		withinAttributeInitializer = 
     				(st instanceof Tree.AttributeDeclaration) &&
     				st.getDeclarationModel()==declaration &&
@@ -510,6 +534,10 @@ public class SpecificationVisitor extends Visitor {
     @Override
     public void visit(Tree.Body that) {
     	for (Tree.Statement st: that.getStatements()) {
+    		if (isUnrelated(st)) {
+    			checkDeclarationSection(st);
+    			continue;
+    		}
     		withinAttributeInitializer = 
     				(st instanceof Tree.AttributeDeclaration) &&
     				((Tree.AttributeDeclaration) st).getDeclarationModel()==declaration &&
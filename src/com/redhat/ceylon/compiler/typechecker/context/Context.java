@@ -3,6 +3,8 @@ package com.redhat.ceylon.compiler.typechecker.context;
 import com.redhat.ceylon.cmr.api.RepositoryManager;
 import com.redhat.ceylon.compiler.typechecker.io.VFS;
 import com.redhat.ceylon.compiler.typechecker.model.Modules;
+import com.redhat.ceylon.compiler.typechecker.snapshot.ModelSnapshotStore;
+import com.redhat.ceylon.compiler.typechecker.util.MetricsListener;
 
 /**
  * Keep compiler contextual information like the package stack and the current module
@@ -14,6 +16,9 @@ public class Context {
     private Modules modules;
     private VFS vfs;
     private RepositoryManager repositoryManager;
+    private ModelSnapshotStore modelSnapshots;
+    private ParseCache parseCache;
+    private MetricsListener metricsListener;
 
     public Context(RepositoryManager repositoryManager, VFS vfs) {
         this.vfs = vfs;
@@ -35,4 +40,40 @@ public class Context {
     public VFS getVfs() {
         return vfs;
     }
+
+    /**
+     * The cache of module models, or null if the models
+     * of dependencies are always read from source.
+     */
+    public ModelSnapshotStore getModelSnapshots() {
+        return modelSnapshots;
+    }
+
+    public void setModelSnapshots(ModelSnapshotStore modelSnapshots) {
+        this.modelSnapshots = modelSnapshots;
+    }
+
+    /**
+     * The cache of parsed source files, or null if every
+     * source file is parsed.
+     */
+    public ParseCache getParseCache() {
+        return parseCache;
+    }
+
+    public void setParseCache(ParseCache parseCache) {
+        this.parseCache = parseCache;
+    }
+
+    /**
+     * The listener to the timings of the type checking
+     * phases, or null if they are not measured.
+     */
+    public MetricsListener getMetricsListener() {
+        return metricsListener;
+    }
+
+    public void setMetricsListener(MetricsListener metricsListener) {
+        this.metricsListener = metricsListener;
+    }
 }
@@ -0,0 +1,191 @@
+package com.redhat.ceylon.compiler.typechecker.context;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.redhat.ceylon.compiler.typechecker.context.PhasedUnits.ParsedUnit;
+import com.redhat.ceylon.compiler.typechecker.parser.LexError;
+import com.redhat.ceylon.compiler.typechecker.parser.ParseError;
+import com.redhat.ceylon.compiler.typechecker.parser.TokenTable;
+import com.redhat.ceylon.compiler.typechecker.tree.Tree;
+import com.redhat.ceylon.compiler.typechecker.tree.TreeCopier;
+
+/**
+ * Caches the result of lexing and parsing source files,
+ * keyed by a hash of the contents and the encoding of
+ * each file, so that a file which has not changed since
+ * it was last parsed, by any type checker sharing the
+ * cache, is not parsed again.
+ *
+ * The cache holds a tree which is never analysed, and
+ * hands out {@link TreeCopier copies} of it, along with
+ * the tokens and the errors of the file, which are
+ * immutable once the file has been parsed.
+ *
+ * The least recently used entries are evicted once the
+ * cache holds the maximum number of entries.
+ *
+ * @see #getShared()
+ */
+public class ParseCache {
+
+    private static final int DEFAULT_MAXIMUM_SIZE = 10000;
+
+    private static final ParseCache shared =
+            new ParseCache(DEFAULT_MAXIMUM_SIZE);
+
+    /**
+     * A cache shared by every type checker of the process
+     * which is configured to use it.
+     */
+    public static ParseCache getShared() {
+        return shared;
+    }
+
+    private final int maximumSize;
+    private final Map<Key,Entry> entries;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    public ParseCache(final int maximumSize) {
+        if (maximumSize<=0) {
+            throw new IllegalArgumentException("maximum size must be positive");
+        }
+        this.maximumSize = maximumSize;
+        this.entries = new LinkedHashMap<Key,Entry>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key,Entry> eldest) {
+                return size()>ParseCache.this.maximumSize;
+            }
+        };
+    }
+
+    /**
+     * The key of the given contents of a file, decoded
+     * using the given encoding.
+     */
+    static Key key(ByteBuffer contents, String encoding) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        }
+        catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+        digest.update(contents.duplicate());
+        return new Key(digest.digest(), encoding);
+    }
+
+    /**
+     * A copy of the tree cached for the given key, or null
+     * if there is none.
+     */
+    ParsedUnit get(Key key) {
+        Entry entry;
+        synchronized (entries) {
+            entry = entries.get(key);
+        }
+        if (entry==null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        return new ParsedUnit(TreeCopier.copy(entry.template), entry.tokens, 
+                new ArrayList<LexError>(entry.lexerErrors), 
+                new ArrayList<ParseError>(entry.parserErrors));
+    }
+
+    /**
+     * Cache the given freshly parsed unit, before it has
+     * been analysed. The cache keeps a copy of the tree.
+     */
+    void put(Key key, ParsedUnit parsed) {
+        Entry entry = new Entry(TreeCopier.copy(parsed.compilationUnit), parsed.tokens, 
+                new ArrayList<LexError>(parsed.lexerErrors), 
+                new ArrayList<ParseError>(parsed.parserErrors));
+        synchronized (entries) {
+            entries.put(key, entry);
+        }
+    }
+
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    public int getMaximumSize() {
+        return maximumSize;
+    }
+
+    public void clear() {
+        synchronized (entries) {
+            entries.clear();
+        }
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    @Override
+    public String toString() {
+        return "ParseCache[size=" + size() +
+                ", hits=" + getHits() +
+                ", misses=" + getMisses() + "]";
+    }
+
+    static final class Key {
+        private final byte[] digest;
+        private final String encoding;
+        private final int hash;
+        Key(byte[] digest, String encoding) {
+            this.digest = digest;
+            this.encoding = encoding;
+            this.hash = 31*Arrays.hashCode(digest) +
+                    (encoding==null ? 0 : encoding.hashCode());
+        }
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return Arrays.equals(digest, other.digest) &&
+                    (encoding==null ?
+                            other.encoding==null :
+                            encoding.equals(other.encoding));
+        }
+    }
+
+    private static final class Entry {
+        final Tree.CompilationUnit template;
+        final TokenTable tokens;
+        final List<LexError> lexerErrors;
+        final List<ParseError> parserErrors;
+        Entry(Tree.CompilationUnit template, TokenTable tokens,
+                List<LexError> lexerErrors, List<ParseError> parserErrors) {
+            this.template = template;
+            this.tokens = tokens;
+            this.lexerErrors = lexerErrors;
+            this.parserErrors = parserErrors;
+        }
+    }
+
+}
@@ -9,6 +9,7 @@ import org.antlr.runtime.CommonToken;
 import com.redhat.ceylon.compiler.typechecker.analyzer.AliasVisitor;
 import com.redhat.ceylon.compiler.typechecker.analyzer.AnnotationVisitor;
 import com.redhat.ceylon.compiler.typechecker.analyzer.ControlFlowVisitor;
+import com.redhat.ceylon.compiler.typechecker.analyzer.DeclarationFlowVisitor;
 import com.redhat.ceylon.compiler.typechecker.analyzer.DeclarationVisitor;
 import com.redhat.ceylon.compiler.typechecker.analyzer.DefaultTypeArgVisitor;
 import com.redhat.ceylon.compiler.typechecker.analyzer.ExpressionVisitor;
@@ -18,8 +19,7 @@ import com.redhat.ceylon.compiler.typechecker.analyzer.LocalDeclarationVisitor;
 import com.redhat.ceylon.compiler.typechecker.analyzer.ModuleManager;
 import com.redhat.ceylon.compiler.typechecker.analyzer.ModuleVisitor;
 import com.redhat.ceylon.compiler.typechecker.analyzer.RefinementVisitor;
-import com.redhat.ceylon.compiler.typechecker.analyzer.SelfReferenceVisitor;
-import com.redhat.ceylon.compiler.typechecker.analyzer.SpecificationVisitor;
+import com.redhat.ceylon.compiler.typechecker.analyzer.ReusableDeclarations;
 import com.redhat.ceylon.compiler.typechecker.analyzer.SupertypeVisitor;
 import com.redhat.ceylon.compiler.typechecker.analyzer.TypeArgumentVisitor;
 import com.redhat.ceylon.compiler.typechecker.analyzer.TypeHierarchyVisitor;
@@ -32,19 +32,23 @@ import com.redhat.ceylon.compiler.typechecker.model.Declaration;
 import com.redhat.ceylon.compiler.typechecker.model.Module;
 import com.redhat.ceylon.compiler.typechecker.model.Package;
 import com.redhat.ceylon.compiler.typechecker.model.ProducedType;
-import com.redhat.ceylon.compiler.typechecker.model.TypeDeclaration;
 import com.redhat.ceylon.compiler.typechecker.model.Unit;
+import com.redhat.ceylon.compiler.typechecker.parser.TokenTable;
+import com.redhat.ceylon.compiler.typechecker.tree.FusedVisitor;
 import com.redhat.ceylon.compiler.typechecker.tree.Tree;
 import com.redhat.ceylon.compiler.typechecker.tree.Tree.ImportPath;
 import com.redhat.ceylon.compiler.typechecker.tree.Tree.ModuleDescriptor;
 import com.redhat.ceylon.compiler.typechecker.tree.Util;
 import com.redhat.ceylon.compiler.typechecker.tree.Validator;
 import com.redhat.ceylon.compiler.typechecker.tree.Visitor;
+import com.redhat.ceylon.compiler.typechecker.util.AllocationCounter;
 import com.redhat.ceylon.compiler.typechecker.util.AssertionVisitor;
 import com.redhat.ceylon.compiler.typechecker.util.DeprecationVisitor;
+import com.redhat.ceylon.compiler.typechecker.util.MetricsListener;
 import com.redhat.ceylon.compiler.typechecker.util.PrintVisitor;
 import com.redhat.ceylon.compiler.typechecker.util.ReferenceCounter;
 import com.redhat.ceylon.compiler.typechecker.util.StatisticsVisitor;
+import com.redhat.ceylon.compiler.typechecker.util.UnitDependencyVisitor;
 import com.redhat.ceylon.compiler.typechecker.util.UnitFactory;
 import com.redhat.ceylon.compiler.typechecker.util.UsageVisitor;
 
@@ -63,7 +67,7 @@ public class PhasedUnit {
     private WeakReference<ModuleManager> moduleManagerRef;
     private final String pathRelativeToSrcDir;
     private VirtualFile unitFile;
-    private List<CommonToken> tokens;
+    private TokenTable tokens;
     private ModuleVisitor moduleVisitor;
     private VirtualFile srcDir;
     private boolean treeValidated = false;
@@ -77,12 +81,26 @@ public class PhasedUnit {
     private boolean literalsProcessed = false;
     private boolean moduleVisited = false;
     private EnumSet<Warning> suppressedWarnings = EnumSet.noneOf(Warning.class);
+    private MetricsListener metricsListener;
+    //the phased units whose units the dependencies of
+    //this unit are recorded on, or null if they are not
+    //recorded
+    private PhasedUnits dependencyScope;
+    //the declarations of the previous model of the unit,
+    //until the new model has been built
+    private ReusableDeclarations reusableDeclarations;
     public VirtualFile getSrcDir() {
         return srcDir;
     }
 
     public PhasedUnit(VirtualFile unitFile, VirtualFile srcDir, Tree.CompilationUnit cu, 
             Package p, ModuleManager moduleManager, Context context, List<CommonToken> tokenStream) {
+        this(unitFile, srcDir, cu, p, moduleManager, context, 
+                tokenStream==null ? null : new TokenTable(tokenStream));
+    }
+
+    public PhasedUnit(VirtualFile unitFile, VirtualFile srcDir, Tree.CompilationUnit cu, 
+            Package p, ModuleManager moduleManager, Context context, TokenTable tokenStream) {
         this.compilationUnit = cu;
         this.pkg = p;
         this.unitFile = unitFile;
@@ -91,6 +109,8 @@ public class PhasedUnit {
         this.pathRelativeToSrcDir = Helper.computeRelativePath(unitFile, srcDir);
         this.moduleManagerRef = new WeakReference<>(moduleManager);
         this.tokens = tokenStream;
+        this.metricsListener = context==null ? 
+                null : context.getMetricsListener();
         unit = createUnit();
         unit.setFilename(fileName);
         unit.setFullPath(unitFile.getPath());
@@ -120,6 +140,9 @@ public class PhasedUnit {
         this.refinementValidated = other.refinementValidated;
         this.fullyTyped = other.fullyTyped;
         this.flowAnalyzed = other.flowAnalyzed;
+        this.metricsListener = other.metricsListener;
+        this.dependencyScope = other.dependencyScope;
+        this.reusableDeclarations = other.reusableDeclarations;
     }
 
     protected boolean reuseExistingDescriptorModels() {
@@ -204,6 +227,8 @@ public class PhasedUnit {
     public void validateTree() {
         //System.out.println("Validating tree for " + fileName);
         if (!treeValidated) {
+            long start = startTime();
+            long allocated = startAllocation();
             String fn = unit.getRelativePath();
             for (int i=0; i<fn.length(); i = fn.offsetByCodePoints(i, 1)) {
                 int cp = fn.codePointAt(i);
@@ -230,8 +255,8 @@ public class PhasedUnit {
                     }
                 }
             }
-            compilationUnit.visit(new Validator());
-            compilationUnit.visit(new Visitor() {
+            visit(MetricsListener.VALIDATE_TREE, new Validator());
+            visit(MetricsListener.VALIDATE_TREE, new Visitor() {
                 @Override
                 public void visit(ModuleDescriptor that) {
                     super.visit(that);
@@ -257,6 +282,7 @@ public class PhasedUnit {
                 }
             });
             treeValidated = true;
+            unitPhaseCompleted(MetricsListener.VALIDATE_TREE, start, allocated);
         }
     }
 
@@ -264,6 +290,8 @@ public class PhasedUnit {
         Boolean enabled = ProducedTypeCache.setEnabled(false);
         try {
             if (!declarationsScanned) {
+                long start = startTime();
+                long allocated = startAllocation();
                 processLiterals();
                 scanningDeclarations = true;
                 //System.out.println("Scan declarations for " + fileName);
@@ -275,14 +303,16 @@ public class PhasedUnit {
                 };
                 DeclarationVisitor dv = new DeclarationVisitor(pkg, fileName,
                         unitFile.getPath(), pathRelativeToSrcDir, unitFactory);
-                compilationUnit.visit(dv);
+                dv.setReusableDeclarations(reusableDeclarations);
+                visit(MetricsListener.SCAN_DECLARATIONS, dv);
                 unit = dv.getCompilationUnit();
 
                 LocalDeclarationVisitor ldv = new LocalDeclarationVisitor();
-                compilationUnit.visit(ldv);
+                visit(MetricsListener.SCAN_DECLARATIONS, ldv);
 
                 declarationsScanned = true;
                 scanningDeclarations = false;
+                unitPhaseCompleted(MetricsListener.SCAN_DECLARATIONS, start, allocated);
             }
         }
         finally {
@@ -301,11 +331,14 @@ public class PhasedUnit {
         Boolean enabled = ProducedTypeCache.setEnabled(false);
         try {
             if (!typeDeclarationsScanned) {
+                long start = startTime();
+                long allocated = startAllocation();
                 //System.out.println("Scan type declarations for " + fileName);
-                compilationUnit.visit(new DefaultTypeArgVisitor());
-                compilationUnit.visit(new SupertypeVisitor(false)); //TODO: move to a new phase!
-                compilationUnit.visit(new TypeVisitor());
+                visit(MetricsListener.SCAN_TYPE_DECLARATIONS, new DefaultTypeArgVisitor());
+                visit(MetricsListener.SCAN_TYPE_DECLARATIONS, new SupertypeVisitor(false)); //TODO: move to a new phase!
+                visit(MetricsListener.SCAN_TYPE_DECLARATIONS, new TypeVisitor());
                 typeDeclarationsScanned = true;
+                unitPhaseCompleted(MetricsListener.SCAN_TYPE_DECLARATIONS, start, allocated);
             }
         }
         finally {
@@ -317,13 +350,20 @@ public class PhasedUnit {
         Boolean enabled = ProducedTypeCache.setEnabled(false);
         try {
             if (!refinementValidated) {
+                long start = startTime();
+                long allocated = startAllocation();
                 ProducedType.depth.set(0);
                 //System.out.println("Validate member refinement for " + fileName);
-                compilationUnit.visit(new AliasVisitor());
-                compilationUnit.visit(new SupertypeVisitor(true)); //TODO: move to a new phase!
-                compilationUnit.visit(new InheritanceVisitor());
-                compilationUnit.visit(new RefinementVisitor());
+                visit(MetricsListener.VALIDATE_REFINEMENT, new AliasVisitor());
+                visit(MetricsListener.VALIDATE_REFINEMENT, new SupertypeVisitor(true)); //TODO: move to a new phase!
+                visit(MetricsListener.VALIDATE_REFINEMENT, new InheritanceVisitor());
+                RefinementVisitor rv = new RefinementVisitor();
+                rv.setReusableDeclarations(reusableDeclarations);
+                visit(MetricsListener.VALIDATE_REFINEMENT, rv);
+                //every declaration of the new model exists now
+                reusableDeclarations = null;
                 refinementValidated = true;
+                unitPhaseCompleted(MetricsListener.VALIDATE_REFINEMENT, start, allocated);
             }
         }
         finally {
@@ -333,42 +373,91 @@ public class PhasedUnit {
 
     public synchronized void analyseTypes() {
         if (!fullyTyped) {
+            long start = startTime();
+            long allocated = startAllocation();
             ProducedType.depth.set(-100);
             //System.out.println("Run analysis phase for " + fileName);
-            compilationUnit.visit(new ExpressionVisitor());
-            compilationUnit.visit(new VisibilityVisitor());
-            compilationUnit.visit(new AnnotationVisitor());
-            compilationUnit.visit(new TypeArgumentVisitor());
+            visit(MetricsListener.ANALYSE_TYPES, new ExpressionVisitor());
+            //these visitors are independent of each other,
+            //so walk the tree once for all of them
+            if (dependencyScope==null) {
+                visit(MetricsListener.ANALYSE_TYPES, new FusedVisitor(
+                        new VisibilityVisitor(),
+                        new AnnotationVisitor()));
+            }
+            else {
+                visit(MetricsListener.ANALYSE_TYPES, new FusedVisitor(
+                        new VisibilityVisitor(),
+                        new AnnotationVisitor(),
+                        new UnitDependencyVisitor(unit, dependencyScope)));
+            }
+            visit(MetricsListener.ANALYSE_TYPES, new TypeArgumentVisitor());
             fullyTyped = true;
+            unitPhaseCompleted(MetricsListener.ANALYSE_TYPES, start, allocated);
         }
     }
     
     public synchronized void analyseFlow() {
         if (!flowAnalyzed) {
-            compilationUnit.visit(new TypeHierarchyVisitor());
+            long start = startTime();
+            long allocated = startAllocation();
+            visit(MetricsListener.ANALYSE_FLOW, new TypeHierarchyVisitor());
             //System.out.println("Validate control flow for " + fileName);
-            compilationUnit.visit(new ControlFlowVisitor());
+            visit(MetricsListener.ANALYSE_FLOW, new ControlFlowVisitor());
             //System.out.println("Validate self references for " + fileName);
             //System.out.println("Validate specification for " + fileName);
-            for (Declaration d: unit.getDeclarations()) {
-                if (d.getName()!=null) {
-                    compilationUnit.visit(new SpecificationVisitor(d));
-                    if (d instanceof TypeDeclaration) {
-                        compilationUnit.visit(new SelfReferenceVisitor((TypeDeclaration) d));
-                    }
-                }
-            }
+            visit(MetricsListener.ANALYSE_FLOW, new DeclarationFlowVisitor(unit));
             flowAnalyzed = true;
+            unitPhaseCompleted(MetricsListener.ANALYSE_FLOW, start, allocated);
         }
     }
 
     public synchronized void analyseUsage() {
         if (! usageAnalyzed) {
+            long start = startTime();
+            long allocated = startAllocation();
             ReferenceCounter rc = new ReferenceCounter();
-            compilationUnit.visit(rc);
-            compilationUnit.visit(new UsageVisitor(rc));
-            compilationUnit.visit(new DeprecationVisitor());
+            visit(MetricsListener.ANALYSE_USAGE, rc);
+            visit(MetricsListener.ANALYSE_USAGE, new UsageVisitor(rc));
+            visit(MetricsListener.ANALYSE_USAGE, new DeprecationVisitor());
             usageAnalyzed = true;
+            unitPhaseCompleted(MetricsListener.ANALYSE_USAGE, start, allocated);
+        }
+    }
+    
+    /**
+     * Walk the tree with the given visitor of the given
+     * phase, reporting the time it takes to the metrics
+     * listener, if there is one.
+     */
+    private void visit(String phase, Visitor visitor) {
+        if (metricsListener==null) {
+            compilationUnit.visit(visitor);
+        }
+        else {
+            long allocated = AllocationCounter.getAllocatedBytes();
+            long start = System.nanoTime();
+            compilationUnit.visit(visitor);
+            metricsListener.visitorCompleted(this, phase, 
+                    visitor.getClass(), System.nanoTime()-start, 
+                    AllocationCounter.getAllocatedBytesSince(allocated));
+        }
+    }
+    
+    private long startTime() {
+        return metricsListener==null ? 0 : System.nanoTime();
+    }
+    
+    private long startAllocation() {
+        return metricsListener==null ? 
+                -1 : AllocationCounter.getAllocatedBytes();
+    }
+    
+    private void unitPhaseCompleted(String phase, long start, long allocated) {
+        if (metricsListener!=null) {
+            metricsListener.unitPhaseCompleted(this, phase, 
+                    System.nanoTime()-start, 
+                    AllocationCounter.getAllocatedBytesSince(allocated));
         }
     }
 
@@ -424,14 +513,64 @@ public class PhasedUnit {
         return compilationUnit;
     }
 
+    /**
+     * The tokens of the source file, created from the
+     * {@link #getTokenTable() token table} the first time
+     * they are requested, or null if the tokens were 
+     * discarded.
+     */
     public List<CommonToken> getTokens() {
+        return tokens==null ? null : tokens.asList();
+    }
+
+    /**
+     * The tokens of the source file, or null if they 
+     * were discarded.
+     */
+    public TokenTable getTokenTable() {
         return tokens;
     }
 
+    /**
+     * Discard the tokens of the source file, once they
+     * are no longer needed. The tokens held by the tree
+     * are not affected.
+     */
+    public void discardTokens() {
+        tokens = null;
+    }
+
     public boolean isScanningDeclarations() {
         return scanningDeclarations;
     }
 
+    /**
+     * Records, when the types of the unit are analysed, 
+     * the dependencies of the unit on the units of the 
+     * given phased units, as needed by 
+     * {@link com.redhat.ceylon.compiler.typechecker.TypeChecker#update}.
+     * 
+     * @param dependencyScope the phased units, or null to
+     *        record no dependencies
+     */
+    public void setDependencyScope(PhasedUnits dependencyScope) {
+        this.dependencyScope = dependencyScope;
+    }
+
+    /**
+     * Reuses the declarations of the given previous model
+     * of the unit, wherever the new model has a declaration
+     * of the same kind with the same name in the same 
+     * place, so that the units which still refer to the
+     * previous model refer to the new model. Must be called
+     * before the declarations of the unit are scanned.
+     * 
+     * @see ReusableDeclarations
+     */
+    public void reuseDeclarationsOf(Unit previous) {
+        reusableDeclarations = new ReusableDeclarations(previous);
+    }
+
     public void setSuppressedWarnings(EnumSet<Warning> suppressedWarnings) {
         this.suppressedWarnings = suppressedWarnings;
     }
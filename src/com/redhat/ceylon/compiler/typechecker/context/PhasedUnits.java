@@ -1,20 +1,34 @@
 package com.redhat.ceylon.compiler.typechecker.context;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
 import org.antlr.runtime.ANTLRInputStream;
-import org.antlr.runtime.CommonToken;
+import org.antlr.runtime.CharStream;
 import org.antlr.runtime.CommonTokenStream;
+import org.antlr.runtime.Token;
 
 import com.redhat.ceylon.compiler.typechecker.analyzer.ModuleManager;
+import com.redhat.ceylon.compiler.typechecker.io.ByteBufferVirtualFile;
 import com.redhat.ceylon.compiler.typechecker.io.VirtualFile;
 import com.redhat.ceylon.compiler.typechecker.model.Module;
 import com.redhat.ceylon.compiler.typechecker.model.Package;
+import com.redhat.ceylon.compiler.typechecker.parser.ByteBufferCharStream;
 import com.redhat.ceylon.compiler.typechecker.parser.CeylonLexer;
 import com.redhat.ceylon.compiler.typechecker.parser.CeylonParser;
 import com.redhat.ceylon.compiler.typechecker.parser.LexError;
 import com.redhat.ceylon.compiler.typechecker.parser.ParseError;
+import com.redhat.ceylon.compiler.typechecker.parser.TokenTable;
 import com.redhat.ceylon.compiler.typechecker.tree.Tree;
 import com.redhat.ceylon.compiler.typechecker.util.ModuleManagerFactory;
 
@@ -28,6 +42,10 @@ public class PhasedUnits extends PhasedUnitMap<PhasedUnit, PhasedUnit> {
     private final ModuleManager moduleManager;
     private List<String> moduleFilters;
     private String encoding;
+    private int parallelism = 1;
+    private boolean recordDependencies = false;
+    private List<PendingUnit> pendingUnits;
+    private PreparsedUnits preparsedUnits;
 
     public PhasedUnits(Context context) {
         this.context = context;
@@ -53,9 +71,136 @@ public class PhasedUnits extends PhasedUnitMap<PhasedUnit, PhasedUnit> {
         return moduleManager;
     }
 
+    /**
+     * Sets the number of threads used to lex and parse the
+     * source files passed to {@link #parseUnits(List)}.
+     */
+    public void setParallelism(int parallelism) {
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Determines if the units parsed from now on record,
+     * when their types are analysed, which of the other
+     * units they depend on.
+     * 
+     * @see PhasedUnit#setDependencyScope(PhasedUnits)
+     */
+    public void setRecordDependencies(boolean recordDependencies) {
+        this.recordDependencies = recordDependencies;
+    }
+
+    /**
+     * Sets the source files lexed and parsed ahead of 
+     * {@link #parseUnits(List)}, which picks them up 
+     * instead of parsing the same files again, if they were
+     * decoded using the encoding of these units.
+     */
+    public void setPreparsedUnits(PreparsedUnits preparsedUnits) {
+        this.preparsedUnits = preparsedUnits;
+    }
+
+    /**
+     * Lex and parse every source file of the given source
+     * directory or archive, as {@link #parseUnits(List)}
+     * would, without adding any unit, nor touching the 
+     * model, so that any thread may call it.
+     * 
+     * @param encoding the encoding of the source files, or
+     *        null for the default encoding
+     * @param cache the cache of parsed source files, or
+     *        null if parsed files are not cached
+     */
+    public static PreparsedUnits preparseUnits(VirtualFile srcDir, 
+            String encoding, ParseCache cache) throws Exception {
+        PreparsedUnits result = new PreparsedUnits(encoding != null ? 
+                encoding : System.getProperty("file.encoding"));
+        preparse(srcDir, result, cache);
+        return result;
+    }
+
+    private static void preparse(VirtualFile file, PreparsedUnits result, 
+            ParseCache cache) throws Exception {
+        if (file.isFolder()) {
+            for (VirtualFile subfile : file.getChildren()) {
+                preparse(subfile, result, cache);
+            }
+        }
+        else if (file.getName().endsWith(".ceylon")) {
+            result.units.put(file.getPath(), 
+                    parse(file, result.encoding, cache));
+        }
+    }
+
     public void parseUnits(List<VirtualFile> srcDirectories) {
-        for (VirtualFile file : srcDirectories) {
-            parseUnit(file, file);
+        if (parallelism>1) {
+            parseUnitsConcurrently(srcDirectories);
+        }
+        else {
+            for (VirtualFile file : srcDirectories) {
+                parseUnit(file, file);
+            }
+        }
+    }
+
+    /**
+     * Walk the source directories recording the package
+     * of each source file, then lex and parse the files
+     * concurrently, and finally register the resulting
+     * units in the order in which the walk found them, so
+     * that the result is the same as a sequential parse.
+     */
+    private void parseUnitsConcurrently(List<VirtualFile> srcDirectories) {
+        //the walk only schedules the files, see parseFile()
+        List<PendingUnit> scheduled = new ArrayList<PendingUnit>();
+        pendingUnits = scheduled;
+        try {
+            for (VirtualFile file : srcDirectories) {
+                parseUnit(file, file);
+            }
+        }
+        finally {
+            pendingUnits = null;
+        }
+        if (scheduled.isEmpty()) {
+            return;
+        }
+        List<Callable<ParsedUnit>> tasks = 
+                new ArrayList<Callable<ParsedUnit>>(scheduled.size());
+        for (final PendingUnit pending : scheduled) {
+            tasks.add(new Callable<ParsedUnit>() {
+                @Override
+                public ParsedUnit call() throws Exception {
+                    return parse(pending.file);
+                }
+            });
+        }
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            List<Future<ParsedUnit>> results = pool.invokeAll(tasks);
+            for (int i=0; i<scheduled.size(); i++) {
+                PendingUnit pending = scheduled.get(i);
+                ParsedUnit parsed;
+                try {
+                    parsed = results.get(i).get();
+                }
+                catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    throw new RuntimeException(ie);
+                }
+                catch (ExecutionException ee) {
+                    Throwable cause = ee.getCause();
+                    if (cause instanceof RuntimeException) {
+                        throw (RuntimeException) cause;
+                    }
+                    throw new RuntimeException("Error while parsing the source file: " + 
+                            pending.file.toString(), cause);
+                }
+                addParsedUnit(pending.file, pending.srcDir, pending.pkg, parsed);
+            }
+        }
+        finally {
+            pool.shutdown();
         }
     }
 
@@ -86,35 +231,175 @@ public class PhasedUnits extends PhasedUnitMap<PhasedUnit, PhasedUnit> {
         }
     }
 
+    /**
+     * Parse a single source file belonging to the given
+     * package, replacing the phased unit previously parsed
+     * from the same file, if any.
+     * 
+     * @return the new phased unit, which has not been 
+     *         through any phase
+     */
+    public PhasedUnit reparseUnit(VirtualFile file, VirtualFile srcDir, Package pkg) {
+        try {
+            return addParsedUnit(file, srcDir, pkg, parse(file));
+        }
+        catch (RuntimeException e) {
+            throw e;
+        }
+        catch (Exception e) {
+            throw new RuntimeException("Error while parsing the source file: " + file.toString(), e);
+        }
+    }
+
     protected void parseFile(VirtualFile file, VirtualFile srcDir) throws Exception {
         if (file.getName().endsWith(".ceylon")) {
+            if (pendingUnits!=null) {
+                //parsed later, see parseUnitsConcurrently()
+                pendingUnits.add(new PendingUnit(file, srcDir, 
+                        moduleManager.getCurrentPackage()));
+            }
+            else {
+                addParsedUnit(file, srcDir, 
+                        moduleManager.getCurrentPackage(), 
+                        parse(file));
+            }
+        }
+    }
 
-            //System.out.println("Parsing " + file.getName());
-            CeylonLexer lexer = new CeylonLexer(new ANTLRInputStream(file.getInputStream(), getEncoding()));
-            CommonTokenStream tokenStream = new CommonTokenStream(lexer);
-            CeylonParser parser = new CeylonParser(tokenStream);
-            Tree.CompilationUnit cu = parser.compilationUnit();
-            List<CommonToken> tokens = new ArrayList<CommonToken>(tokenStream.getTokens().size()); 
-            tokens.addAll(tokenStream.getTokens());
-            PhasedUnit phasedUnit = new PhasedUnit(file, srcDir, cu, 
-                    moduleManager.getCurrentPackage(), moduleManager,
-                    context, tokens);
-            addPhasedUnit(file, phasedUnit);
+    private ParsedUnit parse(VirtualFile file) throws Exception {
+        //System.out.println("Parsing " + file.getName());
+        if (preparsedUnits!=null && 
+                preparsedUnits.encoding.equals(getEncoding())) {
+            ParsedUnit parsed = preparsedUnits.units.get(file.getPath());
+            if (parsed!=null) {
+                return parsed;
+            }
+        }
+        return parse(file, getEncoding(), context.getParseCache());
+    }
 
-            List<LexError> lexerErrors = lexer.getErrors();
-            for (LexError le : lexerErrors) {
-                //System.out.println("Lexer error in " + file.getName() + ": " + le.getMessage());
-                cu.addLexError(le);
+    private static ParsedUnit parse(VirtualFile file, String encoding, 
+            ParseCache cache) throws Exception {
+        if (cache!=null) {
+            ByteBuffer contents = getContents(file);
+            ParseCache.Key key = ParseCache.key(contents, encoding);
+            ParsedUnit parsed = cache.get(key);
+            if (parsed==null) {
+                parsed = parse(new ByteBufferCharStream(contents, encoding));
+                cache.put(key, parsed);
             }
-            lexerErrors.clear();
+            return parsed;
+        }
+        else if (file instanceof ByteBufferVirtualFile) {
+            return parse(new ByteBufferCharStream(
+                    ((ByteBufferVirtualFile) file).getByteBuffer(), 
+                    encoding));
+        }
+        else {
+            try (InputStream in = file.getInputStream()) {
+                return parse(new ANTLRInputStream(in, encoding));
+            }
+        }
+    }
 
-            List<ParseError> parserErrors = parser.getErrors();
-            for (ParseError pe : parserErrors) {
-                //System.out.println("Parser error in " + file.getName() + ": " + pe.getMessage());
-                cu.addParseError(pe);
+    private static ParsedUnit parse(CharStream input) throws Exception {
+        CeylonLexer lexer = new CeylonLexer(input);
+        CommonTokenStream tokenStream = new CommonTokenStream(lexer);
+        CeylonParser parser = new CeylonParser(tokenStream);
+        Tree.CompilationUnit cu = parser.compilationUnit();
+        @SuppressWarnings("unchecked")
+        List<Token> tokenList = tokenStream.getTokens();
+        TokenTable tokens = new TokenTable(tokenList);
+        return new ParsedUnit(cu, tokens, lexer.getErrors(), parser.getErrors());
+    }
+
+    private static ByteBuffer getContents(VirtualFile file) throws IOException {
+        if (file instanceof ByteBufferVirtualFile) {
+            return ((ByteBufferVirtualFile) file).getByteBuffer();
+        }
+        try (InputStream in = file.getInputStream()) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer))>=0) {
+                out.write(buffer, 0, read);
             }
-            parserErrors.clear();
+            return ByteBuffer.wrap(out.toByteArray());
+        }
+    }
+
+    private PhasedUnit addParsedUnit(VirtualFile file, VirtualFile srcDir, 
+            Package pkg, ParsedUnit parsed) {
+        Tree.CompilationUnit cu = parsed.compilationUnit;
+        PhasedUnit phasedUnit = new PhasedUnit(file, srcDir, cu, 
+                pkg, moduleManager, context, parsed.tokens);
+        if (recordDependencies) {
+            phasedUnit.setDependencyScope(this);
+        }
+        addPhasedUnit(file, phasedUnit);
+
+        List<LexError> lexerErrors = parsed.lexerErrors;
+        for (LexError le : lexerErrors) {
+            //System.out.println("Lexer error in " + file.getName() + ": " + le.getMessage());
+            cu.addLexError(le);
+        }
+        lexerErrors.clear();
+
+        List<ParseError> parserErrors = parsed.parserErrors;
+        for (ParseError pe : parserErrors) {
+            //System.out.println("Parser error in " + file.getName() + ": " + pe.getMessage());
+            cu.addParseError(pe);
+        }
+        parserErrors.clear();
+        return phasedUnit;
+    }
+
+    /**
+     * A source file found while walking the source 
+     * directories, along with the package it belongs to.
+     */
+    private static final class PendingUnit {
+        final VirtualFile file;
+        final VirtualFile srcDir;
+        final Package pkg;
+        PendingUnit(VirtualFile file, VirtualFile srcDir, Package pkg) {
+            this.file = file;
+            this.srcDir = srcDir;
+            this.pkg = pkg;
+        }
+    }
+
+    /**
+     * The result of lexing and parsing a source file.
+     */
+    static final class ParsedUnit {
+        final Tree.CompilationUnit compilationUnit;
+        final TokenTable tokens;
+        final List<LexError> lexerErrors;
+        final List<ParseError> parserErrors;
+        ParsedUnit(Tree.CompilationUnit compilationUnit, TokenTable tokens,
+                List<LexError> lexerErrors, List<ParseError> parserErrors) {
+            this.compilationUnit = compilationUnit;
+            this.tokens = tokens;
+            this.lexerErrors = lexerErrors;
+            this.parserErrors = parserErrors;
+        }
+    }
 
+    /**
+     * The source files of a source directory or archive, 
+     * lexed and parsed ahead of {@link #parseUnits(List)},
+     * by whatever thread retrieved the source archive.
+     * 
+     * @see PhasedUnits#preparseUnits(VirtualFile, String)
+     */
+    public static final class PreparsedUnits {
+        final String encoding;
+        //the parsed units, by the path of the source file
+        final Map<String,ParsedUnit> units = 
+                new HashMap<String,ParsedUnit>();
+        PreparsedUnits(String encoding) {
+            this.encoding = encoding;
         }
     }
 
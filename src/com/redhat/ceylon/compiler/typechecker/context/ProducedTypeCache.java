@@ -1,108 +1,656 @@
 package com.redhat.ceylon.compiler.typechecker.context;
 
-import java.util.LinkedList;
-import java.util.List;
+import java.lang.ref.SoftReference;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
+import com.redhat.ceylon.compiler.typechecker.model.IntersectionType;
+import com.redhat.ceylon.compiler.typechecker.model.Module;
+import com.redhat.ceylon.compiler.typechecker.model.Package;
 import com.redhat.ceylon.compiler.typechecker.model.ProducedType;
+import com.redhat.ceylon.compiler.typechecker.model.Scope;
 import com.redhat.ceylon.compiler.typechecker.model.TypeDeclaration;
+import com.redhat.ceylon.compiler.typechecker.model.UnionType;
 import com.redhat.ceylon.compiler.typechecker.model.UnknownType;
 
+/**
+ * Caches the supertypes of produced types, for a module.
+ *
+ * The cache is unbounded by default. When it is given a
+ * maximum size, entries are evicted in approximately
+ * least recently used order, using the CLOCK algorithm:
+ * a hit marks the entry, and the eviction scan spares a
+ * marked entry once, clearing its mark. Cached supertypes
+ * may also be held by soft references, letting the
+ * garbage collector reclaim them under memory pressure.
+ *
+ * The cache also memoises whether one interned type is a
+ * subtype of, or exactly, another. These relations may
+ * depend on any declaration reachable from either type,
+ * whichever module it belongs to, so every cache forgets
+ * all of them whenever an entry of any cache is 
+ * invalidated.
+ */
 public class ProducedTypeCache {
-    
-    private static boolean cachingEnabledByDefault = true;
-    
+
+    private static volatile boolean cachingEnabledByDefault = true;
+    private static volatile int defaultMaximumSize = 0;
+    private static volatile boolean defaultSoftValues = false;
+
     public static void setEnabledByDefault(boolean enabled) {
         cachingEnabledByDefault = enabled;
     }
-    
-    private static final ThreadLocal<Boolean> cachingEnabled = 
+
+    /**
+     * Sets the maximum number of entries of the caches
+     * created from now on. Zero means unbounded.
+     */
+    public static void setDefaultMaximumSize(int maximumSize) {
+        if (maximumSize < 0) {
+            throw new IllegalArgumentException("maximum size must not be negative");
+        }
+        defaultMaximumSize = maximumSize;
+    }
+
+    /**
+     * Sets whether the caches created from now on hold
+     * the cached supertypes by soft references.
+     */
+    public static void setDefaultSoftValues(boolean softValues) {
+        defaultSoftValues = softValues;
+    }
+
+    private static final ThreadLocal<Boolean> cachingEnabled =
             new ThreadLocal<Boolean>();
-    
+
     public static Boolean setEnabled(Boolean enabled) {
         Boolean was = isEnabled();
         cachingEnabled.set(enabled);
         return was;
     }
-    
+
     public static boolean isEnabled() {
         Boolean cie = cachingEnabled.get();
         return cie == null ? cachingEnabledByDefault : cie;
     }
-    
+
     // need a special value for null because ConcurrentHashMap does not support null
     private final static ProducedType NULL_VALUE = new UnknownType(null).getType();
+
+    /**
+     * Returned by {@link #lookup(ProducedType, TypeDeclaration)}
+     * when the supertype is not cached.
+     */
+    public final static ProducedType MISSING = new UnknownType(null).getType();
+
     // need ConcurrentHashMap even for the cache, otherwise get/put/containsKey can get info infinite loops
     // on concurrent operations
-    private final Map<ProducedType, Map<TypeDeclaration, ProducedType>> superTypes = 
-            new ConcurrentHashMap<ProducedType, Map<TypeDeclaration, ProducedType>>();
-    
-    public boolean containsKey(ProducedType producedType, TypeDeclaration dec) {
-        Map<TypeDeclaration, ProducedType> cache = superTypes.get(producedType);
-        if (cache == null) {
+    private final ConcurrentHashMap<Key, Value> superTypes =
+            new ConcurrentHashMap<Key, Value>();
+    // for each declaration, the entries whose result may
+    // change when the declaration changes
+    private final ConcurrentHashMap<TypeDeclaration, Set<Key>> entriesByDeclaration =
+            new ConcurrentHashMap<TypeDeclaration, Set<Key>>();
+    // the keys in insertion order, scanned for eviction
+    private final ConcurrentLinkedQueue<Key> clock =
+            new ConcurrentLinkedQueue<Key>();
+    // incremented whenever the whole cache is cleared
+    private final AtomicInteger flushes = new AtomicInteger();
+
+    // the declarations which nearly every type inherits, 
+    // which are left out of the index, since nearly every
+    // entry depends on them: invalidating one of them 
+    // clears the whole cache instead
+    private static final Set<String> UNIVERSAL_ROOTS =
+            new HashSet<String>(Arrays.asList("Anything", "Object", 
+                    "Identifiable", "Basic"));
+
+    /**
+     * A relation between two types memoised by the cache.
+     */
+    public static enum Relation { SUBTYPE, EXACTLY }
+
+    // the maximum number of memoised relations of a cache,
+    // beyond which they are all forgotten
+    private static final int MAXIMUM_RELATIONS = 1<<16;
+
+    // incremented whenever any cache is invalidated, making
+    // the memoised relations of every cache stale, since a
+    // relation memoised by the cache of one module depends
+    // on the declarations of the modules it imports
+    private static final AtomicInteger relationEpoch = new AtomicInteger();
+
+    private final ConcurrentHashMap<RelationKey, Boolean> relations =
+            new ConcurrentHashMap<RelationKey, Boolean>();
+    // the epoch of the memoised relations
+    private volatile int relationsEpoch = 0;
+
+    private final int maximumSize;
+    private final boolean softValues;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong invalidations = new AtomicLong();
+
+    public ProducedTypeCache() {
+        this(defaultMaximumSize, defaultSoftValues);
+    }
+
+    /**
+     * @param maximumSize the maximum number of entries, or
+     *        zero for an unbounded cache
+     * @param softValues whether the cached supertypes are
+     *        held by soft references
+     */
+    public ProducedTypeCache(int maximumSize, boolean softValues) {
+        if (maximumSize < 0) {
+            throw new IllegalArgumentException("maximum size must not be negative");
+        }
+        this.maximumSize = maximumSize;
+        this.softValues = softValues;
+    }
+
+    /**
+     * A key of the cache.
+     */
+    private static final class Key {
+        final ProducedType producedType;
+        final TypeDeclaration dec;
+        private final int hash;
+        Key(ProducedType producedType, TypeDeclaration dec) {
+            this.producedType = producedType;
+            this.dec = dec;
+            this.hash = 31 * producedType.hashCode() + dec.hashCode();
+        }
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+        @Override
+        public boolean equals(Object obj) {
+            if (obj == this) {
+                return true;
+            }
+            if (obj instanceof Key) {
+                Key that = (Key) obj;
+                return hash == that.hash &&
+                        dec.equals(that.dec) &&
+                        producedType.equals(that.producedType);
+            }
             return false;
         }
-        return cache.containsKey(dec);
     }
 
-    public ProducedType get(ProducedType producedType, TypeDeclaration dec) {
-        Map<TypeDeclaration, ProducedType> cache = superTypes.get(producedType);
-        if (cache == null) {
-            return null;
+    /**
+     * A key of the memoised relations. Since the types are
+     * interned, they are compared by identity.
+     */
+    private static final class RelationKey {
+        final ProducedType type;
+        final ProducedType otherType;
+        final Relation relation;
+        private final int hash;
+        RelationKey(ProducedType type, ProducedType otherType, 
+                Relation relation) {
+            this.type = type;
+            this.otherType = otherType;
+            this.relation = relation;
+            this.hash = (31 * type.hashCode() + otherType.hashCode()) * 2 + 
+                    relation.ordinal();
+        }
+        @Override
+        public int hashCode() {
+            return hash;
         }
-        ProducedType ret = cache.get(dec);
+        @Override
+        public boolean equals(Object obj) {
+            if (obj instanceof RelationKey) {
+                RelationKey that = (RelationKey) obj;
+                return type == that.type &&
+                        otherType == that.otherType &&
+                        relation == that.relation;
+            }
+            return false;
+        }
+    }
+
+    /**
+     * A cached supertype, along with the declarations
+     * under which it is indexed.
+     */
+    private static final class Value {
+        // a ProducedType, or a SoftReference to one
+        private final Object value;
+        final TypeDeclaration[] declarations;
+        volatile boolean referenced;
+        Value(ProducedType value, boolean soft,
+                TypeDeclaration[] declarations) {
+            this.value = soft && value != NULL_VALUE ?
+                    new SoftReference<ProducedType>(value) : value;
+            this.declarations = declarations;
+        }
+        /**
+         * The cached supertype, or null if it has been
+         * reclaimed by the garbage collector.
+         */
+        ProducedType get() {
+            if (value instanceof SoftReference) {
+                @SuppressWarnings("unchecked")
+                SoftReference<ProducedType> ref =
+                        (SoftReference<ProducedType>) value;
+                return ref.get();
+            }
+            return (ProducedType) value;
+        }
+    }
+
+    /**
+     * Look up the cached supertype of the given type,
+     * counting a hit or a miss.
+     *
+     * @return the supertype, which may be null, or
+     *         {@link #MISSING} if it is not cached
+     */
+    public ProducedType lookup(ProducedType producedType, TypeDeclaration dec) {
+        Key key = new Key(producedType, dec);
+        Value value = superTypes.get(key);
+        ProducedType result = value == null ? null : value.get();
+        if (result == null) {
+            if (value != null) {
+                //reclaimed by the garbage collector
+                remove(key, value);
+            }
+            misses.incrementAndGet();
+            return MISSING;
+        }
+        value.referenced = true;
+        hits.incrementAndGet();
+        return result == NULL_VALUE ? null : result;
+    }
+
+    /**
+     * Determine if the supertype of the given type is
+     * cached, counting a hit or a miss. Prefer
+     * {@link #lookup(ProducedType, TypeDeclaration)},
+     * since a soft value may be reclaimed between this
+     * call and a call to {@link #get(ProducedType, TypeDeclaration)}.
+     */
+    public boolean containsKey(ProducedType producedType, TypeDeclaration dec) {
+        return lookup(producedType, dec) != MISSING;
+    }
+
+    public ProducedType get(ProducedType producedType, TypeDeclaration dec) {
+        Value value = superTypes.get(new Key(producedType, dec));
+        ProducedType ret = value == null ? null : value.get();
         return ret == NULL_VALUE ? null : ret;
     }
 
     public void put(ProducedType producedType, TypeDeclaration dec, ProducedType superType) {
-        Map<TypeDeclaration, ProducedType> cache = superTypes.get(producedType);
-        if (cache == null) {
-            // need ConcurrentHashMap even for the cache, otherwise get/put/containsKey can get info infinite loops
-            // on concurrent operations
-            cache = new ConcurrentHashMap<TypeDeclaration, ProducedType>();
-            superTypes.put(producedType, cache);
+        int flush = flushes.get();
+        Key key = new Key(producedType, dec);
+        Set<TypeDeclaration> decs = new HashSet<TypeDeclaration>();
+        decs.add(dec);
+        collectDeclarations(producedType, decs, true);
+        collectDeclarations(superType, decs, false);
+        for (Iterator<TypeDeclaration> it = decs.iterator(); it.hasNext();) {
+            if (isUniversalRoot(it.next())) {
+                it.remove();
+            }
+        }
+        TypeDeclaration[] declarations =
+                decs.toArray(new TypeDeclaration[decs.size()]);
+        //index the entry before making it visible, so that
+        //a later invalidation finds it
+        for (TypeDeclaration td: declarations) {
+            Set<Key> entries = entriesByDeclaration.get(td);
+            if (entries == null) {
+                entries = Collections.newSetFromMap(
+                        new ConcurrentHashMap<Key, Boolean>());
+                Set<Key> existing =
+                        entriesByDeclaration.putIfAbsent(td, entries);
+                if (existing != null) {
+                    entries = existing;
+                }
+            }
+            entries.add(key);
         }
         if (superType == null) {
             superType = NULL_VALUE;
         }
-        cache.put(dec, superType);
+        Value value = new Value(superType, softValues, declarations);
+        boolean added = superTypes.put(key, value) == null;
+        //an invalidation between the indexing and the put
+        //dropped the index without seeing the entry
+        if (flush != flushes.get()) {
+            remove(key, value);
+            return;
+        }
+        for (TypeDeclaration td: declarations) {
+            Set<Key> entries = entriesByDeclaration.get(td);
+            if (entries == null || !entries.contains(key)) {
+                remove(key, value);
+                return;
+            }
+        }
+        if (added && maximumSize > 0) {
+            clock.add(key);
+            evict();
+        }
+    }
+
+    /**
+     * Evict entries until the cache is no larger than its
+     * maximum size, sparing each recently used entry once.
+     */
+    private void evict() {
+        while (superTypes.size() > maximumSize) {
+            Key key = clock.poll();
+            if (key == null) {
+                return;
+            }
+            Value value = superTypes.get(key);
+            if (value == null) {
+                //already removed
+                continue;
+            }
+            if (value.referenced) {
+                value.referenced = false;
+                clock.add(key);
+            }
+            else if (remove(key, value)) {
+                evictions.incrementAndGet();
+            }
+        }
+    }
+
+    private boolean remove(Key key, Value value) {
+        if (superTypes.remove(key, value)) {
+            for (TypeDeclaration td: value.declarations) {
+                Set<Key> entries = entriesByDeclaration.get(td);
+                if (entries != null) {
+                    entries.remove(key);
+                }
+            }
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Collect the declarations which the given type refers
+     * to and, if requested, the supertypes of the types it
+     * is formed from, since the supertypes of the type
+     * depend on theirs.
+     */
+    private static void collectDeclarations(ProducedType type,
+            Set<TypeDeclaration> decs, boolean supertypes) {
+        if (type == null) {
+            return;
+        }
+        TypeDeclaration td = type.getDeclaration();
+        if (td instanceof UnionType) {
+            for (ProducedType ct: td.getCaseTypes()) {
+                collectDeclarations(ct, decs, supertypes);
+            }
+        }
+        else if (td instanceof IntersectionType) {
+            for (ProducedType st: td.getSatisfiedTypes()) {
+                collectDeclarations(st, decs, supertypes);
+            }
+        }
+        else if (td != null && decs.add(td) && supertypes) {
+            decs.addAll(td.getSupertypeDeclarations());
+        }
+        for (ProducedType ta: type.getTypeArgumentList()) {
+            collectDeclarations(ta, decs, false);
+        }
+        collectDeclarations(type.getQualifyingType(), decs, supertypes);
+    }
+
+    private static boolean isUniversalRoot(TypeDeclaration td) {
+        if (UNIVERSAL_ROOTS.contains(td.getName())) {
+            Scope container = td.getContainer();
+            return container instanceof Package &&
+                    ((Package) container).getNameAsString()
+                            .equals(Module.LANGUAGE_MODULE_NAME);
+        }
+        return false;
     }
 
     public void clear(){
+        flushes.incrementAndGet();
         superTypes.clear();
+        entriesByDeclaration.clear();
+        clock.clear();
+        relations.clear();
+        relationEpoch.incrementAndGet();
+    }
+
+    /**
+     * The current epoch of the memoised relations, to be
+     * passed to {@link #putRelation} once the relation 
+     * has been computed.
+     */
+    public int getRelationEpoch() {
+        return relationEpoch.get();
+    }
+
+    /**
+     * The memoised relation between the given interned 
+     * types, or null if it is not memoised.
+     */
+    public Boolean lookupRelation(ProducedType type, ProducedType otherType, 
+            Relation relation) {
+        int epoch = relationEpoch.get();
+        if (relationsEpoch != epoch) {
+            relations.clear();
+            relationsEpoch = epoch;
+            return null;
+        }
+        return relations.get(new RelationKey(type, otherType, relation));
+    }
+
+    /**
+     * Memoise the relation between the given interned 
+     * types, unless a cache was invalidated since the
+     * given epoch, while it was being computed.
+     */
+    public void putRelation(ProducedType type, ProducedType otherType, 
+            Relation relation, boolean result, int epoch) {
+        if (epoch != relationEpoch.get() || epoch != relationsEpoch) {
+            return;
+        }
+        if (relations.size() >= MAXIMUM_RELATIONS) {
+            relations.clear();
+        }
+        relations.put(new RelationKey(type, otherType, relation), result);
     }
 
+    /**
+     * The number of memoised relations.
+     */
+    public int relationsSize() {
+        return relations.size();
+    }
+
+    /**
+     * Evict the entries whose result may depend on the given
+     * declaration: the entries for a type formed from the
+     * declaration, from one of its subtypes, or from a type
+     * parameterized by one of them, the entries for the
+     * declaration as a supertype, and the entries whose
+     * result refers to the declaration. Invalidating one of
+     * the declarations which nearly every type inherits
+     * clears the whole cache.
+     */
     public void clearForDeclaration(TypeDeclaration decl) {
-        // clear the whole cache for now, unless I can figure out exactly what to
-        // clear
-        clear();
+        if (isUniversalRoot(decl)) {
+            clear();
+            return;
+        }
+        relationEpoch.incrementAndGet();
+        Set<Key> entries = entriesByDeclaration.remove(decl);
+        if (entries != null) {
+            for (Key key: entries) {
+                Value value = superTypes.get(key);
+                if (value != null && remove(key, value)) {
+                    invalidations.incrementAndGet();
+                }
+            }
+        }
     }
-    
+
     public void clearNullValues() {
-        List<ProducedType> cachesToremove = new LinkedList<ProducedType>();
-        for (Map.Entry<ProducedType, Map<TypeDeclaration, ProducedType>> entry: 
-                superTypes.entrySet()) {
-            Map<TypeDeclaration, ProducedType> cache = entry.getValue();
-            if (cache == null) {
-                cachesToremove.add(entry.getKey());
-            }
-            else {
-                List<TypeDeclaration> valuesToremove = 
-                        new LinkedList<TypeDeclaration>();
-                for (Map.Entry<TypeDeclaration, ProducedType> cacheEntry: 
-                        cache.entrySet()) {
-                    if (cacheEntry.getValue() == NULL_VALUE) {
-                        valuesToremove.add(cacheEntry.getKey());
-                    }
-                }
-                for (TypeDeclaration toRemove: valuesToremove) {
-                    cache.remove(toRemove);
-                }
+        for (Iterator<Map.Entry<Key, Value>> it = superTypes.entrySet().iterator();
+                it.hasNext();) {
+            Map.Entry<Key, Value> entry = it.next();
+            if (entry.getValue().get() == NULL_VALUE) {
+                remove(entry.getKey(), entry.getValue());
             }
         }
-        for (ProducedType toRemove: cachesToremove) {
-            superTypes.remove(toRemove);
+    }
+
+    /**
+     * The number of entries in the cache.
+     */
+    public int size() {
+        return superTypes.size();
+    }
+
+    public int getMaximumSize() {
+        return maximumSize;
+    }
+
+    public boolean isSoftValues() {
+        return softValues;
+    }
+
+    /**
+     * The number of lookups which found a cached supertype.
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * The number of lookups which did not find a cached
+     * supertype.
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * The number of entries evicted to keep the cache
+     * within its maximum size.
+     */
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    /**
+     * The number of entries evicted by
+     * {@link #clearForDeclaration(TypeDeclaration)}.
+     */
+    public long getInvalidations() {
+        return invalidations.get();
+    }
+
+    public void resetStatistics() {
+        hits.set(0);
+        misses.set(0);
+        evictions.set(0);
+        invalidations.set(0);
+    }
+
+    /**
+     * A snapshot of the statistics of the cache.
+     */
+    public Statistics getStatistics() {
+        return new Statistics(size(), maximumSize, hits.get(), misses.get(),
+                evictions.get(), invalidations.get());
+    }
+
+    /**
+     * The statistics of a cache at some point in time.
+     */
+    public static final class Statistics {
+        private final int size;
+        private final int maximumSize;
+        private final long hits;
+        private final long misses;
+        private final long evictions;
+        private final long invalidations;
+
+        public Statistics(int size, int maximumSize, long hits, long misses,
+                long evictions, long invalidations) {
+            this.size = size;
+            this.maximumSize = maximumSize;
+            this.hits = hits;
+            this.misses = misses;
+            this.evictions = evictions;
+            this.invalidations = invalidations;
+        }
+
+        public int getSize() {
+            return size;
+        }
+
+        /**
+         * The maximum size, or zero if unbounded.
+         */
+        public int getMaximumSize() {
+            return maximumSize;
+        }
+
+        public long getHits() {
+            return hits;
+        }
+
+        public long getMisses() {
+            return misses;
+        }
+
+        public long getEvictions() {
+            return evictions;
+        }
+
+        public long getInvalidations() {
+            return invalidations;
+        }
+
+        public double getHitRatio() {
+            long lookups = hits + misses;
+            return lookups == 0 ? 0 : (double) hits / lookups;
+        }
+
+        /**
+         * Add the statistics of another cache to these.
+         */
+        public Statistics plus(Statistics other) {
+            return new Statistics(size + other.size,
+                    maximumSize + other.maximumSize,
+                    hits + other.hits, misses + other.misses,
+                    evictions + other.evictions,
+                    invalidations + other.invalidations);
+        }
+
+        @Override
+        public String toString() {
+            return "size=" + size +
+                    (maximumSize > 0 ? "/" + maximumSize : "") +
+                    " hits=" + hits + " misses=" + misses +
+                    " evictions=" + evictions +
+                    " invalidations=" + invalidations;
         }
     }
 }
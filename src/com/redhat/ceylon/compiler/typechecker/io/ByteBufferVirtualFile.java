@@ -0,0 +1,18 @@
+package com.redhat.ceylon.compiler.typechecker.io;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A file whose contents may be read in a single
+ * operation, without copying them through an
+ * {@link java.io.InputStream}.
+ */
+public interface ByteBufferVirtualFile extends VirtualFile {
+    /**
+     * The contents of the file, from the position to
+     * the limit of the returned buffer. The buffer may
+     * be read-only, and may be a mapping of the file.
+     * @throws exception when is a folder
+     */
+    ByteBuffer getByteBuffer();
+}
@@ -1,11 +1,15 @@
 package com.redhat.ceylon.compiler.typechecker.io.impl;
 
+import com.redhat.ceylon.compiler.typechecker.io.ByteBufferVirtualFile;
 import com.redhat.ceylon.compiler.typechecker.io.VirtualFile;
 
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
@@ -13,7 +17,15 @@ import java.util.List;
 /**
  * @author Emmanuel Bernard <emmanuel@hibernate.org>
  */
-public class FileSystemVirtualFile implements VirtualFile {
+public class FileSystemVirtualFile implements ByteBufferVirtualFile {
+    /**
+     * Files smaller than this are read into the heap,
+     * since mapping a small file costs more than reading
+     * it, and a mapping keeps the file open until the 
+     * buffer is collected.
+     */
+    static final int MAPPING_THRESHOLD = 64*1024;
+
     private final File file;
     
 
@@ -52,6 +64,25 @@ public class FileSystemVirtualFile implements VirtualFile {
         }
     }
 
+    @Override
+    public ByteBuffer getByteBuffer() {
+        try (FileInputStream in = new FileInputStream(file)) {
+            FileChannel channel = in.getChannel();
+            long size = channel.size();
+            if (size>=MAPPING_THRESHOLD) {
+                return channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            }
+            ByteBuffer buffer = ByteBuffer.allocate((int) size);
+            while (buffer.hasRemaining() && 
+                    channel.read(buffer)>=0) {}
+            buffer.flip();
+            return buffer;
+        }
+        catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
     @Override
     public List<VirtualFile> getChildren() {
         List<VirtualFile> files;
@@ -0,0 +1,120 @@
+package com.redhat.ceylon.compiler.typechecker.io.impl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import com.redhat.ceylon.compiler.typechecker.io.VirtualFile;
+
+/**
+ * The entries of a zip file, along with the folders
+ * which contain them but are missing from the archive,
+ * as a sorted array of names. Since the names of the
+ * entries within a folder all start with the name of
+ * the folder, they occupy a contiguous range of the
+ * array, which is found by binary search, so that the
+ * children of a folder are only created when they are
+ * requested.
+ *
+ * @see ZipFileVirtualFile
+ * @see ZipFolderVirtualFile
+ */
+class ZipDirectoryIndex {
+
+    private final ZipFile zipFile;
+    private final String[] names;
+
+    ZipDirectoryIndex(ZipFile zipFile) {
+        this.zipFile = zipFile;
+        List<String> entryNames = new ArrayList<String>(zipFile.size());
+        Set<String> folders = new HashSet<String>();
+        final Enumeration<? extends ZipEntry> entries = zipFile.entries();
+        while ( entries.hasMoreElements() ) {
+            String entryName = entries.nextElement().getName();
+            entryNames.add(entryName);
+            if (entryName.endsWith("/")) {
+                folders.add(entryName);
+            }
+            // Also add the ancestor directories (for the case directories are not in the archive)
+            int slash = entryName.lastIndexOf('/', entryName.length()-2);
+            while (slash>=0) {
+                String folder = entryName.substring(0, slash+1);
+                if (!folders.add(folder)) {
+                    //its ancestors have already been added
+                    break;
+                }
+                entryNames.add(folder);
+                slash = entryName.lastIndexOf('/', slash-1);
+            }
+        }
+        String[] sorted = entryNames.toArray(new String[entryNames.size()]);
+        Arrays.sort(sorted);
+        int size = 0;
+        for (int i=0; i<sorted.length; i++) {
+            if (size==0 || !sorted[i].equals(sorted[size-1])) {
+                sorted[size++] = sorted[i];
+            }
+        }
+        names = size==sorted.length ?
+                sorted : Arrays.copyOf(sorted, size);
+    }
+
+    /**
+     * Create the direct children of the folder with the
+     * given entry name, or of the root of the archive if
+     * the given name is empty.
+     */
+    List<VirtualFile> getChildren(String folderName) {
+        int start = folderName.isEmpty() ?
+                0 : upperBound(folderName);
+        int end = folderName.isEmpty() ?
+                names.length : endOfDescendants(folderName);
+        if (start>=end) {
+            return Collections.emptyList();
+        }
+        String path = zipFile.getName();
+        List<VirtualFile> children = new ArrayList<VirtualFile>();
+        int i = start;
+        while (i<end) {
+            String entryName = names[i];
+            if (entryName.endsWith("/")) {
+                children.add(new ZipFolderVirtualFile(entryName, path, this));
+                //skip the descendants of the child folder
+                i = endOfDescendants(entryName);
+            }
+            else {
+                final ZipEntry entry = zipFile.getEntry(entryName);
+                children.add(new ZipEntryVirtualFile(entry, zipFile));
+                i++;
+            }
+        }
+        return Collections.unmodifiableList(children);
+    }
+
+    /**
+     * The index of the first name after the given name.
+     */
+    private int upperBound(String name) {
+        int i = Arrays.binarySearch(names, name);
+        return i>=0 ? i+1 : -i-1;
+    }
+
+    /**
+     * The index of the first name after all the names
+     * which start with the given folder name.
+     */
+    private int endOfDescendants(String folderName) {
+        //'0' is the character after '/', so every name
+        //starting with the folder name sorts before this
+        String bound = folderName.substring(0, folderName.length()-1) + '0';
+        int i = Arrays.binarySearch(names, bound);
+        return i>=0 ? i : -i-1;
+    }
+
+}
@@ -1,9 +1,12 @@
 package com.redhat.ceylon.compiler.typechecker.io.impl;
 
+import com.redhat.ceylon.compiler.typechecker.io.ByteBufferVirtualFile;
 import com.redhat.ceylon.compiler.typechecker.io.VirtualFile;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
@@ -14,7 +17,7 @@ import java.io.FilterInputStream;
 /**
  * @author Emmanuel Bernard <emmanuel@hibernate.org>
  */
-class ZipEntryVirtualFile implements VirtualFile {
+class ZipEntryVirtualFile implements ByteBufferVirtualFile {
 
     public static final List<VirtualFile> EMPTY_CHILDREN = Collections.unmodifiableList( new ArrayList<VirtualFile>(0) );
     private final String name;
@@ -60,6 +63,37 @@ class ZipEntryVirtualFile implements VirtualFile {
         }
     }
 
+    @Override
+    public ByteBuffer getByteBuffer() {
+        //the size of an entry is usually known, so that
+        //the entry is read straight into a buffer of the
+        //right size
+        long size = entry.getSize();
+        byte[] bytes = new byte[size<0 ? 8192 : (int) size];
+        int length = 0;
+        try (InputStream in = zipFile.getInputStream( entry )) {
+            while (true) {
+                if (length==bytes.length) {
+                    int next = in.read();
+                    if (next<0) {
+                        break;
+                    }
+                    bytes = Arrays.copyOf(bytes, Math.max(8192, bytes.length*2));
+                    bytes[length++] = (byte) next;
+                }
+                int read = in.read(bytes, length, bytes.length-length);
+                if (read<0) {
+                    break;
+                }
+                length += read;
+            }
+        }
+        catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return ByteBuffer.wrap(bytes, 0, length);
+    }
+
     @Override
     public List<VirtualFile> getChildren() {
         return EMPTY_CHILDREN;
@@ -1,8 +1,6 @@
 package com.redhat.ceylon.compiler.typechecker.io.impl;
 
 import java.io.InputStream;
-import java.util.ArrayList;
-import java.util.Collections;
 import java.util.List;
 
 import com.redhat.ceylon.compiler.typechecker.io.VirtualFile;
@@ -15,11 +13,13 @@ class ZipFolderVirtualFile implements VirtualFile {
     private final String name;
     private final String path;
     private final String entryName;
-    private final List<VirtualFile> children = new ArrayList<VirtualFile>();
+    private final ZipDirectoryIndex index;
+    private volatile List<VirtualFile> children;
 
-    public ZipFolderVirtualFile(String entryName, String rootPath) {
+    public ZipFolderVirtualFile(String entryName, String rootPath, ZipDirectoryIndex index) {
         this.name = Helper.getSimpleName(entryName);
         this.entryName = entryName;
+        this.index = index;
         String tempPath = rootPath + "!/" + entryName;
         this.path = tempPath.endsWith("/") ? tempPath.substring(0, tempPath.length() - 1 ) : tempPath;
     }
@@ -46,11 +46,12 @@ class ZipFolderVirtualFile implements VirtualFile {
 
     @Override
     public List<VirtualFile> getChildren() {
-        return Collections.unmodifiableList( children );
-    }
-
-    public void addChild(VirtualFile file) {
-        children.add(file);
+        List<VirtualFile> result = children;
+        if (result == null) {
+            result = index.getChildren(entryName);
+            children = result;
+        }
+        return result;
     }
 
     public String getEntryName() {
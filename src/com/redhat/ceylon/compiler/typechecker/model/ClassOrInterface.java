@@ -1,13 +1,16 @@
 package com.redhat.ceylon.compiler.typechecker.model;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Objects;
+import java.util.Set;
 
 
 public abstract class ClassOrInterface extends TypeDeclaration {
 
-    private List<Declaration> members = new ArrayList<Declaration>(3);
+    private List<Declaration> members = new MemberList();
     private List<Annotation> annotations = new ArrayList<Annotation>(4);
     
     @Override
@@ -59,14 +62,95 @@ public abstract class ClassOrInterface extends TypeDeclaration {
 
     @Override
     public boolean inherits(TypeDeclaration dec) {
-        if (dec instanceof ClassOrInterface && 
-                equals(dec)) {
-            return true;
+        if (dec instanceof ClassOrInterface) {
+            return getSupertypeClosure().declarations.contains(dec);
         }
         else {
             return super.inherits(dec);
         }
     }
+    
+    @Override
+    public List<TypeDeclaration> getSupertypeDeclarations() {
+        return new ArrayList<TypeDeclaration>(
+                getSupertypeClosure().declarations);
+    }
+    
+    /**
+     * Whether every supertype declaration was reached via
+     * classes and interfaces only, so that inherits() is
+     * an exact answer to ProducedType.checkSupertype().
+     */
+    boolean hasSimpleSupertypeClosure() {
+        return getSupertypeClosure().simple;
+    }
+    
+    @Override
+    protected boolean isInSupertypeClosures() {
+        return true;
+    }
+    
+    private volatile SupertypeClosure supertypeClosure;
+    
+    private SupertypeClosure getSupertypeClosure() {
+        //read the count before walking the supertypes,
+        //so that a concurrent change causes a rewalk
+        int changes = getHierarchyChanges();
+        SupertypeClosure closure = supertypeClosure;
+        if (closure==null || 
+                closure.changes!=changes ||
+                closure.owner!=this) {
+            closure = new SupertypeClosure(this, changes);
+            supertypeClosure = closure;
+        }
+        return closure;
+    }
+    
+    /**
+     * The memoised supertype declarations of a class or
+     * interface, in the order of getSupertypeDeclarations(), 
+     * valid until the type hierarchy next changes.
+     */
+    private static final class SupertypeClosure {
+        
+        final ClassOrInterface owner;
+        final int changes;
+        final Set<TypeDeclaration> declarations;
+        final boolean simple;
+        
+        SupertypeClosure(ClassOrInterface owner, int changes) {
+            this.owner = owner;
+            this.changes = changes;
+            Set<TypeDeclaration> result = 
+                    new LinkedHashSet<TypeDeclaration>();
+            boolean simple = true;
+            ClassOrInterface etd = 
+                    owner.getExtendedTypeDeclaration();
+            if (etd!=null) {
+                SupertypeClosure ec = etd.getSupertypeClosure();
+                result.addAll(ec.declarations);
+                simple = ec.simple;
+            }
+            for (TypeDeclaration std: 
+                    owner.getSatisfiedTypeDeclarations()) {
+                if (std instanceof ClassOrInterface) {
+                    SupertypeClosure sc = 
+                            ((ClassOrInterface) std).getSupertypeClosure();
+                    result.addAll(sc.declarations);
+                    simple = simple && sc.simple;
+                }
+                else {
+                    result.addAll(std.getSupertypeDeclarations());
+                    simple = false;
+                }
+            }
+            result.add(owner);
+            this.declarations = 
+                    Collections.unmodifiableSet(result);
+            this.simple = simple;
+        }
+        
+    }
 
     @Override
     protected int hashCodeForCache() {
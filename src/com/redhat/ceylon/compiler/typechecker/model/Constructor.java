@@ -24,7 +24,7 @@ public class Constructor extends TypeDeclaration implements Generic, Scope, Func
     private boolean overloaded;
     private boolean abstraction;
     private List<Declaration> overloads;
-    private List<Declaration> members = new ArrayList<Declaration>(3);
+    private List<Declaration> members = new MemberList();
     private List<Annotation> annotations = new ArrayList<Annotation>(4);
     
     @Override
@@ -1,6 +1,5 @@
 package com.redhat.ceylon.compiler.typechecker.model;
 
-import java.util.ArrayList;
 import java.util.List;
 import java.util.Set;
 
@@ -15,7 +14,7 @@ import java.util.Set;
 public class ControlBlock extends Element implements Scope {
     
     private Set<Value> specifiedValues;
-    private List<Declaration> members = new ArrayList<Declaration>(3);
+    private List<Declaration> members = new MemberList();
     private boolean let;
     
     public boolean isLet() {
@@ -50,6 +50,11 @@ public abstract class Declaration
     }
 
     public void setName(String name) {
+        if (getContainer()!=null && 
+                !Objects.equals(this.name, name)) {
+            //the name index of the container is stale
+            MemberList.memberRenamed();
+        }
         this.name = name;
     }
 
@@ -0,0 +1,217 @@
+package com.redhat.ceylon.compiler.typechecker.model;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The toplevel declarations referred to by each toplevel
+ * declaration of a unit, distinguishing the references 
+ * made by the signature of a declaration, that is, by
+ * everything but its bodies, from the references made 
+ * only by its bodies, and the references made by the
+ * imports of the unit.
+ *
+ * A reference to a member is recorded as a reference
+ * to the toplevel declaration which contains it, since
+ * the signatures of the members of a toplevel type are
+ * part of the signature of the type. The declarations of
+ * the unit itself are included, since a change to the
+ * signature of one of them affects the signatures which
+ * refer to it, but a declaration never depends on itself.
+ *
+ * Units may be analysed concurrently, but each unit only
+ * records its own dependencies, so the dependencies are
+ * synchronized just to make them safe to read afterward.
+ */
+public class DeclarationDependencies {
+
+    private final Map<Declaration,Set<Declaration>> signatureDependencies =
+            new LinkedHashMap<Declaration,Set<Declaration>>();
+    private final Map<Declaration,Set<Declaration>> bodyDependencies =
+            new LinkedHashMap<Declaration,Set<Declaration>>();
+    private final Set<Declaration> importDependencies =
+            new LinkedHashSet<Declaration>();
+
+    /**
+     * The toplevel declaration which contains the given
+     * declaration, or null if it is a local declaration.
+     */
+    public static Declaration getToplevelDeclaration(Declaration declaration) {
+        Declaration current = declaration;
+        while (current!=null) {
+            Scope container = current.getContainer();
+            if (container instanceof Package) {
+                return current;
+            }
+            else if (container instanceof Declaration) {
+                current = (Declaration) container;
+            }
+            else {
+                return null;
+            }
+        }
+        return null;
+    }
+
+    private static void add(Map<Declaration,Set<Declaration>> map,
+            Declaration dependent, Declaration dependency) {
+        Set<Declaration> set = map.get(dependent);
+        if (set==null) {
+            set = new LinkedHashSet<Declaration>();
+            map.put(dependent, set);
+        }
+        set.add(dependency);
+    }
+
+    /**
+     * Record that the signature of the given toplevel
+     * declaration refers to the given toplevel declaration.
+     */
+    public synchronized void addSignatureDependency(Declaration dependent,
+            Declaration dependency) {
+        add(signatureDependencies, dependent, dependency);
+    }
+
+    /**
+     * Record that a body of the given toplevel declaration
+     * refers to the given toplevel declaration.
+     */
+    public synchronized void addBodyDependency(Declaration dependent,
+            Declaration dependency) {
+        add(bodyDependencies, dependent, dependency);
+    }
+
+    /**
+     * Record that an import of the unit refers to the
+     * given toplevel declaration.
+     */
+    public synchronized void addImportDependency(Declaration dependency) {
+        importDependencies.add(dependency);
+    }
+
+    /**
+     * The toplevel declarations referred to by the 
+     * signature of the given toplevel declaration.
+     */
+    public synchronized Set<Declaration> getSignatureDependencies(Declaration dependent) {
+        Set<Declaration> set = signatureDependencies.get(dependent);
+        return set==null ? Collections.<Declaration>emptySet() :
+            new LinkedHashSet<Declaration>(set);
+    }
+
+    /**
+     * The toplevel declarations referred to by the bodies, 
+     * but not by the signature, of the given toplevel 
+     * declaration.
+     */
+    public synchronized Set<Declaration> getBodyDependencies(Declaration dependent) {
+        Set<Declaration> set = bodyDependencies.get(dependent);
+        if (set==null) {
+            return Collections.<Declaration>emptySet();
+        }
+        Set<Declaration> result = new LinkedHashSet<Declaration>(set);
+        Set<Declaration> signature = signatureDependencies.get(dependent);
+        if (signature!=null) {
+            result.removeAll(signature);
+        }
+        return result;
+    }
+
+    /**
+     * The toplevel declarations referred to by the imports
+     * of the unit.
+     */
+    public synchronized Set<Declaration> getImportDependencies() {
+        return new LinkedHashSet<Declaration>(importDependencies);
+    }
+
+    /**
+     * The toplevel declarations of the unit which refer to
+     * some other toplevel declaration.
+     */
+    public synchronized Set<Declaration> getDependents() {
+        Set<Declaration> result =
+                new LinkedHashSet<Declaration>(signatureDependencies.keySet());
+        result.addAll(bodyDependencies.keySet());
+        return result;
+    }
+
+    /**
+     * Does the unit refer, anywhere, to one of the toplevel
+     * declarations with the given qualified names?
+     */
+    public synchronized boolean dependsOnAny(Collection<String> qualifiedNames) {
+        if (qualifiedNames.isEmpty()) {
+            return false;
+        }
+        if (dependsOnAny(importDependencies, qualifiedNames)) {
+            return true;
+        }
+        for (Set<Declaration> set: signatureDependencies.values()) {
+            if (dependsOnAny(set, qualifiedNames)) {
+                return true;
+            }
+        }
+        for (Set<Declaration> set: bodyDependencies.values()) {
+            if (dependsOnAny(set, qualifiedNames)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean dependsOnAny(Set<Declaration> dependencies,
+            Collection<String> qualifiedNames) {
+        for (Declaration d: dependencies) {
+            if (qualifiedNames.contains(d.getQualifiedNameString())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Does the unit refer, anywhere, to a toplevel 
+     * declaration with one of the given simple names?
+     */
+    public synchronized boolean dependsOnAnyNamed(Collection<String> names) {
+        if (names.isEmpty()) {
+            return false;
+        }
+        if (dependsOnAnyNamed(importDependencies, names)) {
+            return true;
+        }
+        for (Set<Declaration> set: signatureDependencies.values()) {
+            if (dependsOnAnyNamed(set, names)) {
+                return true;
+            }
+        }
+        for (Set<Declaration> set: bodyDependencies.values()) {
+            if (dependsOnAnyNamed(set, names)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean dependsOnAnyNamed(Set<Declaration> dependencies,
+            Collection<String> names) {
+        for (Declaration d: dependencies) {
+            if (names.contains(d.getName())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public synchronized void clear() {
+        signatureDependencies.clear();
+        bodyDependencies.clear();
+        importDependencies.clear();
+    }
+
+}
@@ -1,5 +1,6 @@
 package com.redhat.ceylon.compiler.typechecker.model;
 
+import java.util.Collections;
 import java.util.Map;
 
 public abstract class LazyProducedType extends ProducedType {
@@ -22,16 +23,43 @@ public abstract class LazyProducedType extends ProducedType {
             }
             else {
                 setDeclaration(td);
+                setQualifyingType(initQualifyingType());
                 setTypeArguments(initTypeArguments());
+                setVarianceOverrides(initVarianceOverrides());
             }
         }
         return super.getDeclaration();
     }
     @Override
+    public ProducedType getQualifyingType() {
+        getDeclaration();//force initialization
+        return super.getQualifyingType();
+    }
+    @Override
     public Map<TypeParameter, ProducedType> getTypeArguments() {
         getDeclaration();//force initialization
         return super.getTypeArguments();
     }
+    @Override
+    public Map<TypeParameter, SiteVariance> getVarianceOverrides() {
+        getDeclaration();//force initialization
+        return super.getVarianceOverrides();
+    }
     public abstract Map<TypeParameter, ProducedType> initTypeArguments();
     public abstract TypeDeclaration initDeclaration();
+    /**
+     * The qualifying type, for a lazy type that is
+     * qualified by an outer type. By default, there
+     * is no qualifying type.
+     */
+    public ProducedType initQualifyingType() {
+        return null;
+    }
+    /**
+     * The use-site variances of the lazy type. By
+     * default, there are none.
+     */
+    public Map<TypeParameter, SiteVariance> initVarianceOverrides() {
+        return Collections.emptyMap();
+    }
 }
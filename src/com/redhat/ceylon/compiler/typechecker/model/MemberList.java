@@ -0,0 +1,110 @@
+package com.redhat.ceylon.compiler.typechecker.model;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The members of a scope, with an index of the members
+ * by name for {@link Util#lookupMember}. The index is
+ * built lazily, once the list is large enough for a
+ * linear scan to be slower, and is rebuilt after the
+ * list is modified, or after the name of a declaration
+ * which already belongs to a scope is changed.
+ */
+public class MemberList extends ArrayList<Declaration> {
+
+    private static final long serialVersionUID = 3470155364421931275L;
+
+    /**
+     * Lists smaller than this are scanned linearly.
+     */
+    static final int INDEX_THRESHOLD = 8;
+
+    private static final AtomicInteger renames = new AtomicInteger();
+
+    static void memberRenamed() {
+        renames.incrementAndGet();
+    }
+
+    private int replacements;
+    private transient volatile Index index;
+
+    public MemberList() {
+        super(3);
+    }
+
+    public MemberList(int initialCapacity) {
+        super(initialCapacity);
+    }
+
+    @Override
+    public Declaration set(int index, Declaration element) {
+        //set() is not a structural modification, so
+        //it does not increment modCount
+        replacements++;
+        return super.set(index, element);
+    }
+
+    /**
+     * The members with the given name, in the order in
+     * which they occur in this list, or null if the list
+     * is not indexed.
+     */
+    List<Declaration> getNamed(String name) {
+        if (size()<INDEX_THRESHOLD) {
+            return null;
+        }
+        //read the stamps before building, so that a
+        //concurrent modification causes a rebuild
+        int modifications = modCount;
+        int replaced = replacements;
+        int renamed = renames.get();
+        Index idx = index;
+        if (idx==null ||
+                idx.modifications!=modifications ||
+                idx.replacements!=replaced ||
+                idx.renames!=renamed) {
+            idx = new Index(this,
+                    modifications, replaced, renamed);
+            index = idx;
+        }
+        List<Declaration> named = idx.members.get(name);
+        return named==null ?
+                Collections.<Declaration>emptyList() : named;
+    }
+
+    private static final class Index {
+
+        final int modifications;
+        final int replacements;
+        final int renames;
+        final Map<String,List<Declaration>> members;
+
+        Index(List<Declaration> list, int modifications,
+                int replacements, int renames) {
+            this.modifications = modifications;
+            this.replacements = replacements;
+            this.renames = renames;
+            int size = list.size();
+            members = new HashMap<String,List<Declaration>>(size*2);
+            for (int i=0; i<size; i++) {
+                Declaration d = list.get(i);
+                String name = d.getName();
+                if (name!=null) {
+                    List<Declaration> named = members.get(name);
+                    if (named==null) {
+                        named = new ArrayList<Declaration>(1);
+                        members.put(name, named);
+                    }
+                    named.add(d);
+                }
+            }
+        }
+
+    }
+
+}
@@ -8,7 +8,7 @@ public abstract class MethodOrValue extends TypedDeclaration {
     private boolean captured;
     private boolean shortcutRefinement;
     private Parameter initializerParameter;
-    private List<Declaration> members = new ArrayList<Declaration>(3);
+    private List<Declaration> members = new MemberList();
     private List<Annotation> annotations = new ArrayList<Annotation>(4);
     
     @Override
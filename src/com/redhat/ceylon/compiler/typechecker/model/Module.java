@@ -11,6 +11,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import com.redhat.ceylon.compiler.typechecker.context.ProducedTypeCache;
 
@@ -24,8 +25,8 @@ public class Module
     private String version;
     private int major;
     private int minor;
-    private List<Package> packages = new ArrayList<Package>();
-    private List<ModuleImport> imports = new ArrayList<ModuleImport>();
+    private PackageList packages = new PackageList();
+    private List<ModuleImport> imports = new CopyOnWriteArrayList<ModuleImport>();
     private Module languageModule;
     private boolean available;
     private boolean isDefault;
@@ -33,6 +34,7 @@ public class Module
     private Unit unit;
     private String memoisedName;
     private ProducedTypeCache cache = new ProducedTypeCache();
+    private ProducedTypeInterner interner = new ProducedTypeInterner();
     private String signature;
 
     /**
@@ -67,6 +69,10 @@ public class Module
         imports.add(modImport);
     }
     
+    public void removeImport(ModuleImport modImport) {
+        imports.remove(modImport);
+    }
+    
     public Module getLanguageModule() {
         return languageModule;
     }
@@ -157,12 +163,7 @@ public class Module
     }
 
     public Package getDirectPackage(String name) {
-        for (Package pkg: packages) {
-            if ( pkg.getQualifiedNameString().equals(name) ) {
-                return pkg;
-            }
-        }
-        return null;
+        return packages.getPackage(name);
     }
     
     public Package getPackage(String name) {
@@ -263,6 +264,22 @@ public class Module
         return cache;
     }
 
+    /**
+     * The statistics of the cache of supertypes of this
+     * module.
+     */
+    public ProducedTypeCache.Statistics getCacheStatistics() {
+        return cache.getStatistics();
+    }
+    
+    /**
+     * The table of canonical produced types whose
+     * declarations belong to this module.
+     */
+    public ProducedTypeInterner getInterner() {
+        return interner;
+    }
+    
     public void clearCache(TypeDeclaration declaration) {
         ProducedTypeCache cache = getCache();
         if(cache != null){
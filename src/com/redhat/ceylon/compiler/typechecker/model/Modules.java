@@ -1,17 +1,30 @@
 package com.redhat.ceylon.compiler.typechecker.model;
 
+import java.util.AbstractSet;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Set;
-import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
  * Represents the set of modules involved in the compilation
  *
+ * The modules are kept sorted, as before, and indexed by
+ * name, and may be read and added from several threads
+ * without locking.
+ *
  * @author Emmanuel Bernard <emmanuel@hibernate.org>
  */
 public class Modules {
-    private Module languageModule;
-    private Set<Module> modules = new TreeSet<Module>();
-    private Module defaultModule;
+    private volatile Module languageModule;
+    private final ConcurrentSkipListSet<Module> sortedModules = new ConcurrentSkipListSet<Module>();
+    private final ConcurrentMap<String, List<Module>> modulesByName = new ConcurrentHashMap<String, List<Module>>();
+    private final Set<Module> modules = new ModuleSet();
+    private volatile Module defaultModule;
 
     public Module getLanguageModule() {
         return languageModule;
@@ -32,4 +45,111 @@ public class Modules {
     public Set<Module> getListOfModules() {
         return modules;
     }
+
+    /**
+     * The modules with the given name, in every version,
+     * in the order of {@link #getListOfModules()}.
+     */
+    public List<Module> getModules(String name) {
+        List<Module> list = modulesByName.get(name);
+        return list == null ?
+                Collections.<Module>emptyList() :
+                Collections.unmodifiableList(list);
+    }
+
+    /**
+     * The module with the given name and version, or null
+     * if there is no such module.
+     */
+    public Module getModule(String name, String version) {
+        for (Module module : getModules(name)) {
+            if (version == null ?
+                    module.getVersion() == null :
+                    version.equals(module.getVersion())) {
+                return module;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * The sorted set of modules, which keeps the index by
+     * name up to date.
+     */
+    private final class ModuleSet extends AbstractSet<Module> {
+
+        @Override
+        public Iterator<Module> iterator() {
+            final Iterator<Module> iterator = sortedModules.iterator();
+            return new Iterator<Module>() {
+                private Module last;
+                @Override
+                public boolean hasNext() {
+                    return iterator.hasNext();
+                }
+                @Override
+                public Module next() {
+                    return last = iterator.next();
+                }
+                @Override
+                public void remove() {
+                    iterator.remove();
+                    unindex(last);
+                }
+            };
+        }
+
+        @Override
+        public int size() {
+            return sortedModules.size();
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            return sortedModules.contains(o);
+        }
+
+        @Override
+        public boolean add(Module module) {
+            if (sortedModules.add(module)) {
+                List<Module> list = modulesByName.get(module.getNameAsString());
+                if (list == null) {
+                    List<Module> newList = new CopyOnWriteArrayList<Module>();
+                    list = modulesByName.putIfAbsent(module.getNameAsString(), newList);
+                    if (list == null) {
+                        list = newList;
+                    }
+                }
+                synchronized (list) {
+                    //keep the versions in the order of the
+                    //sorted set, which lookups rely on
+                    int index = 0;
+                    while (index<list.size() && 
+                            list.get(index).compareTo(module)<0) {
+                        index++;
+                    }
+                    list.add(index, module);
+                }
+                return true;
+            }
+            return false;
+        }
+
+        @Override
+        public boolean remove(Object o) {
+            if (sortedModules.remove(o)) {
+                unindex((Module) o);
+                return true;
+            }
+            return false;
+        }
+
+        private void unindex(Module module) {
+            List<Module> list = modulesByName.get(module.getNameAsString());
+            if (list != null) {
+                list.remove(module);
+            }
+        }
+
+    }
 }
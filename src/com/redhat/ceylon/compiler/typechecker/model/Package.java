@@ -23,6 +23,7 @@ public class Package
             new ArrayList<Annotation>();
     private Unit unit;
     private String nameAsString;
+    private volatile PackageCompleter completer;
     
     public Module getModule() {
         return module;
@@ -68,10 +69,16 @@ public class Package
         this.shared = shared;
     }
     
-    private List<Declaration> members;
+    private volatile List<Declaration> members;
     
     @Override
     public List<Declaration> getMembers() {
+        //outside the lock, since completing the members
+        //searches other packages
+        PackageCompleter completer = this.completer;
+        if (completer!=null) {
+            completer.completeMembers(this);
+        }
         synchronized (units) {
             //return getMembersInternal();
             if (members==null) {
@@ -83,12 +90,13 @@ public class Package
     
     @Override
     public void addMember(Declaration declaration) {
-        members=null;
+        synchronized (units) {
+            members=null;
+        }
     }
     
     private List<Declaration> getMembersInternal() {
-        List<Declaration> result = 
-                new ArrayList<Declaration>();
+        List<Declaration> result = new MemberList();
         for (Unit unit: units) {
             for (Declaration d: unit.getDeclarations()) {
                 if (d.getContainer().equals(this)) {
@@ -138,8 +146,13 @@ public class Package
     @Override
     public Declaration getDirectMember(String name, 
             List<ProducedType> signature, boolean ellipsis) {
-        return lookupMember(getMembers(), 
+        Declaration d = lookupMember(getMembers(), 
                 name, signature, ellipsis);
+        PackageCompleter completer = this.completer;
+        if (d!=null && completer!=null) {
+            completer.completeDeclaration(this, d);
+        }
+        return d;
     }
 
     @Override
@@ -291,4 +304,12 @@ public class Package
 		this.unit = unit;
 	}
     
+    public PackageCompleter getCompleter() {
+        return completer;
+    }
+    
+    public void setCompleter(PackageCompleter completer) {
+        this.completer = completer;
+    }
+    
 }
@@ -0,0 +1,21 @@
+package com.redhat.ceylon.compiler.typechecker.model;
+
+/**
+ * Completer for packages whose units are only analysed on
+ * demand, when the package is first searched, and when
+ * one of its toplevel declarations is first resolved.
+ */
+public interface PackageCompleter {
+
+    /**
+     * Completes the list of members of the given package,
+     * before it is searched.
+     */
+    public void completeMembers(Package pkg);
+
+    /**
+     * Completes the given toplevel declaration of the 
+     * given package, before it is resolved.
+     */
+    public void completeDeclaration(Package pkg, Declaration decl);
+}
@@ -0,0 +1,132 @@
+package com.redhat.ceylon.compiler.typechecker.model;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The packages of a module, indexed by qualified name.
+ *
+ * Writes copy the list, so reads never lock, and
+ * iteration sees the packages as they were when it
+ * began, even if another thread adds a package
+ * meanwhile. A module only gains a package when the
+ * package is first created, so writes are rare.
+ *
+ * The index holds the first package of each name, as
+ * found by a search of the list. Writes update only
+ * the entries for the names they touch.
+ */
+class PackageList extends AbstractList<Package> {
+
+    private volatile Package[] packages = new Package[0];
+
+    private final Map<String,Package> index =
+            new ConcurrentHashMap<String,Package>();
+
+    /**
+     * The first package with the given qualified name.
+     */
+    Package getPackage(String name) {
+        return index.get(name);
+    }
+
+    @Override
+    public Package get(int index) {
+        return packages[index];
+    }
+
+    @Override
+    public int size() {
+        return packages.length;
+    }
+
+    @Override
+    public Iterator<Package> iterator() {
+        return Collections.unmodifiableList(
+                Arrays.asList(packages)).iterator();
+    }
+
+    @Override
+    public synchronized Package set(int index, Package pkg) {
+        Package[] result = packages.clone();
+        Package old = result[index];
+        result[index] = pkg;
+        packages = result;
+        reindex(old);
+        reindex(pkg);
+        return old;
+    }
+
+    @Override
+    public synchronized void add(int index, Package pkg) {
+        if (index<0 || index>packages.length) {
+            throw new IndexOutOfBoundsException("index: " + index);
+        }
+        Package[] result = new Package[packages.length+1];
+        System.arraycopy(packages, 0, result, 0, index);
+        result[index] = pkg;
+        System.arraycopy(packages, index, result, index+1,
+                packages.length-index);
+        packages = result;
+        String name = pkg.getQualifiedNameString();
+        Package first = this.index.get(name);
+        if (first==null || positionOf(first)>index) {
+            this.index.put(name, pkg);
+        }
+        modCount++;
+    }
+
+    @Override
+    public synchronized Package remove(int index) {
+        Package removed = packages[index];
+        Package[] result = new Package[packages.length-1];
+        System.arraycopy(packages, 0, result, 0, index);
+        System.arraycopy(packages, index+1, result, index,
+                packages.length-index-1);
+        packages = result;
+        reindex(removed);
+        modCount++;
+        return removed;
+    }
+
+    @Override
+    public synchronized boolean remove(Object pkg) {
+        int index = indexOf(pkg);
+        if (index<0) {
+            return false;
+        }
+        remove(index);
+        return true;
+    }
+
+    /**
+     * Point the index entry for the name of the given
+     * package at the first package of that name, or
+     * remove it if no package has that name any more.
+     */
+    private void reindex(Package pkg) {
+        String name = pkg.getQualifiedNameString();
+        for (Package p: packages) {
+            if (p.getQualifiedNameString().equals(name)) {
+                index.put(name, p);
+                return;
+            }
+        }
+        index.remove(name);
+    }
+
+    private int positionOf(Package pkg) {
+        Package[] packages = this.packages;
+        for (int i=0; i<packages.length; i++) {
+            if (packages[i]==pkg) {
+                return i;
+            }
+        }
+        return packages.length;
+    }
+
+}
@@ -40,6 +40,7 @@ public class ProducedType extends ProducedReference {
     private String underlyingType;
     private boolean isRaw;
     private ProducedType resolvedAliases;
+    private volatile ProducedTypeInterner.Key internKey;
 
     // cache
     private int hashCode;
@@ -83,15 +84,116 @@ public class ProducedType extends ProducedReference {
     }
     
     public void setVariance(TypeParameter param, SiteVariance variance) {
-        if (varianceOverrides.isEmpty()) {
-            varianceOverrides = new HashMap<TypeParameter,SiteVariance>();
+        if (varianceOverrides.get(param)==variance) {
+            return;
         }
-        varianceOverrides.put(param, variance);
+        checkModifiable();
+        //copy, since the map may be shared with other types
+        Map<TypeParameter,SiteVariance> overrides = 
+                new HashMap<TypeParameter,SiteVariance>(varianceOverrides);
+        overrides.put(param, variance);
+        varianceOverrides = overrides;
     }
 
     public void setVarianceOverrides(Map<TypeParameter,SiteVariance> varianceOverrides) {
+        if (internKey!=null && 
+                this.varianceOverrides.equals(varianceOverrides)) {
+            return;
+        }
+        checkModifiable();
         this.varianceOverrides = varianceOverrides;
     }
+    
+    /**
+     * Whether this is the canonical instance of its type,
+     * as returned by {@link #intern()}. A canonical type
+     * is shared, so its setters throw rather than modify
+     * it: modify a {@link #copy()} of it instead.
+     */
+    public boolean isInterned() {
+        return internKey!=null;
+    }
+    
+    void setInterned(ProducedTypeInterner.Key key) {
+        internKey = key;
+    }
+    
+    private void checkModifiable() {
+        if (internKey!=null) {
+            throw new IllegalStateException("canonical type may not be modified: " + 
+                    this);
+        }
+    }
+    
+    private static ProducedTypeInterner getInterner(TypeDeclaration d) {
+        Unit unit = d.getUnit();
+        Package pkg = unit==null ? null : unit.getPackage();
+        Module module = pkg==null ? null : pkg.getModule();
+        return module==null ? null : module.getInterner();
+    }
+    
+    /**
+     * Return the canonical instance of this type from the
+     * {@link ProducedTypeInterner} of the module of its
+     * declaration, or this type itself if it is not fully
+     * resolved: if it is lazy, has an underlying type, is
+     * raw, is a union, intersection or unknown type, is
+     * missing an argument, or has an argument which is 
+     * not itself canonical.
+     * 
+     * Since the canonical type is shared, this is only
+     * called for types newly created by substitution and
+     * for cached supertypes, never for a type which the 
+     * caller might modify.
+     */
+    ProducedType intern() {
+        if (internKey!=null ||
+                getClass()!=ProducedType.class ||
+                underlyingType!=null || isRaw) {
+            return this;
+        }
+        TypeDeclaration d = getDeclaration();
+        if (!(d instanceof ClassOrInterface) && 
+                !(d instanceof TypeParameter)) {
+            return this;
+        }
+        ProducedType qt = getQualifyingType();
+        if (qt!=null && qt.internKey==null) {
+            return this;
+        }
+        Map<TypeParameter,ProducedType> args = getTypeArguments();
+        for (TypeParameter tp: d.getTypeParameters()) {
+            //a missing argument is not exactly itself
+            if (args.get(tp)==null) {
+                return this;
+            }
+        }
+        for (ProducedType arg: args.values()) {
+            if (arg==null || arg.internKey==null) {
+                return this;
+            }
+        }
+        ProducedTypeInterner interner = getInterner(d);
+        if (interner==null || !interner.isEnabled()) {
+            return this;
+        }
+        return interner.intern(this);
+    }
+    
+    /**
+     * A copy of this type which is not canonical, and may 
+     * therefore be modified.
+     */
+    public ProducedType copy() {
+        ProducedType copy = new ProducedType();
+        copy.setDeclaration(getDeclaration());
+        copy.setQualifyingType(getQualifyingType());
+        copy.setTypeArguments(getTypeArguments());
+        copy.varianceOverrides = varianceOverrides;
+        copy.underlyingType = underlyingType;
+        copy.isRaw = isRaw;
+        return copy;
+    }
 
     ProducedType() {}
 
@@ -115,10 +217,30 @@ public class ProducedType extends ProducedReference {
      * given type? 
      */
     public boolean isExactly(ProducedType type) {
+        if (type==this && internKey!=null) {
+            return true;
+        }
         return resolveAliases().isExactlyInternal(type.resolveAliases());
     }
     
     public boolean isExactlyInternal(ProducedType type) {
+        ProducedTypeCache cache = getRelationCache(type);
+        if (cache==null) {
+            return isExactlyUncached(type);
+        }
+        int epoch = cache.getRelationEpoch();
+        Boolean cached = cache.lookupRelation(this, type, 
+                ProducedTypeCache.Relation.EXACTLY);
+        if (cached!=null) {
+            return cached;
+        }
+        boolean result = isExactlyUncached(type);
+        cache.putRelation(this, type, 
+                ProducedTypeCache.Relation.EXACTLY, result, epoch);
+        return result;
+    }
+    
+    private boolean isExactlyUncached(ProducedType type) {
         if (depth.get()>50) {
             throw new RuntimeException("undecidable subtyping");
         }
@@ -343,11 +465,58 @@ public class ProducedType extends ProducedReference {
                 .isSubtypeOfInternal(type.resolveAliases());
     }
 
+    /**
+     * Is this type certainly not a subtype of the given
+     * type, judging only by the supertype declarations of
+     * its declaration? A cheap, conservative, pre-check 
+     * for isSubtypeOf(), which never creates types: false 
+     * means that the type may or may not be a subtype.
+     */
+    boolean cannotBeSubtypeOf(ProducedType type) {
+        TypeDeclaration d = getDeclaration();
+        TypeDeclaration td = type.getDeclaration();
+        return d instanceof ClassOrInterface && !d.isAlias() &&
+                td instanceof ClassOrInterface && !td.isAlias() &&
+                checkSupertype(d, td)==SupertypeCheck.NO;
+    }
+    
     /**
      * Is this type a subtype of the given type? Ignore
      * a certain self type constraint.
      */
     public boolean isSubtypeOfInternal(ProducedType type) {
+        ProducedTypeCache cache = getRelationCache(type);
+        if (cache==null) {
+            return isSubtypeOfUncached(type);
+        }
+        int epoch = cache.getRelationEpoch();
+        Boolean cached = cache.lookupRelation(this, type, 
+                ProducedTypeCache.Relation.SUBTYPE);
+        if (cached!=null) {
+            return cached;
+        }
+        boolean result = isSubtypeOfUncached(type);
+        cache.putRelation(this, type, 
+                ProducedTypeCache.Relation.SUBTYPE, result, epoch);
+        return result;
+    }
+    
+    /**
+     * The cache of the relations between this type and the
+     * given type, or null if the relation may not be cached,
+     * because the cache is disabled, or because one of the
+     * types is not interned, and so may still be mutated.
+     */
+    private ProducedTypeCache getRelationCache(ProducedType type) {
+        if (internKey==null || type.internKey==null || 
+                !ProducedTypeCache.isEnabled()) {
+            return null;
+        }
+        Unit unit = type.getDeclaration().getUnit();
+        return unit==null ? null : unit.getCache();
+    }
+    
+    private boolean isSubtypeOfUncached(ProducedType type) {
         if (depth.get()>50) {
             throw new RuntimeException("undecidable subtyping");
         }
@@ -767,9 +936,11 @@ public class ProducedType extends ProducedReference {
                 collectVarianceOverrides().isEmpty() &&
                 ProducedTypeCache.isEnabled();
         ProducedTypeCache cache = dec.getUnit().getCache();
-        if (canCache && 
-                cache.containsKey(this, dec)) {
-            return cache.get(this, dec);
+        if (canCache) {
+            ProducedType cached = cache.lookup(this, dec);
+            if (cached != ProducedTypeCache.MISSING) {
+                return cached;
+            }
         }
         SupertypeCheck check = 
                 checkSupertype(getDeclaration(), dec);
@@ -792,6 +963,9 @@ public class ProducedType extends ProducedReference {
             superType = getSupertype(new SupertypeCriteria(dec));
         }
         if (canCache) {
+            if (superType!=null && superType!=this) {
+                superType = superType.intern();
+            }
             cache.put(this, dec, superType);
         }
         return superType;
@@ -840,6 +1014,11 @@ public class ProducedType extends ProducedReference {
             if (declaration.equals(supertype)) {
                 return SupertypeCheck.YES;
             }
+            ClassOrInterface ci = (ClassOrInterface) declaration;
+            if (ci.hasSimpleSupertypeClosure()) {
+                return ci.inherits(supertype) ? 
+                        SupertypeCheck.YES : SupertypeCheck.NO;
+            }
             if (declaration.getExtendedTypeDeclaration() != null) {
                 SupertypeCheck extended = 
                         checkSupertype(declaration.getExtendedTypeDeclaration(), 
@@ -1027,7 +1206,12 @@ public class ProducedType extends ProducedReference {
 		return result;
 	}
 	
-	public static ThreadLocal<Integer> depth = 
+	/**
+	 * Recursion guard for the supertype and subtype
+	 * algorithms. It must be per-thread, since units
+	 * may be type checked concurrently.
+	 */
+	public static final ThreadLocal<Integer> depth = 
 	        new ThreadLocal<Integer>() {
 	    protected Integer initialValue() {
 	        return 0;
@@ -1933,7 +2117,7 @@ public class ProducedType extends ProducedReference {
             }
             type.setTypeArguments(substitutedTypeArguments(pt, substitutions));
             type.varianceOverrides=pt.varianceOverrides;
-            return type;
+            return type.intern();
         }
             
     }
@@ -2123,13 +2307,28 @@ public class ProducedType extends ProducedReference {
     }
     
     public void setUnderlyingType(String underlyingType) {
+        if (internKey != null && underlyingType == null) {
+            return;
+        }
+        checkModifiable();
         this.underlyingType = underlyingType;
         // if we have a resolvedAliases cache, update it too
         if (resolvedAliases != null && resolvedAliases != this) {
+            uninternResolvedAliases();
             resolvedAliases.setUnderlyingType(underlyingType);
         }
     }
     
+    private void uninternResolvedAliases() {
+        if (resolvedAliases.internKey != null) {
+            // don't modify a shared canonical type
+            resolvedAliases = resolvedAliases.copy();
+            resolvedAliases.resolvedAliases = resolvedAliases;
+            resolvedAliases.underlyingType = underlyingType;
+            resolvedAliases.isRaw = isRaw;
+        }
+    }
+    
     public String getUnderlyingType() {
         return underlyingType;
     }
@@ -2262,10 +2461,16 @@ public class ProducedType extends ProducedReference {
     }
 
     public void setRaw(boolean isRaw) {
+        if (internKey != null && !isRaw) {
+            return;
+        }
+        checkModifiable();
         this.isRaw = isRaw;
         // if we have a resolvedAliases cache, update it too
-        if(resolvedAliases != null && resolvedAliases != this)
+        if(resolvedAliases != null && resolvedAliases != this) {
+            uninternResolvedAliases();
             resolvedAliases.setRaw(isRaw);
+        }
     }
     
     public ProducedType resolveAliases() {
@@ -2276,12 +2481,20 @@ public class ProducedType extends ProducedReference {
                 throw new RuntimeException("undecidable canonicalization");
             }
             depth.set(depth.get()+1);
+            ProducedType resolved;
             try {
-                resolvedAliases = curriedResolveAliases();
+                resolved = curriedResolveAliases();
             }
             finally { 
                 depth.set(depth.get()-1);
             }
+            if (resolved != this && resolved.internKey != null &&
+                    (underlyingType != null || isRaw)) {
+                // don't leak our underlying type into a 
+                // shared canonical type
+                resolved = resolved.copy();
+            }
+            resolvedAliases = resolved;
             // mark it as resolved so it doesn't get resolved again
             resolvedAliases.resolvedAliases = resolvedAliases;
             if (resolvedAliases != this) {
@@ -2812,6 +3025,15 @@ public class ProducedType extends ProducedReference {
             return false;
         }
         ProducedType other = (ProducedType) obj;
+        if (other == this) {
+            return true;
+        }
+        if (internKey != null && other.internKey != null &&
+                hashCode() != other.hashCode()) {
+            // canonical types are never modified, so 
+            // their memoised hash codes are reliable
+            return false;
+        }
         ProducedType qA = getQualifyingType();
         ProducedType qB = other.getQualifyingType();
         if (qA!=qB && (qA==null || qB==null || !qA.equals(qB))) {
@@ -0,0 +1,187 @@
+package com.redhat.ceylon.compiler.typechecker.model;
+
+import java.lang.ref.WeakReference;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Hash-conses the fully resolved produced types of a
+ * module, so that structurally identical types built
+ * by substitution share a single canonical instance.
+ *
+ * Two types are identical for the purposes of this
+ * table when they have the very same declaration, the
+ * very same (canonical) qualifying type and type
+ * arguments, and equal variance overrides. Since the
+ * arguments of a canonical type are themselves
+ * canonical, a lookup never recurses. Declarations are
+ * compared by identity, so a type of a declaration
+ * replaced by an incremental update is never returned
+ * for the new declaration.
+ *
+ * Canonical types are only weakly referenced by the
+ * table, and are never modified: a caller which needs
+ * to modify one modifies a {@link ProducedType#copy()}.
+ *
+ * @see ProducedType#intern()
+ */
+public class ProducedTypeInterner {
+
+    private static volatile boolean enabledByDefault = true;
+
+    public static void setEnabledByDefault(boolean enabled) {
+        enabledByDefault = enabled;
+    }
+
+    private static final int SEGMENTS = 16;
+
+    private final Map<Key,WeakReference<ProducedType>>[] segments;
+    private final boolean enabled;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    public ProducedTypeInterner() {
+        this(enabledByDefault);
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public ProducedTypeInterner(boolean enabled) {
+        this.enabled = enabled;
+        segments = new Map[SEGMENTS];
+        for (int i=0; i<SEGMENTS; i++) {
+            segments[i] =
+                    new WeakHashMap<Key,WeakReference<ProducedType>>();
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Return the canonical instance of the given type,
+     * which becomes canonical if there was none.
+     */
+    ProducedType intern(ProducedType type) {
+        Key key = new Key(type);
+        Map<Key,WeakReference<ProducedType>> segment = segment(key);
+        synchronized (segment) {
+            WeakReference<ProducedType> ref = segment.get(key);
+            ProducedType canonical = ref==null ? null : ref.get();
+            if (canonical!=null) {
+                hits.incrementAndGet();
+                return canonical;
+            }
+            //the type holds its key, keeping the entry
+            //alive for as long as the type is reachable
+            type.setInterned(key);
+            segment.put(key, new WeakReference<ProducedType>(type));
+            misses.incrementAndGet();
+            return type;
+        }
+    }
+
+    private Map<Key,WeakReference<ProducedType>> segment(Key key) {
+        return segments[(key.hash ^ (key.hash>>>16)) & (SEGMENTS-1)];
+    }
+
+    public int size() {
+        int size = 0;
+        for (Map<Key,WeakReference<ProducedType>> segment: segments) {
+            synchronized (segment) {
+                size += segment.size();
+            }
+        }
+        return size;
+    }
+
+    public void clear() {
+        for (Map<Key,WeakReference<ProducedType>> segment: segments) {
+            synchronized (segment) {
+                segment.clear();
+            }
+        }
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    @Override
+    public String toString() {
+        return "ProducedTypeInterner[size=" + size() +
+                ", hits=" + getHits() +
+                ", misses=" + getMisses() + "]";
+    }
+
+    static final class Key {
+
+        private final ProducedType type;
+        private final int hash;
+
+        Key(ProducedType type) {
+            this.type = type;
+            this.hash = shallowHashCode(type);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (obj==this) {
+                return true;
+            }
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return hash==other.hash &&
+                    shallowEquals(type, other.type);
+        }
+
+        private static int shallowHashCode(ProducedType type) {
+            TypeDeclaration declaration = type.getDeclaration();
+            int ret = System.identityHashCode(declaration);
+            ret = 37*ret + System.identityHashCode(type.getQualifyingType());
+            Map<TypeParameter,ProducedType> args = type.getTypeArguments();
+            if (!args.isEmpty()) {
+                List<TypeParameter> params = declaration.getTypeParameters();
+                for (int i=0, l=params.size(); i<l; i++) {
+                    ret = 37*ret + System.identityHashCode(args.get(params.get(i)));
+                }
+            }
+            return 37*ret + type.getVarianceOverrides().hashCode();
+        }
+
+        private static boolean shallowEquals(ProducedType a, ProducedType b) {
+            TypeDeclaration declaration = a.getDeclaration();
+            if (declaration!=b.getDeclaration() ||
+                    a.getQualifyingType()!=b.getQualifyingType()) {
+                return false;
+            }
+            Map<TypeParameter,ProducedType> argsA = a.getTypeArguments();
+            Map<TypeParameter,ProducedType> argsB = b.getTypeArguments();
+            if (argsA.size()!=argsB.size()) {
+                return false;
+            }
+            for (Map.Entry<TypeParameter,ProducedType> e: argsA.entrySet()) {
+                if (e.getValue()!=argsB.get(e.getKey())) {
+                    return false;
+                }
+            }
+            return a.getVarianceOverrides()
+                    .equals(b.getVarianceOverrides());
+        }
+
+    }
+
+}
@@ -12,22 +12,27 @@ import static com.redhat.ceylon.compiler.typechecker.model.Util.strictlyBetterMa
 import static java.util.Collections.emptyList;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public abstract class TypeDeclaration extends Declaration 
         implements ImportableScope, Generic, Cloneable {
 
     private ProducedType extendedType;
     private List<ProducedType> satisfiedTypes = 
-            needsSatisfiedTypes() ? 
-                    new ArrayList<ProducedType>(3) : 
-                    Collections.<ProducedType>emptyList();
+            !needsSatisfiedTypes() ? 
+                    Collections.<ProducedType>emptyList() : 
+                    isInSupertypeClosures() ? 
+                            new SatisfiedTypeList() : 
+                            new ArrayList<ProducedType>(3);
     private List<ProducedType> caseTypes = null;
     private List<TypeParameter> typeParameters = emptyList();
     private ProducedType selfType;
@@ -66,6 +71,18 @@ public abstract class TypeDeclaration extends Declaration
         // NothingType doesn't need any so we save allocation
         return true;
     }
+    
+    /**
+     * Whether the supertypes of this declaration may be
+     * part of the memoised supertype declarations of a 
+     * class or interface, so that changing them counts
+     * as a change to the type hierarchy. Only classes
+     * and interfaces are: the unions, intersections and
+     * unknown types formed all the time are not.
+     */
+    protected boolean isInSupertypeClosures() {
+        return false;
+    }
 
     public void setInconsistentType(boolean inconsistentType) {
         this.inconsistentType = inconsistentType;
@@ -125,6 +142,9 @@ public abstract class TypeDeclaration extends Declaration
 
     public void setExtendedType(ProducedType extendedType) {
         this.extendedType = extendedType;
+        if (isInSupertypeClosures()) {
+            hierarchyChanged();
+        }
     }
 
     public List<TypeDeclaration> getSatisfiedTypeDeclarations() {
@@ -143,8 +163,116 @@ public abstract class TypeDeclaration extends Declaration
         return satisfiedTypes;
     }
 
+    /**
+     * Note that subsequent changes to the given list are
+     * not seen by memoised supertype declarations.
+     */
     public void setSatisfiedTypes(List<ProducedType> satisfiedTypes) {
         this.satisfiedTypes = satisfiedTypes;
+        if (isInSupertypeClosures()) {
+            hierarchyChanged();
+        }
+    }
+    
+    private static final AtomicInteger hierarchyChanges = 
+            new AtomicInteger();
+    
+    /**
+     * Counts changes to the extended and satisfied types
+     * of all classes and interfaces, invalidating the 
+     * memoised supertype declarations of every class 
+     * and interface.
+     */
+    static int getHierarchyChanges() {
+        return hierarchyChanges.get();
+    }
+    
+    static void hierarchyChanged() {
+        hierarchyChanges.incrementAndGet();
+    }
+    
+    /**
+     * The default list of satisfied types, which counts
+     * changes made to it directly.
+     */
+    private static final class SatisfiedTypeList 
+            extends ArrayList<ProducedType> {
+        
+        private static final long serialVersionUID = -2740926150137478923L;
+        
+        SatisfiedTypeList() {
+            super(3);
+        }
+        
+        @Override
+        public boolean add(ProducedType e) {
+            boolean result = super.add(e);
+            hierarchyChanged();
+            return result;
+        }
+        
+        @Override
+        public void add(int index, ProducedType element) {
+            super.add(index, element);
+            hierarchyChanged();
+        }
+        
+        @Override
+        public boolean addAll(Collection<? extends ProducedType> c) {
+            boolean result = super.addAll(c);
+            hierarchyChanged();
+            return result;
+        }
+        
+        @Override
+        public boolean addAll(int index, 
+                Collection<? extends ProducedType> c) {
+            boolean result = super.addAll(index, c);
+            hierarchyChanged();
+            return result;
+        }
+        
+        @Override
+        public ProducedType set(int index, ProducedType element) {
+            ProducedType result = super.set(index, element);
+            hierarchyChanged();
+            return result;
+        }
+        
+        @Override
+        public ProducedType remove(int index) {
+            ProducedType result = super.remove(index);
+            hierarchyChanged();
+            return result;
+        }
+        
+        @Override
+        public boolean remove(Object o) {
+            boolean result = super.remove(o);
+            hierarchyChanged();
+            return result;
+        }
+        
+        @Override
+        public boolean removeAll(Collection<?> c) {
+            boolean result = super.removeAll(c);
+            hierarchyChanged();
+            return result;
+        }
+        
+        @Override
+        public boolean retainAll(Collection<?> c) {
+            boolean result = super.retainAll(c);
+            hierarchyChanged();
+            return result;
+        }
+        
+        @Override
+        public void clear() {
+            super.clear();
+            hierarchyChanged();
+        }
+        
     }
 
     public List<TypeDeclaration> getCaseTypeDeclarations() {
@@ -873,41 +1001,21 @@ public abstract class TypeDeclaration extends Declaration
     }
     
     public List<TypeDeclaration> getSupertypeDeclarations() {
-        //TODO: optimize this to avoid walking the
-        //      same supertypes multiple times
         ClassOrInterface etd = getExtendedTypeDeclaration();
         List<TypeDeclaration> stds = getSatisfiedTypeDeclarations();
-        List<TypeDeclaration> result;
+        Set<TypeDeclaration> result = 
+                new LinkedHashSet<TypeDeclaration>();
         if (etd!=null) {
-            List<TypeDeclaration> etsts = etd.getSupertypeDeclarations();
-            result = new ArrayList<TypeDeclaration>(etsts.size() + stds.size()*2);
-            for (int j=0; j<etsts.size(); j++) {
-                TypeDeclaration st = etsts.get(j);
-                if (!result.contains(st)) {
-                    result.add(st);
-                }
-            }
-        }
-        else {
-            result = new ArrayList<TypeDeclaration>(stds.size()*2);
+            result.addAll(etd.getSupertypeDeclarations());
         }
         // cheaper c-for than foreach
         for (int i=0, l=stds.size(); i<l; i++) {
-            TypeDeclaration std = stds.get(i);
-            List<TypeDeclaration> ststs = std.getSupertypeDeclarations();
-            for (int j=0; j<ststs.size(); j++) {
-                TypeDeclaration st = ststs.get(j);
-                if (!result.contains(st)) {
-                    result.add(st);
-                }
-            }
+            result.addAll(stds.get(i).getSupertypeDeclarations());
         }
         if (this instanceof ClassOrInterface) {
-            if (!result.contains(this)) {
-                result.add(this);
-            }
+            result.add(this);
         }
-        return result;
+        return new ArrayList<TypeDeclaration>(result);
     }
     
     /**
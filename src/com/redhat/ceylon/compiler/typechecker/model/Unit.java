@@ -21,6 +21,7 @@ import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
 import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
 
 import com.redhat.ceylon.compiler.typechecker.context.ProducedTypeCache;
 import com.redhat.ceylon.compiler.typechecker.tree.Tree.Identifier;
@@ -34,7 +35,10 @@ public class Unit {
 	private List<ImportList> importLists = new ArrayList<ImportList>();
 	private Set<Identifier> unresolvedReferences = new HashSet<Identifier>();
 	private Set<Declaration> duplicateDeclarations = new HashSet<Declaration>();
-    private final Set<String> dependentsOf = new HashSet<String>();
+    private final Set<String> dependentsOf = 
+            Collections.newSetFromMap(new ConcurrentHashMap<String,Boolean>());
+    private final DeclarationDependencies declarationDependencies = 
+            new DeclarationDependencies();
     private String fullPath;
     private String relativePath;
     
@@ -47,12 +51,25 @@ public class Unit {
     }
 
     /**
+     * The full paths of the units which refer to 
+     * declarations of this unit. Units may be analysed
+     * concurrently, so the set is thread safe.
+     * 
      * @return the dependentsOf
      */
     public Set<String> getDependentsOf() {
         return dependentsOf;
     }
     
+    /**
+     * The declarations of other units to which the
+     * signature and the bodies of each declaration of
+     * this unit refer.
+     */
+    public DeclarationDependencies getDeclarationDependencies() {
+        return declarationDependencies;
+    }
+    
     public Set<Identifier> getUnresolvedReferences() {
         return unresolvedReferences;
     }
@@ -811,11 +811,17 @@ public class Util {
             // cheaper c-for than foreach
             for (int i=0;i<list.size();i++) {
                 ProducedType t = list.get(i);
-                if (pt.isSubtypeOf(t)) {
+                //the supertype declarations of the two
+                //types rule out most pairs of cases of
+                //large enumerated types without any
+                //substitution
+                if (!pt.cannotBeSubtypeOf(t) && 
+                        pt.isSubtypeOf(t)) {
                     add=false;
                     break;
                 }
-                else if (pt.isSupertypeOf(t)) {
+                else if (!t.cannotBeSubtypeOf(pt) && 
+                        pt.isSupertypeOf(t)) {
                     list.remove(i);
                     i--; // redo this index
                 }
@@ -899,15 +905,23 @@ public class Util {
             }
             
             Boolean add = pt.isWellDefined();
+            //whether some type in the list might be a
+            //subtype of the given type
+            boolean related = false;
             if (add) {
                 // cheaper c-for than foreach
                 for (int i=0; i<list.size(); i++) {
                     ProducedType t = list.get(i);
-                    if (pt.isSupertypeOf(t)) {
+                    boolean unrelated = t.cannotBeSubtypeOf(pt);
+                    if (!unrelated) {
+                        related = true;
+                    }
+                    if (!unrelated && pt.isSupertypeOf(t)) {
                         add = false;
                         break;
                     }
-                    else if (pt.isSubtypeOf(t)) {
+                    else if (!pt.cannotBeSubtypeOf(t) && 
+                            pt.isSubtypeOf(t)) {
                         list.remove(i);
                         i--; // redo this index
                     }
@@ -933,11 +947,13 @@ public class Util {
                     }
                 }
             }
-            if (add && list.size()>1) {
+            if (add && list.size()>1 && related) {
                 //it is possible to have a type that is a
                 //supertype of the intersection, even though
                 //it is not a supertype of any of the 
-                //intersected types!
+                //intersected types! But not when the
+                //supertype declarations of every type in
+                //the list rule it out
                 IntersectionType it = 
                         new IntersectionType(unit);
                 it.setSatisfiedTypes(list);
@@ -1406,6 +1422,14 @@ public class Util {
     
     public static Declaration lookupMember(List<Declaration> members, String name,
             List<ProducedType> signature, boolean ellipsis) {
+        if (members instanceof MemberList) {
+            //only consider the members with the given name
+            List<Declaration> named = 
+                    ((MemberList) members).getNamed(name);
+            if (named!=null) {
+                members = named;
+            }
+        }
         List<Declaration> results = null;
         Declaration result = null;
         Declaration inexactMatch = null;
@@ -1807,6 +1831,7 @@ public class Util {
     }
 
     public static void clearProducedTypeCache(TypeDeclaration decl) {
+        TypeDeclaration.hierarchyChanged();
         Module module = getModule(decl);
         if(module != null){
             module.clearCache(decl);
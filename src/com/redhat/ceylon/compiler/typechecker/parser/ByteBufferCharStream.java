@@ -0,0 +1,84 @@
+package com.redhat.ceylon.compiler.typechecker.parser;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+
+import org.antlr.runtime.ANTLRStringStream;
+
+/**
+ * A character stream which decodes the contents of a
+ * source file straight from a buffer into the array
+ * read by the lexer, instead of copying it through a
+ * {@link java.io.Reader} into a growing array, as
+ * {@link org.antlr.runtime.ANTLRInputStream} does.
+ *
+ * Since most source files are entirely ASCII, the
+ * characters of an ASCII compatible encoding are
+ * copied as they are, until the first non-ASCII byte,
+ * and only the rest of the file is decoded by a
+ * {@link CharsetDecoder}. Malformed input is replaced,
+ * just as by an {@link java.io.InputStreamReader}.
+ */
+public class ByteBufferCharStream extends ANTLRStringStream {
+
+    /**
+     * @param bytes the contents of the file, from the
+     *        position to the limit of the buffer
+     * @param encoding the encoding of the file, or null
+     *        for the default encoding of the platform
+     */
+    public ByteBufferCharStream(ByteBuffer bytes, String encoding) {
+        Charset charset = encoding==null ?
+                Charset.defaultCharset() :
+                Charset.forName(encoding);
+        decode(bytes.duplicate(), charset);
+    }
+
+    private void decode(ByteBuffer bytes, Charset charset) {
+        CharsetDecoder decoder = charset.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        char[] chars = new char[(int) Math.ceil(bytes.remaining() *
+                (double) decoder.maxCharsPerByte())];
+        int length = 0;
+        if (isAsciiCompatible(charset)) {
+            int i = bytes.position();
+            int limit = bytes.limit();
+            while (i<limit) {
+                byte b = bytes.get(i);
+                if (b<0) {
+                    break;
+                }
+                chars[length++] = (char) b;
+                i++;
+            }
+            bytes.position(i);
+        }
+        if (bytes.hasRemaining()) {
+            CharBuffer out = CharBuffer.wrap(chars, length,
+                    chars.length-length);
+            CoderResult result = decoder.decode(bytes, out, true);
+            if (result.isUnderflow()) {
+                result = decoder.flush(out);
+            }
+            if (!result.isUnderflow()) {
+                throw new IllegalStateException("could not decode source: " + result);
+            }
+            length = out.position();
+        }
+        data = chars;
+        n = length;
+    }
+
+    private static boolean isAsciiCompatible(Charset charset) {
+        return charset.equals(StandardCharsets.UTF_8) ||
+                charset.equals(StandardCharsets.US_ASCII) ||
+                charset.equals(StandardCharsets.ISO_8859_1);
+    }
+
+}
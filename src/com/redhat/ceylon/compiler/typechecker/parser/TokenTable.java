@@ -0,0 +1,206 @@
+package com.redhat.ceylon.compiler.typechecker.parser;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.antlr.runtime.CharStream;
+import org.antlr.runtime.CommonToken;
+import org.antlr.runtime.Token;
+
+/**
+ * The tokens of a source file, stored in primitive
+ * arrays instead of as one {@link CommonToken} per
+ * token. The token at index <code>i</code> of the
+ * table is the token whose {@link Token#getTokenIndex()
+ * token index} is <code>i</code>, so the tokens held by
+ * a node of the tree may be resolved against the table
+ * using {@link #indexOf(Token)}.
+ *
+ * The text of a token is read from the source file,
+ * except for the few tokens whose text was replaced by
+ * the lexer or parser.
+ */
+public final class TokenTable {
+
+    private final CharStream input;
+    private final int size;
+    private final int[] types;
+    private final int[] starts;
+    private final int[] stops;
+    private final int[] lines;
+    private final int[] columns;
+    private final int[] channels;
+    private final Map<Integer,String> texts =
+            new HashMap<Integer,String>();
+    private volatile List<CommonToken> tokenList;
+
+    /**
+     * Copy the given tokens, which must all have been
+     * produced from the same input stream, in order.
+     */
+    public TokenTable(List<? extends Token> tokens) {
+        size = tokens.size();
+        types = new int[size];
+        starts = new int[size];
+        stops = new int[size];
+        lines = new int[size];
+        columns = new int[size];
+        channels = new int[size];
+        CharStream input = null;
+        for (int i=0; i<size; i++) {
+            Token token = tokens.get(i);
+            types[i] = token.getType();
+            lines[i] = token.getLine();
+            columns[i] = token.getCharPositionInLine();
+            channels[i] = token.getChannel();
+            if (token instanceof CommonToken) {
+                CommonToken ct = (CommonToken) token;
+                starts[i] = ct.getStartIndex();
+                stops[i] = ct.getStopIndex();
+                if (input==null) {
+                    input = ct.getInputStream();
+                }
+            }
+            else {
+                starts[i] = -1;
+                stops[i] = -2;
+            }
+        }
+        this.input = input;
+        for (int i=0; i<size; i++) {
+            String text = tokens.get(i).getText();
+            if (text==null ?
+                    getSourceText(i)!=null :
+                    !text.equals(getSourceText(i))) {
+                texts.put(i, text);
+            }
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int getType(int index) {
+        return types[index];
+    }
+
+    /**
+     * The offset of the first character of the token.
+     */
+    public int getStartIndex(int index) {
+        return starts[index];
+    }
+
+    /**
+     * The offset of the last character of the token.
+     */
+    public int getStopIndex(int index) {
+        return stops[index];
+    }
+
+    public int getLine(int index) {
+        return lines[index];
+    }
+
+    public int getCharPositionInLine(int index) {
+        return columns[index];
+    }
+
+    public int getChannel(int index) {
+        return channels[index];
+    }
+
+    public String getText(int index) {
+        if (index<0 || index>=size) {
+            throw new IndexOutOfBoundsException("token index: " + index);
+        }
+        if (texts.containsKey(index)) {
+            return texts.get(index);
+        }
+        return getSourceText(index);
+    }
+
+    /**
+     * The text of the token as it occurs in the source,
+     * following the same rules as {@link CommonToken}.
+     */
+    private String getSourceText(int index) {
+        if (input==null) {
+            return null;
+        }
+        int n = input.size();
+        int start = starts[index];
+        int stop = stops[index];
+        if (start>=0 && start<n && stop<n) {
+            return input.substring(start, stop);
+        }
+        return "<EOF>";
+    }
+
+    /**
+     * The index in this table of the given token of the
+     * tree, or -1 if the token does not belong to the
+     * table, for example, because it was inserted by the
+     * parser to represent a missing token.
+     */
+    public int indexOf(Token token) {
+        if (token==null) {
+            return -1;
+        }
+        int index = token.getTokenIndex();
+        if (index<0 || index>=size ||
+                types[index]!=token.getType() ||
+                lines[index]!=token.getLine() ||
+                columns[index]!=token.getCharPositionInLine()) {
+            return -1;
+        }
+        return index;
+    }
+
+    /**
+     * Create a new token with the type, channel, position
+     * and text of the token at the given index.
+     */
+    public CommonToken getToken(int index) {
+        CommonToken token = new CommonToken(input, types[index],
+                channels[index], starts[index], stops[index]);
+        token.setLine(lines[index]);
+        token.setCharPositionInLine(columns[index]);
+        token.setTokenIndex(index);
+        if (texts.containsKey(index)) {
+            token.setText(texts.get(index));
+        }
+        return token;
+    }
+
+    /**
+     * The tokens of the table as an unmodifiable list,
+     * which is created the first time it is requested, so
+     * that every call returns the very same tokens. These
+     * are not the instances held by the tree: the index 
+     * in the list of a token of the tree is given by
+     * {@link #indexOf(Token)}.
+     */
+    public List<CommonToken> asList() {
+        List<CommonToken> list = tokenList;
+        if (list==null) {
+            synchronized (this) {
+                list = tokenList;
+                if (list==null) {
+                    CommonToken[] array = new CommonToken[size];
+                    for (int i=0; i<size; i++) {
+                        array[i] = getToken(i);
+                    }
+                    list = Collections.unmodifiableList(Arrays.asList(array));
+                    tokenList = list;
+                }
+            }
+        }
+        return list;
+    }
+
+}
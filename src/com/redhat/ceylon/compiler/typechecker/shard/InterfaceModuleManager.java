@@ -0,0 +1,78 @@
+package com.redhat.ceylon.compiler.typechecker.shard;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+
+import com.redhat.ceylon.compiler.typechecker.analyzer.ModuleManager;
+import com.redhat.ceylon.compiler.typechecker.context.Context;
+import com.redhat.ceylon.compiler.typechecker.model.Module;
+import com.redhat.ceylon.compiler.typechecker.snapshot.ModelSnapshotStore;
+import com.redhat.ceylon.compiler.typechecker.util.ModuleManagerFactory;
+
+/**
+ * A module manager which loads the modules checked by
+ * other shards from the interface files they wrote, 
+ * instead of from the repository, and which writes the
+ * interface files of the modules it checks.
+ *
+ * @see Shard
+ */
+public class InterfaceModuleManager extends ModuleManager {
+
+    private final ModelSnapshotStore interfaces;
+
+    public InterfaceModuleManager(Context context, File interfaceDirectory) {
+        super(context);
+        this.interfaces = new ModelSnapshotStore(interfaceDirectory);
+    }
+
+    /**
+     * A factory of module managers which exchange models
+     * through interface files in the given directory.
+     */
+    public static ModuleManagerFactory factory(final File interfaceDirectory) {
+        return new ModuleManagerFactory() {
+            @Override
+            public ModuleManager createModuleManager(Context context) {
+                return new InterfaceModuleManager(context, interfaceDirectory);
+            }
+        };
+    }
+
+    public File getInterfaceDirectory() {
+        return interfaces.getDirectory();
+    }
+
+    /**
+     * Load every imported module which has an interface
+     * file, including the modules imported by the modules
+     * loaded, so that the module validator finds them 
+     * already available.
+     */
+    @Override
+    public void modulesVisited() {
+        super.modulesVisited();
+        boolean loaded;
+        do {
+            loaded = false;
+            for (Module module : new ArrayList<Module>(getContext().getModules().getListOfModules())) {
+                if (!module.isAvailable() && loadModelSnapshot(module, interfaces)) {
+                    loaded = true;
+                }
+            }
+        }
+        while (loaded);
+    }
+
+    /**
+     * Write the interface files of the modules checked by
+     * this shard, once their models are complete.
+     */
+    public void saveInterfaces() throws IOException {
+        for (Module module : getCompiledModules()) {
+            interfaces.save(module, new InterfaceWriter());
+        }
+    }
+
+}
@@ -0,0 +1,24 @@
+package com.redhat.ceylon.compiler.typechecker.shard;
+
+import com.redhat.ceylon.compiler.typechecker.model.Declaration;
+import com.redhat.ceylon.compiler.typechecker.model.Package;
+import com.redhat.ceylon.compiler.typechecker.snapshot.ModelSnapshotWriter;
+
+/**
+ * Writes the interface of a module, that is, the model of
+ * its shared packages, and of their shared declarations,
+ * which is all that the modules which import it can see.
+ */
+class InterfaceWriter extends ModelSnapshotWriter {
+
+    @Override
+    protected boolean includePackage(Package pkg) {
+        return pkg.isShared();
+    }
+
+    @Override
+    protected boolean includeDeclaration(Declaration dec) {
+        return dec.isShared();
+    }
+
+}
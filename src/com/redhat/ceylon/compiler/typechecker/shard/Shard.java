@@ -0,0 +1,134 @@
+package com.redhat.ceylon.compiler.typechecker.shard;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.redhat.ceylon.cmr.api.RepositoryManager;
+import com.redhat.ceylon.cmr.ceylon.CeylonUtils;
+import com.redhat.ceylon.compiler.typechecker.TypeChecker;
+import com.redhat.ceylon.compiler.typechecker.TypeCheckerBuilder;
+import com.redhat.ceylon.compiler.typechecker.io.cmr.impl.LeakingLogger;
+
+/**
+ * Typechecks some of the modules of a set of source
+ * directories, loading the modules they import from the
+ * interface files written by other shards, when there
+ * are any, and then writes the interface files of its
+ * own modules for the shards which import them.
+ *
+ * Run from the command line, by a {@link ShardDriver}:
+ * <pre>
+ * Shard -interfaces dir [-src dir]... [-rep repo]... [-parallelism n] module...
+ * </pre>
+ * The exit status is {@link #OK} if there were no errors,
+ * {@link #ERRORS} if there were errors, and
+ * {@link #FAILED} if no interface files were written.
+ */
+public class Shard {
+
+    public static final int OK = 0;
+    public static final int ERRORS = 1;
+    public static final int FAILED = 2;
+
+    private final File interfaceDirectory;
+    private final List<File> srcDirectories;
+    private final List<String> modules;
+    private RepositoryManager repositoryManager;
+    private int parallelism = 1;
+
+    public Shard(File interfaceDirectory, List<File> srcDirectories,
+            List<String> modules) {
+        this.interfaceDirectory = interfaceDirectory;
+        this.srcDirectories = new ArrayList<File>(srcDirectories);
+        this.modules = new ArrayList<String>(modules);
+    }
+
+    public void setRepositoryManager(RepositoryManager repositoryManager) {
+        this.repositoryManager = repositoryManager;
+    }
+
+    public void setParallelism(int parallelism) {
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Typecheck the modules of this shard, and write their
+     * interface files.
+     *
+     * @return the type checker, which holds the errors
+     */
+    public TypeChecker check() throws IOException {
+        TypeCheckerBuilder builder = new TypeCheckerBuilder()
+                .moduleManagerFactory(InterfaceModuleManager.factory(interfaceDirectory))
+                .setModuleFilters(modules)
+                .parallelism(parallelism);
+        for (File srcDirectory : srcDirectories) {
+            builder.addSrcDirectory(srcDirectory);
+        }
+        if (repositoryManager != null) {
+            builder.setRepositoryManager(repositoryManager);
+        }
+        TypeChecker typeChecker = builder.getTypeChecker();
+        typeChecker.process();
+        ((InterfaceModuleManager) typeChecker.getPhasedUnits().getModuleManager())
+                .saveInterfaces();
+        return typeChecker;
+    }
+
+    public static void main(String[] args) {
+        File interfaceDirectory = null;
+        List<File> srcDirectories = new ArrayList<File>();
+        List<String> repositories = new ArrayList<String>();
+        List<String> modules = new ArrayList<String>();
+        int parallelism = 1;
+        for (int i=0; i<args.length; i++) {
+            String arg = args[i];
+            if (arg.equals("-interfaces") && i+1<args.length) {
+                interfaceDirectory = new File(args[++i]);
+            }
+            else if (arg.equals("-src") && i+1<args.length) {
+                srcDirectories.add(new File(args[++i]));
+            }
+            else if (arg.equals("-rep") && i+1<args.length) {
+                repositories.add(args[++i]);
+            }
+            else if (arg.equals("-parallelism") && i+1<args.length) {
+                parallelism = Integer.parseInt(args[++i]);
+            }
+            else if (arg.startsWith("-")) {
+                System.err.println("unknown option: " + arg);
+                System.exit(FAILED);
+            }
+            else {
+                modules.add(arg);
+            }
+        }
+        if (interfaceDirectory == null || modules.isEmpty()) {
+            System.err.println("usage: Shard -interfaces dir [-src dir]... [-rep repo]... [-parallelism n] module...");
+            System.exit(FAILED);
+        }
+        if (srcDirectories.isEmpty()) {
+            srcDirectories.add(new File("source"));
+        }
+        Shard shard = new Shard(interfaceDirectory, srcDirectories, modules);
+        shard.setParallelism(parallelism);
+        if (!repositories.isEmpty()) {
+            shard.setRepositoryManager(CeylonUtils.repoManager()
+                    .userRepos(repositories)
+                    .logger(new LeakingLogger())
+                    .buildManager());
+        }
+        int status;
+        try {
+            status = shard.check().getErrors() > 0 ? ERRORS : OK;
+        }
+        catch (Exception e) {
+            e.printStackTrace();
+            status = FAILED;
+        }
+        System.exit(status);
+    }
+
+}
@@ -0,0 +1,324 @@
+package com.redhat.ceylon.compiler.typechecker.shard;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.antlr.runtime.ANTLRInputStream;
+import org.antlr.runtime.CommonTokenStream;
+
+import com.redhat.ceylon.compiler.typechecker.analyzer.ModuleManager;
+import com.redhat.ceylon.compiler.typechecker.parser.CeylonLexer;
+import com.redhat.ceylon.compiler.typechecker.parser.CeylonParser;
+import com.redhat.ceylon.compiler.typechecker.tree.Tree;
+import com.redhat.ceylon.compiler.typechecker.tree.Util;
+
+/**
+ * Typechecks the modules of a set of source directories
+ * as a number of {@link Shard}s, each run in its own JVM.
+ * A shard starts once every shard containing a module it
+ * imports has written its interface files, and at most a
+ * given number of shards run at once.
+ *
+ * Run from the command line:
+ * <pre>
+ * ShardDriver -interfaces dir [-src dir]... [-rep repo]... [-jobs n] -shard module,module... -shard ...
+ * </pre>
+ */
+public class ShardDriver {
+
+    private final File interfaceDirectory;
+    private final List<File> srcDirectories;
+    private final List<List<String>> shards = new ArrayList<List<String>>();
+    private final List<String> repositories = new ArrayList<String>();
+    private final List<String> jvmOptions = new ArrayList<String>();
+    private int jobs = Runtime.getRuntime().availableProcessors();
+
+    public ShardDriver(File interfaceDirectory, List<File> srcDirectories) {
+        this.interfaceDirectory = interfaceDirectory;
+        this.srcDirectories = new ArrayList<File>(srcDirectories);
+    }
+
+    /**
+     * Add a shard which typechecks the given modules.
+     */
+    public void addShard(List<String> modules) {
+        shards.add(new ArrayList<String>(modules));
+    }
+
+    public void addRepository(String repository) {
+        repositories.add(repository);
+    }
+
+    /**
+     * Add an option to the command line of the JVM of
+     * every shard, for example <code>-Xmx2g</code>.
+     */
+    public void addJvmOption(String option) {
+        jvmOptions.add(option);
+    }
+
+    /**
+     * Sets the maximum number of shards run at once.
+     */
+    public void setJobs(int jobs) {
+        this.jobs = jobs;
+    }
+
+    /**
+     * Run every shard, printing the output of each shard
+     * when it is done.
+     *
+     * @return true if no shard reported an error
+     */
+    public boolean run() throws IOException, InterruptedException {
+        int count = shards.size();
+        List<Set<Integer>> dependencies = getDependencies();
+        int[] status = new int[count];
+        boolean[] started = new boolean[count];
+        boolean[] done = new boolean[count];
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, jobs));
+        CompletionService<Integer> completion =
+                new ExecutorCompletionService<Integer>(executor);
+        Map<Future<Integer>,Integer> running =
+                new HashMap<Future<Integer>,Integer>();
+        boolean ok = true;
+        try {
+            int finished = 0;
+            while (finished<count) {
+                boolean skipped = false;
+                for (int i=0; i<count; i++) {
+                    if (started[i]) {
+                        continue;
+                    }
+                    boolean ready = true;
+                    boolean skip = false;
+                    for (int dependency : dependencies.get(i)) {
+                        ready &= done[dependency];
+                        skip |= done[dependency] && status[dependency]==Shard.FAILED;
+                    }
+                    if (skip) {
+                        //an upstream shard wrote no interfaces
+                        started[i] = done[i] = true;
+                        status[i] = Shard.FAILED;
+                        finished++;
+                        skipped = true;
+                        ok = false;
+                        System.err.println("skipped shard " + shards.get(i) +
+                                " since a shard it depends on failed");
+                    }
+                    else if (ready) {
+                        started[i] = true;
+                        running.put(completion.submit(shardTask(i)), i);
+                    }
+                }
+                if (running.isEmpty()) {
+                    if (skipped) {
+                        continue;
+                    }
+                    if (finished<count) {
+                        throw new IllegalStateException("shards depend on each other cyclically");
+                    }
+                    break;
+                }
+                Future<Integer> future = completion.take();
+                int i = running.remove(future);
+                try {
+                    status[i] = future.get();
+                }
+                catch (ExecutionException ee) {
+                    ee.getCause().printStackTrace();
+                    status[i] = Shard.FAILED;
+                }
+                done[i] = true;
+                finished++;
+                ok &= status[i]==Shard.OK;
+            }
+        }
+        finally {
+            executor.shutdownNow();
+        }
+        return ok;
+    }
+
+    /**
+     * The shards containing the modules imported by the
+     * modules of each shard.
+     */
+    private List<Set<Integer>> getDependencies() throws IOException {
+        Map<String,Integer> shardOfModule = new HashMap<String,Integer>();
+        for (int i=0; i<shards.size(); i++) {
+            for (String module : shards.get(i)) {
+                shardOfModule.put(module, i);
+            }
+        }
+        List<Set<Integer>> dependencies = new ArrayList<Set<Integer>>();
+        for (int i=0; i<shards.size(); i++) {
+            Set<Integer> set = new LinkedHashSet<Integer>();
+            for (String module : shards.get(i)) {
+                for (String imported : getImportedModules(module)) {
+                    Integer shard = shardOfModule.get(imported);
+                    if (shard!=null && shard!=i) {
+                        set.add(shard);
+                    }
+                }
+            }
+            dependencies.add(set);
+        }
+        return dependencies;
+    }
+
+    /**
+     * The names of the modules imported by the descriptor
+     * of the given module, if it is in one of the source
+     * directories.
+     */
+    private List<String> getImportedModules(String module) throws IOException {
+        List<String> result = new ArrayList<String>();
+        String path = module.replace('.', File.separatorChar) +
+                File.separatorChar + ModuleManager.MODULE_FILE;
+        for (File srcDirectory : srcDirectories) {
+            File descriptor = new File(srcDirectory, path);
+            if (!descriptor.isFile()) {
+                continue;
+            }
+            InputStream is = new FileInputStream(descriptor);
+            Tree.CompilationUnit cu;
+            try {
+                CeylonLexer lexer = new CeylonLexer(new ANTLRInputStream(is));
+                cu = new CeylonParser(new CommonTokenStream(lexer)).compilationUnit();
+            }
+            catch (Exception e) {
+                throw new IOException("could not parse " + descriptor, e);
+            }
+            finally {
+                is.close();
+            }
+            for (Tree.ModuleDescriptor md : cu.getModuleDescriptors()) {
+                Tree.ImportModuleList iml = md.getImportModuleList();
+                if (iml!=null) {
+                    for (Tree.ImportModule im : iml.getImportModules()) {
+                        if (im.getImportPath()!=null) {
+                            result.add(Util.formatPath(im.getImportPath().getIdentifiers()));
+                        }
+                    }
+                }
+            }
+            break;
+        }
+        return result;
+    }
+
+    private Callable<Integer> shardTask(final int index) {
+        final List<String> command = new ArrayList<String>();
+        command.add(new File(new File(System.getProperty("java.home"), "bin"), "java").getPath());
+        command.addAll(jvmOptions);
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(Shard.class.getName());
+        command.add("-interfaces");
+        command.add(interfaceDirectory.getPath());
+        for (File srcDirectory : srcDirectories) {
+            command.add("-src");
+            command.add(srcDirectory.getPath());
+        }
+        for (String repository : repositories) {
+            command.add("-rep");
+            command.add(repository);
+        }
+        command.addAll(shards.get(index));
+        return new Callable<Integer>() {
+            @Override
+            public Integer call() throws Exception {
+                Process process = new ProcessBuilder(command)
+                        .redirectErrorStream(true)
+                        .start();
+                ByteArrayOutputStream output = new ByteArrayOutputStream();
+                InputStream is = process.getInputStream();
+                try {
+                    byte[] buffer = new byte[8192];
+                    int read;
+                    while ((read = is.read(buffer))>=0) {
+                        output.write(buffer, 0, read);
+                    }
+                }
+                finally {
+                    is.close();
+                }
+                int status = process.waitFor();
+                synchronized (System.out) {
+                    System.out.println("shard " + shards.get(index) +
+                            " exited with status " + status);
+                    output.writeTo(System.out);
+                    System.out.flush();
+                }
+                return status;
+            }
+        };
+    }
+
+    public static void main(String[] args) throws Exception {
+        File interfaceDirectory = null;
+        List<File> srcDirectories = new ArrayList<File>();
+        List<String> repositories = new ArrayList<String>();
+        List<List<String>> shards = new ArrayList<List<String>>();
+        int jobs = 0;
+        for (int i=0; i<args.length; i++) {
+            String arg = args[i];
+            if (arg.equals("-interfaces") && i+1<args.length) {
+                interfaceDirectory = new File(args[++i]);
+            }
+            else if (arg.equals("-src") && i+1<args.length) {
+                srcDirectories.add(new File(args[++i]));
+            }
+            else if (arg.equals("-rep") && i+1<args.length) {
+                repositories.add(args[++i]);
+            }
+            else if (arg.equals("-jobs") && i+1<args.length) {
+                jobs = Integer.parseInt(args[++i]);
+            }
+            else if (arg.equals("-shard") && i+1<args.length) {
+                shards.add(Arrays.asList(args[++i].split(",")));
+            }
+            else {
+                System.err.println("unknown option: " + arg);
+                System.exit(Shard.FAILED);
+            }
+        }
+        if (interfaceDirectory == null || shards.isEmpty()) {
+            System.err.println("usage: ShardDriver -interfaces dir [-src dir]... [-rep repo]... [-jobs n] -shard module,module... -shard ...");
+            System.exit(Shard.FAILED);
+        }
+        if (srcDirectories.isEmpty()) {
+            srcDirectories.add(new File("source"));
+        }
+        ShardDriver driver = new ShardDriver(interfaceDirectory, srcDirectories);
+        for (String repository : repositories) {
+            driver.addRepository(repository);
+        }
+        for (List<String> shard : shards) {
+            driver.addShard(shard);
+        }
+        if (jobs > 0) {
+            driver.setJobs(jobs);
+        }
+        System.exit(driver.run() ? Shard.OK : Shard.ERRORS);
+    }
+
+}
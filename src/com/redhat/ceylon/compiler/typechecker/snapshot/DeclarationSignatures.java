@@ -0,0 +1,142 @@
+package com.redhat.ceylon.compiler.typechecker.snapshot;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+import com.redhat.ceylon.compiler.typechecker.model.Declaration;
+import com.redhat.ceylon.compiler.typechecker.model.Unit;
+
+/**
+ * The signatures of the toplevel declarations of a unit,
+ * that is, everything about them which is visible outside
+ * their bodies, as written by a {@link ModelSnapshotWriter},
+ * used to tell a change to the signature of a declaration
+ * from a change to its bodies only.
+ *
+ * The signatures are taken from the model, so a change
+ * to a body which changes an inferred type is a change
+ * to the signature.
+ */
+public class DeclarationSignatures {
+
+    private final Map<String,byte[]> signatures;
+
+    private DeclarationSignatures(Map<String,byte[]> signatures) {
+        this.signatures = signatures;
+    }
+
+    /**
+     * The signatures of the toplevel declarations of the
+     * given unit, which must have been typechecked.
+     */
+    public static DeclarationSignatures of(Unit unit) {
+        Map<String,MessageDigest> digests =
+                new LinkedHashMap<String,MessageDigest>();
+        for (Declaration d: unit.getDeclarations()) {
+            if (d.isToplevel() && d.getName()!=null) {
+                //a getter and its setter, or an object and
+                //its anonymous class, share a name
+                String name = d.getQualifiedNameString();
+                MessageDigest digest = digests.get(name);
+                if (digest==null) {
+                    digest = newDigest();
+                    digests.put(name, digest);
+                }
+                digest.update(signatureOf(d));
+            }
+        }
+        Map<String,byte[]> signatures =
+                new LinkedHashMap<String,byte[]>();
+        for (Map.Entry<String,MessageDigest> entry: digests.entrySet()) {
+            signatures.put(entry.getKey(), entry.getValue().digest());
+        }
+        return new DeclarationSignatures(signatures);
+    }
+
+    /**
+     * The signature of the given toplevel declaration.
+     */
+    public static byte[] signatureOf(Declaration declaration) {
+        final MessageDigest digest = newDigest();
+        OutputStream os = new OutputStream() {
+            @Override
+            public void write(int b) {
+                digest.update((byte) b);
+            }
+            @Override
+            public void write(byte[] b, int off, int len) {
+                digest.update(b, off, len);
+            }
+        };
+        try {
+            new ModelSnapshotWriter().write(declaration, os);
+        }
+        catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        catch (RuntimeException e) {
+            //the model of a unit with errors may not be
+            //writable, in which case its signature is
+            //never the same as any other
+            digest.update(Integer.toString(System.identityHashCode(declaration))
+                    .getBytes());
+            digest.update(Long.toString(System.nanoTime()).getBytes());
+        }
+        return digest.digest();
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        }
+        catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * The qualified names of the toplevel declarations.
+     */
+    public Set<String> getQualifiedNames() {
+        return Collections.unmodifiableSet(signatures.keySet());
+    }
+
+    /**
+     * The qualified names of the toplevel declarations
+     * whose signatures differ from the given signatures,
+     * including the declarations which were added or
+     * removed.
+     */
+    public Set<String> getChangesSince(DeclarationSignatures before) {
+        Set<String> changes = new LinkedHashSet<String>();
+        for (Map.Entry<String,byte[]> entry: signatures.entrySet()) {
+            byte[] old = before.signatures.get(entry.getKey());
+            if (old==null || !Arrays.equals(old, entry.getValue())) {
+                changes.add(entry.getKey());
+            }
+        }
+        for (String name: before.signatures.keySet()) {
+            if (!signatures.containsKey(name)) {
+                changes.add(name);
+            }
+        }
+        return changes;
+    }
+
+    /**
+     * No declarations, the signatures of a unit which did
+     * not exist.
+     */
+    public static DeclarationSignatures none() {
+        return new DeclarationSignatures(Collections.<String,byte[]>emptyMap());
+    }
+
+}
@@ -0,0 +1,178 @@
+package com.redhat.ceylon.compiler.typechecker.snapshot;
+
+import com.redhat.ceylon.compiler.typechecker.model.Class;
+import com.redhat.ceylon.compiler.typechecker.model.ClassAlias;
+import com.redhat.ceylon.compiler.typechecker.model.Constructor;
+import com.redhat.ceylon.compiler.typechecker.model.Declaration;
+import com.redhat.ceylon.compiler.typechecker.model.Interface;
+import com.redhat.ceylon.compiler.typechecker.model.InterfaceAlias;
+import com.redhat.ceylon.compiler.typechecker.model.Method;
+import com.redhat.ceylon.compiler.typechecker.model.Setter;
+import com.redhat.ceylon.compiler.typechecker.model.TypeAlias;
+import com.redhat.ceylon.compiler.typechecker.model.TypeParameter;
+import com.redhat.ceylon.compiler.typechecker.model.Value;
+
+/**
+ * Constants describing the binary layout of a module
+ * model snapshot.
+ *
+ * A snapshot is laid out as:
+ *
+ * - a header: magic number, format version, the version
+ *   of the type checker that wrote it, the name and
+ *   version of the module, and the digest of the source
+ *   artifact it was read from, if any,
+ * - the table of strings used by the rest of the file,
+ * - the module imports,
+ * - the packages and their units, each unit followed by
+ *   the "shells" of its declarations (kind, name, and
+ *   container), in depth-first order, which assigns
+ *   each declaration its number,
+ * - the details of every declaration, in the same order,
+ *   which may refer to any declaration by its number.
+ *
+ * @see ModelSnapshotWriter
+ * @see ModelSnapshotReader
+ */
+final class ModelSnapshotFormat {
+
+    private ModelSnapshotFormat() {}
+
+    static final int MAGIC = 0x43594d53; //CYMS
+
+    /**
+     * Must be incremented for any change to the layout.
+     */
+    static final int FORMAT_VERSION = 3;
+
+    static final int NO_ID = -1;
+
+    //declaration kinds
+    static final byte CLASS = 1;
+    static final byte CLASS_ALIAS = 2;
+    static final byte INTERFACE = 3;
+    static final byte INTERFACE_ALIAS = 4;
+    static final byte TYPE_ALIAS = 5;
+    static final byte TYPE_PARAMETER = 6;
+    static final byte CONSTRUCTOR = 7;
+    static final byte METHOD = 8;
+    static final byte VALUE = 9;
+    static final byte SETTER = 10;
+
+    //references to declarations and scopes
+    static final byte REF_NULL = 0;
+    static final byte REF_INTERNAL = 1;
+    static final byte REF_EXTERNAL = 2;
+    static final byte REF_PACKAGE = 3;
+
+    //types
+    static final byte TYPE_NULL = 0;
+    static final byte TYPE_DECLARATION = 1;
+    static final byte TYPE_UNION = 2;
+    static final byte TYPE_INTERSECTION = 3;
+    static final byte TYPE_NOTHING = 4;
+    static final byte TYPE_UNKNOWN = 5;
+
+    //use-site variances
+    static final byte VARIANCE_NONE = 0;
+    static final byte VARIANCE_IN = 1;
+    static final byte VARIANCE_OUT = 2;
+
+    //declaration flags
+    static final int SHARED = 1;
+    static final int FORMAL = 1<<1;
+    static final int ACTUAL = 1<<2;
+    static final int DEFAULT = 1<<3;
+    static final int DEPRECATED = 1<<4;
+    static final int ANNOTATION = 1<<5;
+    static final int NATIVE = 1<<6;
+    static final int STATICALLY_IMPORTABLE = 1<<7;
+    static final int PROTECTED_VISIBILITY = 1<<8;
+    static final int PACKAGE_VISIBILITY = 1<<9;
+    static final int OTHER_INSTANCE_ACCESS = 1<<10;
+    //type declaration flags
+    static final int SEALED = 1<<11;
+    static final int DYNAMIC = 1<<12;
+    static final int INCONSISTENT_TYPE = 1<<13;
+    //typed declaration flags
+    static final int UNCHECKED_NULL_TYPE = 1<<11;
+    static final int DYNAMICALLY_TYPED = 1<<12;
+    static final int SHORTCUT_REFINEMENT = 1<<13;
+
+    //kind specific flags
+    static final int ABSTRACT = 1;
+    static final int ANONYMOUS = 1<<1;
+    static final int NAMED = 1<<2;
+    static final int FINAL = 1<<3;
+    static final int SERIALIZABLE = 1<<4;
+    static final int CONSTRUCTORS = 1<<5;
+    static final int OVERLOADED = 1<<6;
+    static final int ABSTRACTION = 1<<7;
+    static final int DECLARED_VOID = 1<<8;
+    static final int DEFERRED = 1<<9;
+    static final int VARIABLE = 1<<10;
+    static final int TRANSIENT = 1<<11;
+    static final int LATE = 1<<12;
+    static final int ENUM_VALUE = 1<<13;
+    static final int COVARIANT = 1<<14;
+    static final int CONTRAVARIANT = 1<<15;
+    static final int DEFAULTED = 1<<16;
+    static final int CONSTRAINED = 1<<17;
+
+    //parameter flags
+    static final int PARAMETER_DEFAULTED = 1;
+    static final int PARAMETER_SEQUENCED = 1<<1;
+    static final int PARAMETER_AT_LEAST_ONE = 1<<2;
+    static final int PARAMETER_DECLARED_ANYTHING = 1<<3;
+    static final int PARAMETER_HIDDEN = 1<<4;
+
+    /**
+     * The kind of the given declaration, or 0 if
+     * declarations of its kind are not written to
+     * snapshots.
+     */
+    static byte kindOf(Declaration d) {
+        if (d instanceof ClassAlias) {
+            return CLASS_ALIAS;
+        }
+        else if (d instanceof Class) {
+            return CLASS;
+        }
+        else if (d instanceof InterfaceAlias) {
+            return INTERFACE_ALIAS;
+        }
+        else if (d instanceof Interface) {
+            return INTERFACE;
+        }
+        else if (d instanceof TypeAlias) {
+            return TYPE_ALIAS;
+        }
+        else if (d instanceof TypeParameter) {
+            return TYPE_PARAMETER;
+        }
+        else if (d instanceof Constructor) {
+            return CONSTRUCTOR;
+        }
+        else if (d instanceof Method) {
+            return METHOD;
+        }
+        else if (d instanceof Setter) {
+            return SETTER;
+        }
+        else if (d instanceof Value) {
+            return VALUE;
+        }
+        else {
+            return 0;
+        }
+    }
+
+    static boolean is(int flags, int flag) {
+        return (flags & flag)!=0;
+    }
+
+    static int flag(boolean value, int flag) {
+        return value ? flag : 0;
+    }
+
+}
@@ -0,0 +1,755 @@
+package com.redhat.ceylon.compiler.typechecker.snapshot;
+
+import static com.redhat.ceylon.compiler.typechecker.model.Util.getTypeArgumentMap;
+import static com.redhat.ceylon.compiler.typechecker.snapshot.ModelSnapshotFormat.*;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.redhat.ceylon.compiler.typechecker.TypeChecker;
+import com.redhat.ceylon.compiler.typechecker.model.Annotation;
+import com.redhat.ceylon.compiler.typechecker.model.Class;
+import com.redhat.ceylon.compiler.typechecker.model.ClassAlias;
+import com.redhat.ceylon.compiler.typechecker.model.Constructor;
+import com.redhat.ceylon.compiler.typechecker.model.Declaration;
+import com.redhat.ceylon.compiler.typechecker.model.DeclarationCompleter;
+import com.redhat.ceylon.compiler.typechecker.model.Interface;
+import com.redhat.ceylon.compiler.typechecker.model.InterfaceAlias;
+import com.redhat.ceylon.compiler.typechecker.model.IntersectionType;
+import com.redhat.ceylon.compiler.typechecker.model.LazyProducedType;
+import com.redhat.ceylon.compiler.typechecker.model.Method;
+import com.redhat.ceylon.compiler.typechecker.model.MethodOrValue;
+import com.redhat.ceylon.compiler.typechecker.model.Module;
+import com.redhat.ceylon.compiler.typechecker.model.ModuleImport;
+import com.redhat.ceylon.compiler.typechecker.model.Modules;
+import com.redhat.ceylon.compiler.typechecker.model.NothingType;
+import com.redhat.ceylon.compiler.typechecker.model.Package;
+import com.redhat.ceylon.compiler.typechecker.model.Parameter;
+import com.redhat.ceylon.compiler.typechecker.model.ParameterList;
+import com.redhat.ceylon.compiler.typechecker.model.ProducedType;
+import com.redhat.ceylon.compiler.typechecker.model.Scope;
+import com.redhat.ceylon.compiler.typechecker.model.Setter;
+import com.redhat.ceylon.compiler.typechecker.model.SiteVariance;
+import com.redhat.ceylon.compiler.typechecker.model.TypeAlias;
+import com.redhat.ceylon.compiler.typechecker.model.TypeDeclaration;
+import com.redhat.ceylon.compiler.typechecker.model.TypeParameter;
+import com.redhat.ceylon.compiler.typechecker.model.TypedDeclaration;
+import com.redhat.ceylon.compiler.typechecker.model.UnionType;
+import com.redhat.ceylon.compiler.typechecker.model.Unit;
+import com.redhat.ceylon.compiler.typechecker.model.UnknownType;
+import com.redhat.ceylon.compiler.typechecker.model.Value;
+
+/**
+ * Loads the model of a module from a snapshot written
+ * by a {@link ModelSnapshotWriter}.
+ *
+ * Declarations are created eagerly, but every type is a
+ * {@link LazyProducedType} that only resolves the
+ * declaration it refers to when it is first used, so
+ * that a snapshot may refer to declarations of modules
+ * which have not been loaded yet. For the same reason,
+ * the refinement of a declaration that refines a
+ * declaration of another module is resolved by a
+ * {@link DeclarationCompleter}.
+ *
+ * @see ModelSnapshotFormat
+ */
+public class ModelSnapshotReader {
+
+    private final Modules modules;
+    private DataInputStream in;
+    private String[] strings;
+    private Declaration[] declarations;
+    private Unit[] units;
+    private byte[] sourceDigest;
+
+    public ModelSnapshotReader(Modules modules) {
+        this.modules = modules;
+    }
+
+    /**
+     * Sets the digest of the current source artifact of
+     * the module, so that a snapshot written from another
+     * build of the artifact is rejected. If it is not set,
+     * the snapshot is not checked against any artifact.
+     *
+     * @see ModelSnapshotStore#digest(java.io.File)
+     */
+    public void setSourceDigest(byte[] sourceDigest) {
+        this.sourceDigest = sourceDigest;
+    }
+
+    /**
+     * Populate the given module, which must not have been
+     * loaded from source, with the packages, units, and
+     * declarations of the snapshot. The module is not
+     * marked available, that is up to the caller.
+     *
+     * @throws IOException if the snapshot is unreadable,
+     *         was written by another version of the type
+     *         checker, is for a different module, or
+     *         was written from a different build of
+     *         the source artifact
+     */
+    public void read(InputStream is, Module module) throws IOException {
+        in = new DataInputStream(is);
+        try {
+            readHeader(module);
+            readImports(module);
+            List<Declaration> shells = new ArrayList<Declaration>();
+            List<Unit> shellUnits = new ArrayList<Unit>();
+            readPackages(module, shells, shellUnits);
+            declarations = shells.toArray(new Declaration[shells.size()]);
+            units = shellUnits.toArray(new Unit[shellUnits.size()]);
+            for (int i=0; i<declarations.length; i++) {
+                readDeclaration(declarations[i], units[i]);
+            }
+        }
+        finally {
+            in = null;
+            strings = null;
+            units = null;
+        }
+    }
+
+    private void readHeader(Module module) throws IOException {
+        if (in.readInt()!=MAGIC) {
+            throw new IOException("not a model snapshot");
+        }
+        int formatVersion = in.readInt();
+        if (formatVersion!=FORMAT_VERSION) {
+            throw new IOException("unsupported model snapshot format version: " +
+                    formatVersion);
+        }
+        String checkerVersion = in.readUTF();
+        if (!checkerVersion.equals(TypeChecker.LANGUAGE_MODULE_VERSION)) {
+            throw new IOException("model snapshot was written by type checker version " +
+                    checkerVersion);
+        }
+        String moduleName = in.readUTF();
+        String moduleVersion = in.readUTF();
+        if (!moduleName.equals(module.getNameAsString()) ||
+                module.getVersion()!=null &&
+                !moduleVersion.equals(module.getVersion())) {
+            throw new IOException("model snapshot is for module " +
+                    moduleName + "/" + moduleVersion);
+        }
+        byte[] digest = new byte[in.readInt()];
+        in.readFully(digest);
+        if (sourceDigest!=null && 
+                !Arrays.equals(digest, sourceDigest)) {
+            throw new IOException("model snapshot is stale: the source artifact of " +
+                    moduleName + "/" + moduleVersion + " has changed");
+        }
+        int count = in.readInt();
+        strings = new String[count];
+        for (int i=0; i<count; i++) {
+            strings[i] = in.readUTF();
+        }
+    }
+
+    private void readImports(Module module) throws IOException {
+        int count = in.readInt();
+        for (int i=0; i<count; i++) {
+            String name = readString();
+            String version = readString();
+            boolean optional = in.readBoolean();
+            boolean export = in.readBoolean();
+            Module dependency = getOrCreateModule(name, version);
+            module.addImport(new ModuleImport(dependency, optional, export));
+        }
+    }
+
+    private void readPackages(Module module,
+            List<Declaration> shells, List<Unit> shellUnits)
+                    throws IOException {
+        int packageCount = in.readInt();
+        for (int i=0; i<packageCount; i++) {
+            String name = readString();
+            Package pkg = module.getDirectPackage(name);
+            if (pkg==null) {
+                pkg = createPackage(name, module);
+            }
+            pkg.setShared(in.readBoolean());
+            int unitCount = in.readInt();
+            for (int j=0; j<unitCount; j++) {
+                Unit unit = createUnit();
+                unit.setFilename(readString());
+                unit.setRelativePath(readString());
+                unit.setFullPath(readString());
+                unit.setPackage(pkg);
+                pkg.addUnit(unit);
+                int shellCount = in.readInt();
+                for (int k=0; k<shellCount; k++) {
+                    byte kind = in.readByte();
+                    Declaration d = createDeclaration(kind);
+                    d.setName(readString());
+                    int containerId = in.readInt();
+                    Scope container = containerId==NO_ID ?
+                            pkg : (Scope) shells.get(containerId);
+                    d.setUnit(unit);
+                    d.setContainer(container);
+                    d.setScope(container);
+                    unit.addDeclaration(d);
+                    container.addMember(d);
+                    shells.add(d);
+                    shellUnits.add(unit);
+                }
+            }
+        }
+    }
+
+    private static Declaration createDeclaration(byte kind)
+            throws IOException {
+        switch (kind) {
+        case CLASS: return new Class();
+        case CLASS_ALIAS: return new ClassAlias();
+        case INTERFACE: return new Interface();
+        case INTERFACE_ALIAS: return new InterfaceAlias();
+        case TYPE_ALIAS: return new TypeAlias();
+        case TYPE_PARAMETER: return new TypeParameter();
+        case CONSTRUCTOR: return new Constructor();
+        case METHOD: return new Method();
+        case VALUE: return new Value();
+        case SETTER: return new Setter();
+        default:
+            throw new IOException("unknown declaration kind: " + kind);
+        }
+    }
+
+    /**
+     * Creates a package of the given module, and adds it
+     * to the module.
+     */
+    protected Package createPackage(String name, Module module) {
+        Package pkg = new Package();
+        pkg.setName(name.isEmpty() ?
+                Arrays.asList("") :
+                Arrays.asList(name.split("[\\.]")));
+        pkg.setModule(module);
+        module.getPackages().add(pkg);
+        return pkg;
+    }
+
+    protected Unit createUnit() {
+        return new Unit();
+    }
+
+    /**
+     * Get or create the module with the given name and
+     * version, for an import of the loaded module.
+     */
+    protected Module getOrCreateModule(String name, String version) {
+        Module m = findModule(name, version);
+        if (m==null) {
+            synchronized (modules) {
+                m = findModule(name, version);
+                if (m==null) {
+                    m = new Module();
+                    m.setName(Arrays.asList(name.split("[\\.]")));
+                    m.setVersion(version);
+                    m.setLanguageModule(modules.getLanguageModule());
+                    modules.getListOfModules().add(m);
+                }
+            }
+        }
+        return m;
+    }
+
+    private Module findModule(String name, String version) {
+        for (Module m: modules.getModules(name)) {
+            if (version==null || m.getVersion()==null ||
+                    version.equals(m.getVersion())) {
+                return m;
+            }
+        }
+        return null;
+    }
+
+    private void readDeclaration(Declaration d, Unit unit)
+            throws IOException {
+        int flags = in.readInt();
+        d.setShared(is(flags, SHARED));
+        d.setFormal(is(flags, FORMAL));
+        d.setDefault(is(flags, DEFAULT));
+        d.setDeprecated(is(flags, DEPRECATED));
+        d.setAnnotation(is(flags, ANNOTATION));
+        d.setNative(is(flags, NATIVE));
+        d.setStaticallyImportable(is(flags, STATICALLY_IMPORTABLE));
+        d.setProtectedVisibility(is(flags, PROTECTED_VISIBILITY));
+        d.setPackageVisibility(is(flags, PACKAGE_VISIBILITY));
+        d.setOtherInstanceAccess(is(flags, OTHER_INSTANCE_ACCESS));
+        readAnnotations(d.getAnnotations());
+        d.setVisibleScope(readScopeReference(d));
+        readRefinement(d, is(flags, ACTUAL));
+
+        if (d instanceof TypeDeclaration) {
+            TypeDeclaration td = (TypeDeclaration) d;
+            td.setSealed(is(flags, SEALED));
+            td.setDynamic(is(flags, DYNAMIC));
+            td.setInconsistentType(is(flags, INCONSISTENT_TYPE));
+            td.setExtendedType(readType(unit));
+            td.setSatisfiedTypes(readTypes(unit));
+            int caseTypes = in.readInt();
+            td.setCaseTypes(caseTypes<0 ? null : readTypes(caseTypes, unit));
+            td.setTypeParameters(readTypeParameters());
+            td.setSelfType(readType(unit));
+        }
+        else if (d instanceof TypedDeclaration) {
+            TypedDeclaration td = (TypedDeclaration) d;
+            td.setUncheckedNullType(is(flags, UNCHECKED_NULL_TYPE));
+            td.setDynamicallyTyped(is(flags, DYNAMICALLY_TYPED));
+            if (d instanceof MethodOrValue) {
+                ((MethodOrValue) d).setShortcutRefinement(is(flags, SHORTCUT_REFINEMENT));
+            }
+            td.setType(readType(unit));
+        }
+
+        if (d instanceof Class) {
+            Class c = (Class) d;
+            int classFlags = in.readInt();
+            c.setAbstract(is(classFlags, ABSTRACT));
+            c.setAnonymous(is(classFlags, ANONYMOUS));
+            c.setNamed(is(classFlags, NAMED));
+            c.setFinal(is(classFlags, FINAL));
+            c.setSerializable(is(classFlags, SERIALIZABLE));
+            c.setConstructors(is(classFlags, CONSTRUCTORS));
+            c.setOverloaded(is(classFlags, OVERLOADED));
+            c.setAbstraction(is(classFlags, ABSTRACTION));
+            if (in.readBoolean()) {
+                c.setParameterList(readParameterList(c));
+            }
+            if (c instanceof ClassAlias) {
+                Declaration constructor = readReference(false);
+                if (constructor instanceof TypeDeclaration) {
+                    ((ClassAlias) c).setConstructor((TypeDeclaration) constructor);
+                }
+            }
+        }
+        else if (d instanceof TypeParameter) {
+            TypeParameter tp = (TypeParameter) d;
+            int tpFlags = in.readInt();
+            tp.setCovariant(is(tpFlags, COVARIANT));
+            tp.setContravariant(is(tpFlags, CONTRAVARIANT));
+            tp.setDefaulted(is(tpFlags, DEFAULTED));
+            tp.setConstrained(is(tpFlags, CONSTRAINED));
+            tp.setDeclaration(readReference(false));
+            tp.setDefaultTypeArgument(readType(unit));
+            Declaration selfTyped = readReference(true);
+            if (selfTyped instanceof TypeDeclaration) {
+                tp.setSelfTypedDeclaration((TypeDeclaration) selfTyped);
+            }
+            if (in.readBoolean()) {
+                tp.setParameterList(readParameterList(tp));
+            }
+        }
+        else if (d instanceof Constructor) {
+            Constructor c = (Constructor) d;
+            int constructorFlags = in.readInt();
+            c.setOverloaded(is(constructorFlags, OVERLOADED));
+            c.setAbstraction(is(constructorFlags, ABSTRACTION));
+            int count = in.readInt();
+            for (int i=0; i<count; i++) {
+                c.addParameterList(readParameterList(c));
+            }
+        }
+        else if (d instanceof Method) {
+            Method m = (Method) d;
+            int methodFlags = in.readInt();
+            m.setDeclaredVoid(is(methodFlags, DECLARED_VOID));
+            m.setDeferred(is(methodFlags, DEFERRED));
+            m.setOverloaded(is(methodFlags, OVERLOADED));
+            m.setAbstraction(is(methodFlags, ABSTRACTION));
+            m.setAnonymous(is(methodFlags, ANONYMOUS));
+            m.setTypeParameters(readTypeParameters());
+            int count = in.readInt();
+            for (int i=0; i<count; i++) {
+                m.addParameterList(readParameterList(m));
+            }
+        }
+        else if (d instanceof Value) {
+            Value v = (Value) d;
+            int valueFlags = in.readInt();
+            v.setVariable(is(valueFlags, VARIABLE));
+            v.setTransient(is(valueFlags, TRANSIENT));
+            v.setLate(is(valueFlags, LATE));
+            v.setEnumValue(is(valueFlags, ENUM_VALUE));
+            Declaration setter = readReference(false);
+            if (setter instanceof Setter) {
+                v.setSetter((Setter) setter);
+            }
+        }
+        else if (d instanceof Setter) {
+            Setter s = (Setter) d;
+            Declaration getter = readReference(false);
+            if (getter instanceof Value) {
+                s.setGetter((Value) getter);
+            }
+            if (in.readBoolean()) {
+                s.setParameter(readParameter(s));
+            }
+        }
+    }
+
+    private void readRefinement(final Declaration d, final boolean actual)
+            throws IOException {
+        byte tag = in.readByte();
+        if (tag==REF_EXTERNAL) {
+            final ExternalReference ref = readExternalReference();
+            //the refined declaration belongs to another
+            //module which might not have been loaded yet
+            d.setActualCompleter(new DeclarationCompleter() {
+                @Override
+                public void completeActual(Declaration decl) {
+                    decl.setActual(actual);
+                    Declaration refined = resolve(ref, false);
+                    decl.setRefinedDeclaration(refined==null ? decl : refined);
+                }
+            });
+        }
+        else {
+            d.setActual(actual);
+            Declaration refined = readReference(tag, false);
+            d.setRefinedDeclaration(refined==null ? d : refined);
+        }
+    }
+
+    private void readAnnotations(List<Annotation> annotations)
+            throws IOException {
+        int count = in.readInt();
+        for (int i=0; i<count; i++) {
+            Annotation a = new Annotation(readString());
+            int positional = in.readInt();
+            for (int j=0; j<positional; j++) {
+                a.addPositionalArgment(readString());
+            }
+            int named = in.readInt();
+            for (int j=0; j<named; j++) {
+                a.addNamedArgument(readString(), readString());
+            }
+            if (annotations!=Collections.<Annotation>emptyList()) {
+                annotations.add(a);
+            }
+        }
+    }
+
+    private List<TypeParameter> readTypeParameters() throws IOException {
+        int count = in.readInt();
+        if (count==0) {
+            return Collections.emptyList();
+        }
+        List<TypeParameter> typeParameters =
+                new ArrayList<TypeParameter>(count);
+        for (int i=0; i<count; i++) {
+            Declaration tp = readReference(false);
+            if (tp instanceof TypeParameter) {
+                typeParameters.add((TypeParameter) tp);
+            }
+        }
+        return typeParameters;
+    }
+
+    private ParameterList readParameterList(Declaration owner)
+            throws IOException {
+        ParameterList pl = new ParameterList();
+        pl.setFirst(in.readBoolean());
+        pl.setNamedParametersSupported(in.readBoolean());
+        int count = in.readInt();
+        for (int i=0; i<count; i++) {
+            pl.getParameters().add(readParameter(owner));
+        }
+        return pl;
+    }
+
+    private Parameter readParameter(Declaration owner) throws IOException {
+        Parameter p = new Parameter();
+        p.setName(readString());
+        int flags = in.readInt();
+        p.setDefaulted(is(flags, PARAMETER_DEFAULTED));
+        p.setSequenced(is(flags, PARAMETER_SEQUENCED));
+        p.setAtLeastOne(is(flags, PARAMETER_AT_LEAST_ONE));
+        p.setDeclaredAnything(is(flags, PARAMETER_DECLARED_ANYTHING));
+        p.setHidden(is(flags, PARAMETER_HIDDEN));
+        p.setDeclaration(owner);
+        Declaration model = readReference(false);
+        if (model instanceof MethodOrValue) {
+            MethodOrValue mov = (MethodOrValue) model;
+            p.setModel(mov);
+            mov.setInitializerParameter(p);
+        }
+        return p;
+    }
+
+    private List<ProducedType> readTypes(Unit unit) throws IOException {
+        return readTypes(in.readInt(), unit);
+    }
+
+    private List<ProducedType> readTypes(int count, Unit unit)
+            throws IOException {
+        List<ProducedType> types = new ArrayList<ProducedType>(count);
+        for (int i=0; i<count; i++) {
+            types.add(readType(unit));
+        }
+        return types;
+    }
+
+    private ProducedType readType(Unit unit) throws IOException {
+        byte tag = in.readByte();
+        switch (tag) {
+        case TYPE_NULL:
+            return null;
+        case TYPE_UNION:
+            UnionType ut = new UnionType(unit);
+            ut.setCaseTypes(readTypes(unit));
+            return ut.getType();
+        case TYPE_INTERSECTION:
+            IntersectionType it = new IntersectionType(unit);
+            it.setSatisfiedTypes(readTypes(unit));
+            return it.getType();
+        case TYPE_NOTHING:
+            return new NothingType(unit).getType();
+        case TYPE_UNKNOWN:
+            return new UnknownType(unit).getType();
+        case TYPE_DECLARATION:
+            byte refTag = in.readByte();
+            Object ref;
+            if (refTag==REF_INTERNAL) {
+                ref = in.readInt();
+            }
+            else if (refTag==REF_EXTERNAL) {
+                ref = readExternalReference();
+            }
+            else {
+                throw new IOException("bad type declaration reference: " + refTag);
+            }
+            ProducedType qualifyingType = readType(unit);
+            int count = in.readInt();
+            List<ProducedType> args = new ArrayList<ProducedType>(count);
+            byte[] variances = new byte[count];
+            for (int i=0; i<count; i++) {
+                args.add(readType(unit));
+                variances[i] = in.readByte();
+            }
+            return new SnapshotType(unit, ref, qualifyingType, args, variances);
+        default:
+            throw new IOException("unknown type tag: " + tag);
+        }
+    }
+
+    /**
+     * A type whose declaration, which may belong to a
+     * module that is not loaded yet, is resolved the
+     * first time the type is used.
+     */
+    private final class SnapshotType extends LazyProducedType {
+        private final Object reference;
+        private final ProducedType qualifyingType;
+        private final List<ProducedType> typeArguments;
+        private final byte[] variances;
+
+        SnapshotType(Unit unit, Object reference,
+                ProducedType qualifyingType,
+                List<ProducedType> typeArguments,
+                byte[] variances) {
+            super(unit);
+            this.reference = reference;
+            this.qualifyingType = qualifyingType;
+            this.typeArguments = typeArguments;
+            this.variances = variances;
+        }
+
+        @Override
+        public TypeDeclaration initDeclaration() {
+            Declaration d = reference instanceof Integer ?
+                    declarations[(Integer) reference] :
+                    resolve((ExternalReference) reference, true);
+            return d instanceof TypeDeclaration ?
+                    (TypeDeclaration) d : null;
+        }
+
+        @Override
+        public ProducedType initQualifyingType() {
+            return qualifyingType;
+        }
+
+        @Override
+        public Map<TypeParameter, ProducedType> initTypeArguments() {
+            return getTypeArgumentMap(getDeclaration(),
+                    qualifyingType, typeArguments);
+        }
+
+        @Override
+        public Map<TypeParameter, SiteVariance> initVarianceOverrides() {
+            Map<TypeParameter, SiteVariance> result = null;
+            List<TypeParameter> typeParameters =
+                    getDeclaration().getTypeParameters();
+            for (int i=0;
+                    i<variances.length && i<typeParameters.size();
+                    i++) {
+                if (variances[i]!=VARIANCE_NONE) {
+                    if (result==null) {
+                        result = new HashMap<TypeParameter, SiteVariance>();
+                    }
+                    result.put(typeParameters.get(i),
+                            variances[i]==VARIANCE_IN ?
+                                    SiteVariance.IN : SiteVariance.OUT);
+                }
+            }
+            return result==null ?
+                    Collections.<TypeParameter, SiteVariance>emptyMap() :
+                    result;
+        }
+    }
+
+    private Scope readScopeReference(Declaration d) throws IOException {
+        byte tag = in.readByte();
+        if (tag==REF_PACKAGE) {
+            String name = readString();
+            Package pkg = d.getUnit().getPackage();
+            if (pkg.getNameAsString().equals(name)) {
+                return pkg;
+            }
+            Module module = pkg.getModule();
+            Package other = module.getDirectPackage(name);
+            return other;
+        }
+        Declaration scope = readReference(tag, false);
+        return scope instanceof Scope ? (Scope) scope : null;
+    }
+
+    private Declaration readReference(boolean type) throws IOException {
+        return readReference(in.readByte(), type);
+    }
+
+    private Declaration readReference(byte tag, boolean type)
+            throws IOException {
+        switch (tag) {
+        case REF_NULL:
+            return null;
+        case REF_INTERNAL:
+            return declarations[in.readInt()];
+        case REF_EXTERNAL:
+            return resolve(readExternalReference(), type);
+        default:
+            throw new IOException("bad declaration reference: " + tag);
+        }
+    }
+
+    private static final class ExternalReference {
+        final String module;
+        final String version;
+        final String pkg;
+        final String[] path;
+        final byte[] kinds;
+        ExternalReference(String module, String version, String pkg, 
+                String[] path, byte[] kinds) {
+            this.module = module;
+            this.version = version;
+            this.pkg = pkg;
+            this.path = path;
+            this.kinds = kinds;
+        }
+        @Override
+        public String toString() {
+            return module + "/" + version + "/" + pkg + "::" + 
+                    Arrays.toString(path);
+        }
+    }
+
+    private ExternalReference readExternalReference() throws IOException {
+        String module = readString();
+        String version = readString();
+        String pkg = readString();
+        String[] path = new String[in.readInt()];
+        byte[] kinds = new byte[path.length];
+        for (int i=0; i<path.length; i++) {
+            path[i] = readString();
+            kinds[i] = in.readByte();
+        }
+        return new ExternalReference(module, version, pkg, path, kinds);
+    }
+
+    /**
+     * Look up a declaration of another module by the
+     * version of the module, and the name and kind of the
+     * declaration, returning null if it cannot be found.
+     */
+    private Declaration resolve(ExternalReference ref, boolean type) {
+        Module module = findModule(ref.module, ref.version);
+        Package pkg = module==null ? null : 
+            module.getDirectPackage(ref.pkg);
+        if (pkg==null) {
+            return null;
+        }
+        Scope scope = pkg;
+        Declaration d = null;
+        for (int i=0; i<ref.path.length; i++) {
+            if (d!=null) {
+                if (!(d instanceof Scope)) {
+                    return null;
+                }
+                //members of an object are members of
+                //its anonymous class
+                scope = (Scope) anonymousClass(d);
+            }
+            d = getDirectMember(scope, ref.path[i], ref.kinds[i]);
+            if (d==null) {
+                return null;
+            }
+        }
+        return type ? anonymousClass(d) : d;
+    }
+
+    /**
+     * The member of the given scope with the given name
+     * and kind, distinguishing a setter from its getter,
+     * and an object from its anonymous class.
+     */
+    private static Declaration getDirectMember(Scope scope, 
+            String name, byte kind) {
+        Declaration d = scope.getDirectMember(name, null, false);
+        if (d==null || kind==0 || kindOf(d)==kind) {
+            return d;
+        }
+        if (kind==SETTER && d instanceof Value) {
+            Setter setter = ((Value) d).getSetter();
+            if (setter!=null) {
+                return setter;
+            }
+        }
+        Declaration anonymousClass = anonymousClass(d);
+        if (kindOf(anonymousClass)==kind) {
+            return anonymousClass;
+        }
+        for (Declaration member: scope.getMembers()) {
+            if (name.equals(member.getName()) &&
+                    kindOf(member)==kind) {
+                return member;
+            }
+        }
+        return null;
+    }
+
+    private static Declaration anonymousClass(Declaration d) {
+        if (d instanceof Value) {
+            TypeDeclaration td = ((Value) d).getTypeDeclaration();
+            if (td instanceof Class && td.isAnonymous()) {
+                return td;
+            }
+        }
+        return d;
+    }
+
+    private String readString() throws IOException {
+        int index = in.readInt();
+        return index<0 ? null : strings[index];
+    }
+
+}
@@ -0,0 +1,139 @@
+package com.redhat.ceylon.compiler.typechecker.snapshot;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import com.redhat.ceylon.compiler.typechecker.model.Module;
+import com.redhat.ceylon.compiler.typechecker.model.Modules;
+
+/**
+ * A directory of module model snapshots, one file per
+ * module version, named {@code name-version.model}.
+ * A module may be rebuilt under the same version, so
+ * a snapshot records the {@link #digest(File) digest}
+ * of the source artifact it was read from.
+ *
+ * @see ModelSnapshotWriter
+ * @see ModelSnapshotReader
+ */
+public class ModelSnapshotStore {
+
+    public static final String EXTENSION = ".model";
+
+    private final File directory;
+
+    public ModelSnapshotStore(File directory) {
+        this.directory = directory;
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    public File getSnapshotFile(Module module) {
+        String version = module.getVersion();
+        String name = module.getNameAsString();
+        return new File(directory, version==null ?
+                name + EXTENSION :
+                name + "-" + version + EXTENSION);
+    }
+
+    /**
+     * The SHA-1 digest of the contents of the given source
+     * artifact.
+     */
+    public static byte[] digest(File artifact) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-1");
+        }
+        catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+        InputStream in = new FileInputStream(artifact);
+        try {
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer))>=0) {
+                digest.update(buffer, 0, read);
+            }
+        }
+        finally {
+            in.close();
+        }
+        return digest.digest();
+    }
+
+    public boolean hasSnapshot(Module module) {
+        return getSnapshotFile(module).isFile();
+    }
+
+    /**
+     * Populate the given module from its snapshot.
+     *
+     * @throws IOException if there is no usable snapshot
+     *         of the module
+     */
+    public void load(Module module, ModelSnapshotReader reader)
+            throws IOException {
+        InputStream in = new BufferedInputStream(
+                new FileInputStream(getSnapshotFile(module)));
+        try {
+            reader.read(in, module);
+        }
+        finally {
+            in.close();
+        }
+    }
+
+    public void load(Module module, Modules modules) throws IOException {
+        load(module, new ModelSnapshotReader(modules));
+    }
+
+    /**
+     * Write a snapshot of the given module. The snapshot
+     * is first written to a temporary file, so that a
+     * concurrent reader never sees a partial snapshot.
+     */
+    public void save(Module module, ModelSnapshotWriter writer)
+            throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("could not create directory " + directory);
+        }
+        File file = getSnapshotFile(module);
+        File tmp = File.createTempFile(file.getName(), ".tmp", directory);
+        try {
+            OutputStream out = new BufferedOutputStream(
+                    new FileOutputStream(tmp));
+            try {
+                writer.write(module, out);
+            }
+            finally {
+                out.close();
+            }
+            if (!tmp.renameTo(file)) {
+                //renameTo() does not replace on some platforms
+                file.delete();
+                if (!tmp.renameTo(file)) {
+                    throw new IOException("could not write " + file);
+                }
+            }
+        }
+        finally {
+            tmp.delete();
+        }
+    }
+
+    public void save(Module module) throws IOException {
+        save(module, new ModelSnapshotWriter());
+    }
+
+}
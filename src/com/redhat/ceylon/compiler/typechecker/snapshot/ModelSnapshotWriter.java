@@ -0,0 +1,556 @@
+package com.redhat.ceylon.compiler.typechecker.snapshot;
+
+import static com.redhat.ceylon.compiler.typechecker.snapshot.ModelSnapshotFormat.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import com.redhat.ceylon.compiler.typechecker.TypeChecker;
+import com.redhat.ceylon.compiler.typechecker.model.Annotation;
+import com.redhat.ceylon.compiler.typechecker.model.Class;
+import com.redhat.ceylon.compiler.typechecker.model.ClassAlias;
+import com.redhat.ceylon.compiler.typechecker.model.ClassOrInterface;
+import com.redhat.ceylon.compiler.typechecker.model.Constructor;
+import com.redhat.ceylon.compiler.typechecker.model.Declaration;
+import com.redhat.ceylon.compiler.typechecker.model.IntersectionType;
+import com.redhat.ceylon.compiler.typechecker.model.Method;
+import com.redhat.ceylon.compiler.typechecker.model.MethodOrValue;
+import com.redhat.ceylon.compiler.typechecker.model.Module;
+import com.redhat.ceylon.compiler.typechecker.model.ModuleImport;
+import com.redhat.ceylon.compiler.typechecker.model.NothingType;
+import com.redhat.ceylon.compiler.typechecker.model.Package;
+import com.redhat.ceylon.compiler.typechecker.model.Parameter;
+import com.redhat.ceylon.compiler.typechecker.model.ParameterList;
+import com.redhat.ceylon.compiler.typechecker.model.ProducedType;
+import com.redhat.ceylon.compiler.typechecker.model.Scope;
+import com.redhat.ceylon.compiler.typechecker.model.Setter;
+import com.redhat.ceylon.compiler.typechecker.model.SiteVariance;
+import com.redhat.ceylon.compiler.typechecker.model.TypeAlias;
+import com.redhat.ceylon.compiler.typechecker.model.TypeDeclaration;
+import com.redhat.ceylon.compiler.typechecker.model.TypeParameter;
+import com.redhat.ceylon.compiler.typechecker.model.TypedDeclaration;
+import com.redhat.ceylon.compiler.typechecker.model.UnionType;
+import com.redhat.ceylon.compiler.typechecker.model.Unit;
+import com.redhat.ceylon.compiler.typechecker.model.UnknownType;
+import com.redhat.ceylon.compiler.typechecker.model.Value;
+
+/**
+ * Writes the fully scanned model of a module, that is,
+ * its packages, units, and the declarations that are
+ * visible outside the body of a function or value, to
+ * a binary snapshot that can be loaded by a
+ * {@link ModelSnapshotReader} instead of parsing and
+ * scanning the sources of the module again.
+ *
+ * The model must have been through the declaration,
+ * type declaration, and refinement phases.
+ *
+ * @see ModelSnapshotFormat
+ */
+public class ModelSnapshotWriter {
+
+    private final Map<String,Integer> strings =
+            new LinkedHashMap<String,Integer>();
+    private final Map<Declaration,Integer> ids =
+            new IdentityHashMap<Declaration,Integer>();
+    private final List<Declaration> declarations =
+            new ArrayList<Declaration>();
+    private DataOutputStream out;
+    private byte[] sourceDigest;
+
+    /**
+     * Sets the digest of the source artifact the module
+     * was read from, which a {@link ModelSnapshotReader}
+     * checks before loading the snapshot.
+     *
+     * @see ModelSnapshotStore#digest(java.io.File)
+     */
+    public void setSourceDigest(byte[] sourceDigest) {
+        this.sourceDigest = sourceDigest;
+    }
+
+    public void write(Module module, OutputStream os)
+            throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        out = new DataOutputStream(body);
+        writeImports(module);
+        writePackages(module);
+        writeDetails();
+        out.flush();
+
+        DataOutputStream dos = new DataOutputStream(os);
+        dos.writeInt(MAGIC);
+        dos.writeInt(FORMAT_VERSION);
+        dos.writeUTF(TypeChecker.LANGUAGE_MODULE_VERSION);
+        dos.writeUTF(module.getNameAsString());
+        dos.writeUTF(module.getVersion()==null ? "" : module.getVersion());
+        if (sourceDigest==null) {
+            dos.writeInt(0);
+        }
+        else {
+            dos.writeInt(sourceDigest.length);
+            dos.write(sourceDigest);
+        }
+        dos.writeInt(strings.size());
+        for (String string: strings.keySet()) {
+            dos.writeUTF(string);
+        }
+        body.writeTo(dos);
+        dos.flush();
+    }
+
+    /**
+     * Writes the given toplevel declaration, along with
+     * its members, but without the header, imports, and
+     * packages of a module snapshot. Two declarations 
+     * which are written as the same bytes are 
+     * indistinguishable outside their bodies.
+     */
+    public void write(Declaration declaration, OutputStream os)
+            throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        out = new DataOutputStream(body);
+        List<Declaration> shells = new ArrayList<Declaration>();
+        if (isWritable(declaration) &&
+                includeDeclaration(declaration)) {
+            collectShells(declaration, shells);
+        }
+        out.writeInt(shells.size());
+        for (Declaration d: shells) {
+            out.writeByte(kindOf(d));
+            writeString(d.getName());
+            out.writeInt(d==declaration ?
+                    NO_ID : ids.get(d.getContainer()));
+        }
+        writeDetails();
+        out.flush();
+
+        DataOutputStream dos = new DataOutputStream(os);
+        dos.writeInt(strings.size());
+        for (String string: strings.keySet()) {
+            dos.writeUTF(string);
+        }
+        body.writeTo(dos);
+        dos.flush();
+    }
+
+    /**
+     * Determines if the given package should be written
+     * to the snapshot.
+     */
+    protected boolean includePackage(Package pkg) {
+        return true;
+    }
+
+    /**
+     * Determines if the given toplevel or member
+     * declaration should be written to the snapshot.
+     * Type parameters and parameters are always written
+     * along with their declaration.
+     */
+    protected boolean includeDeclaration(Declaration dec) {
+        return true;
+    }
+
+    private void writeImports(Module module) throws IOException {
+        List<ModuleImport> imports = module.getImports();
+        out.writeInt(imports.size());
+        for (ModuleImport mi: imports) {
+            Module dep = mi.getModule();
+            writeString(dep.getNameAsString());
+            writeString(dep.getVersion());
+            out.writeBoolean(mi.isOptional());
+            out.writeBoolean(mi.isExport());
+        }
+    }
+
+    private void writePackages(Module module) throws IOException {
+        List<Package> packages = new ArrayList<Package>();
+        for (Package pkg: module.getPackages()) {
+            if (includePackage(pkg)) {
+                packages.add(pkg);
+            }
+        }
+        out.writeInt(packages.size());
+        for (Package pkg: packages) {
+            writeString(pkg.getNameAsString());
+            out.writeBoolean(pkg.isShared());
+            List<Unit> units = new ArrayList<Unit>();
+            for (Unit unit: pkg.getUnits()) {
+                units.add(unit);
+            }
+            out.writeInt(units.size());
+            for (Unit unit: units) {
+                writeString(unit.getFilename());
+                writeString(unit.getRelativePath());
+                writeString(unit.getFullPath());
+                List<Declaration> shells = new ArrayList<Declaration>();
+                for (Declaration d: unit.getDeclarations()) {
+                    if (d.getContainer() instanceof Package &&
+                            isWritable(d) &&
+                            includeDeclaration(d)) {
+                        collectShells(d, shells);
+                    }
+                }
+                out.writeInt(shells.size());
+                for (Declaration d: shells) {
+                    out.writeByte(kindOf(d));
+                    writeString(d.getName());
+                    Scope container = d.getContainer();
+                    out.writeInt(container instanceof Package ?
+                            NO_ID : ids.get(container));
+                }
+            }
+        }
+    }
+
+    private static boolean isWritable(Declaration d) {
+        return d.getName()!=null && kindOf(d)!=0;
+    }
+
+    /**
+     * Number the given declaration and then its members,
+     * ignoring local declarations, which are never
+     * visible outside the body that contains them.
+     */
+    private void collectShells(Declaration d, List<Declaration> shells) {
+        ids.put(d, declarations.size());
+        declarations.add(d);
+        shells.add(d);
+        boolean body = d instanceof ClassOrInterface ||
+                d instanceof TypeAlias;
+        for (Declaration member: d.getMembers()) {
+            if (member.getContainer()==d &&
+                    !ids.containsKey(member) &&
+                    isWritable(member)) {
+                if (member instanceof TypeParameter ||
+                        member instanceof MethodOrValue &&
+                        ((MethodOrValue) member).isParameter() ||
+                        body && includeDeclaration(member)) {
+                    collectShells(member, shells);
+                }
+            }
+        }
+    }
+
+    private void writeDetails() throws IOException {
+        for (Declaration d: declarations) {
+            writeDeclaration(d);
+        }
+    }
+
+    private void writeDeclaration(Declaration d) throws IOException {
+        int flags = flag(d.isShared(), SHARED) |
+                flag(d.isFormal(), FORMAL) |
+                flag(d.isActual(), ACTUAL) |
+                flag(d.isDefault(), DEFAULT) |
+                flag(d.isDeprecated(), DEPRECATED) |
+                flag(d.isAnnotation(), ANNOTATION) |
+                flag(d.isNative(), NATIVE) |
+                flag(d.isStaticallyImportable(), STATICALLY_IMPORTABLE) |
+                flag(d.isProtectedVisibility(), PROTECTED_VISIBILITY) |
+                flag(d.isPackageVisibility(), PACKAGE_VISIBILITY) |
+                flag(d.getOtherInstanceAccess(), OTHER_INSTANCE_ACCESS);
+        if (d instanceof TypeDeclaration) {
+            TypeDeclaration td = (TypeDeclaration) d;
+            flags |= flag(td.isSealed(), SEALED) |
+                    flag(td.isDynamic(), DYNAMIC) |
+                    flag(td.isInconsistentType(), INCONSISTENT_TYPE);
+        }
+        else if (d instanceof TypedDeclaration) {
+            TypedDeclaration td = (TypedDeclaration) d;
+            flags |= flag(td.hasUncheckedNullType(), UNCHECKED_NULL_TYPE) |
+                    flag(td.isDynamicallyTyped(), DYNAMICALLY_TYPED);
+            if (d instanceof MethodOrValue) {
+                flags |= flag(((MethodOrValue) d).isShortcutRefinement(),
+                        SHORTCUT_REFINEMENT);
+            }
+        }
+        out.writeInt(flags);
+        writeAnnotations(d.getAnnotations());
+        writeScopeReference(d.getVisibleScope());
+        writeReference(d.getRefinedDeclaration());
+
+        if (d instanceof TypeDeclaration) {
+            TypeDeclaration td = (TypeDeclaration) d;
+            writeType(td.getExtendedType());
+            writeTypes(td.getSatisfiedTypes());
+            List<ProducedType> caseTypes = td.getCaseTypes();
+            if (caseTypes==null) {
+                out.writeInt(-1);
+            }
+            else {
+                writeTypes(caseTypes);
+            }
+            writeReferences(td.getTypeParameters());
+            writeType(td.getSelfType());
+        }
+        else if (d instanceof TypedDeclaration) {
+            writeType(((TypedDeclaration) d).getType());
+        }
+
+        if (d instanceof Class) {
+            Class c = (Class) d;
+            out.writeInt(flag(c.isAbstract(), ABSTRACT) |
+                    flag(c.isAnonymous(), ANONYMOUS) |
+                    flag(c.isNamed(), NAMED) |
+                    flag(c.isFinal(), FINAL) |
+                    flag(c.isSerializable(), SERIALIZABLE) |
+                    flag(c.hasConstructors(), CONSTRUCTORS) |
+                    flag(c.isOverloaded(), OVERLOADED) |
+                    flag(c.isAbstraction(), ABSTRACTION));
+            ParameterList pl = c.getParameterList();
+            out.writeBoolean(pl!=null);
+            if (pl!=null) {
+                writeParameterList(pl);
+            }
+            if (c instanceof ClassAlias) {
+                writeReference(((ClassAlias) c).getConstructor());
+            }
+        }
+        else if (d instanceof TypeParameter) {
+            TypeParameter tp = (TypeParameter) d;
+            out.writeInt(flag(tp.isCovariant(), COVARIANT) |
+                    flag(tp.isContravariant(), CONTRAVARIANT) |
+                    flag(tp.isDefaulted(), DEFAULTED) |
+                    flag(tp.isConstrained(), CONSTRAINED));
+            writeReference(tp.getDeclaration());
+            writeType(tp.getDefaultTypeArgument());
+            writeReference(tp.getSelfTypedDeclaration());
+            ParameterList pl = tp.getParameterList();
+            out.writeBoolean(pl!=null);
+            if (pl!=null) {
+                writeParameterList(pl);
+            }
+        }
+        else if (d instanceof Constructor) {
+            Constructor c = (Constructor) d;
+            out.writeInt(flag(c.isOverloaded(), OVERLOADED) |
+                    flag(c.isAbstraction(), ABSTRACTION));
+            writeParameterLists(c.getParameterLists());
+        }
+        else if (d instanceof Method) {
+            Method m = (Method) d;
+            out.writeInt(flag(m.isDeclaredVoid(), DECLARED_VOID) |
+                    flag(m.isDeferred(), DEFERRED) |
+                    flag(m.isOverloaded(), OVERLOADED) |
+                    flag(m.isAbstraction(), ABSTRACTION) |
+                    flag(m.isAnonymous(), ANONYMOUS));
+            writeReferences(m.getTypeParameters());
+            writeParameterLists(m.getParameterLists());
+        }
+        else if (d instanceof Value) {
+            Value v = (Value) d;
+            out.writeInt(flag(v.isVariable(), VARIABLE) |
+                    flag(v.isTransient(), TRANSIENT) |
+                    flag(v.isLate(), LATE) |
+                    flag(v.isEnumValue(), ENUM_VALUE));
+            writeReference(v.getSetter());
+        }
+        else if (d instanceof Setter) {
+            Setter s = (Setter) d;
+            writeReference(s.getGetter());
+            Parameter p = s.getParameter();
+            out.writeBoolean(p!=null);
+            if (p!=null) {
+                writeParameter(p);
+            }
+        }
+    }
+
+    private void writeAnnotations(List<Annotation> annotations)
+            throws IOException {
+        out.writeInt(annotations.size());
+        for (Annotation a: annotations) {
+            writeString(a.getName());
+            List<String> positional = a.getPositionalArguments();
+            out.writeInt(positional.size());
+            for (String arg: positional) {
+                writeString(arg);
+            }
+            Map<String,String> named = a.getNamedArguments();
+            out.writeInt(named.size());
+            for (Map.Entry<String,String> arg: named.entrySet()) {
+                writeString(arg.getKey());
+                writeString(arg.getValue());
+            }
+        }
+    }
+
+    private void writeParameterLists(List<ParameterList> parameterLists)
+            throws IOException {
+        out.writeInt(parameterLists.size());
+        for (ParameterList pl: parameterLists) {
+            writeParameterList(pl);
+        }
+    }
+
+    private void writeParameterList(ParameterList pl)
+            throws IOException {
+        out.writeBoolean(pl.isFirst());
+        out.writeBoolean(pl.isNamedParametersSupported());
+        List<Parameter> parameters = pl.getParameters();
+        out.writeInt(parameters.size());
+        for (Parameter p: parameters) {
+            writeParameter(p);
+        }
+    }
+
+    private void writeParameter(Parameter p) throws IOException {
+        writeString(p.getName());
+        out.writeInt(flag(p.isDefaulted(), PARAMETER_DEFAULTED) |
+                flag(p.isSequenced(), PARAMETER_SEQUENCED) |
+                flag(p.isAtLeastOne(), PARAMETER_AT_LEAST_ONE) |
+                flag(p.isDeclaredAnything(), PARAMETER_DECLARED_ANYTHING) |
+                flag(p.isHidden(), PARAMETER_HIDDEN));
+        writeReference(p.getModel());
+    }
+
+    private void writeTypes(List<ProducedType> types) throws IOException {
+        out.writeInt(types.size());
+        for (ProducedType t: types) {
+            writeType(t);
+        }
+    }
+
+    private void writeType(ProducedType t) throws IOException {
+        if (t==null) {
+            out.writeByte(TYPE_NULL);
+            return;
+        }
+        TypeDeclaration td = t.getDeclaration();
+        if (td instanceof UnionType) {
+            out.writeByte(TYPE_UNION);
+            writeTypes(td.getCaseTypes());
+        }
+        else if (td instanceof IntersectionType) {
+            out.writeByte(TYPE_INTERSECTION);
+            writeTypes(td.getSatisfiedTypes());
+        }
+        else if (td instanceof NothingType) {
+            out.writeByte(TYPE_NOTHING);
+        }
+        else if (td instanceof UnknownType ||
+                !isReferenceable(td)) {
+            out.writeByte(TYPE_UNKNOWN);
+        }
+        else {
+            out.writeByte(TYPE_DECLARATION);
+            writeReference(td);
+            writeType(t.getQualifyingType());
+            List<TypeParameter> typeParameters = td.getTypeParameters();
+            Map<TypeParameter,ProducedType> args = t.getTypeArguments();
+            Map<TypeParameter,SiteVariance> variances =
+                    t.getVarianceOverrides();
+            out.writeInt(typeParameters.size());
+            for (TypeParameter tp: typeParameters) {
+                writeType(args.get(tp));
+                SiteVariance variance = variances.get(tp);
+                out.writeByte(variance==null ? VARIANCE_NONE :
+                        variance==SiteVariance.IN ?
+                                VARIANCE_IN : VARIANCE_OUT);
+            }
+        }
+    }
+
+    private void writeReferences(List<? extends Declaration> decs)
+            throws IOException {
+        out.writeInt(decs.size());
+        for (Declaration d: decs) {
+            writeReference(d);
+        }
+    }
+
+    private void writeScopeReference(Scope scope) throws IOException {
+        if (scope instanceof Package) {
+            out.writeByte(REF_PACKAGE);
+            writeString(((Package) scope).getNameAsString());
+        }
+        else if (scope instanceof Declaration) {
+            writeReference((Declaration) scope);
+        }
+        else {
+            out.writeByte(REF_NULL);
+        }
+    }
+
+    private boolean isReferenceable(Declaration d) {
+        return ids.containsKey(d) ||
+                externalPath(d)!=null;
+    }
+
+    private void writeReference(Declaration d) throws IOException {
+        Integer id = d==null ? null : ids.get(d);
+        if (id!=null) {
+            out.writeByte(REF_INTERNAL);
+            out.writeInt(id);
+            return;
+        }
+        List<Declaration> path = d==null ? null : externalPath(d);
+        if (path==null) {
+            out.writeByte(REF_NULL);
+        }
+        else {
+            Module module = d.getUnit().getPackage().getModule();
+            out.writeByte(REF_EXTERNAL);
+            writeString(module.getNameAsString());
+            writeString(module.getVersion());
+            writeString(d.getUnit().getPackage().getNameAsString());
+            out.writeInt(path.size());
+            for (Declaration dec: path) {
+                writeString(dec.getName());
+                out.writeByte(kindOf(dec));
+            }
+        }
+    }
+
+    /**
+     * The given declaration and its containing 
+     * declarations, starting from the toplevel 
+     * declaration, or null if the declaration is local.
+     */
+    private static List<Declaration> externalPath(Declaration d) {
+        LinkedList<Declaration> path = new LinkedList<Declaration>();
+        Declaration current = d;
+        while (true) {
+            if (current.getName()==null ||
+                    current.getUnit()==null) {
+                return null;
+            }
+            path.addFirst(current);
+            Scope container = current.getContainer();
+            if (container instanceof Package) {
+                return path;
+            }
+            else if (container instanceof Declaration) {
+                current = (Declaration) container;
+            }
+            else {
+                return null;
+            }
+        }
+    }
+
+    private void writeString(String string) throws IOException {
+        if (string==null) {
+            out.writeInt(-1);
+        }
+        else {
+            Integer index = strings.get(string);
+            if (index==null) {
+                index = strings.size();
+                strings.put(string, index);
+            }
+            out.writeInt(index);
+        }
+    }
+
+}
@@ -0,0 +1,14 @@
+package com.redhat.ceylon.compiler.typechecker.tree;
+
+/**
+ * A visitor which needs to know which nodes it is
+ * within. A {@link FusedVisitor} calls {@link #enter}
+ * for each node the visitor is dispatched, before it
+ * walks the children of the node, and so before it
+ * calls visit() for the node.
+ */
+public interface EnteringVisitor {
+
+    void enter(Node that);
+
+}
@@ -17,7 +17,7 @@ import com.redhat.ceylon.compiler.typechecker.parser.LexError;
 import com.redhat.ceylon.compiler.typechecker.parser.ParseError;
 import com.redhat.ceylon.compiler.typechecker.util.PrintVisitor;
 
-public abstract class Node {
+public abstract class Node implements Cloneable {
     
     private String text;
     private Token token;
@@ -231,6 +231,54 @@ public abstract class Node {
         addError(error);
     }
     
+    /**
+     * The text assigned to this node, if any, for
+     * {@link TreeSerializer}.
+     */
+    String getOwnText() {
+        return text;
+    }
+    
+    Token getOwnFirstChildToken() {
+        return firstChildToken;
+    }
+    
+    Token getOwnLastChildToken() {
+        return lastChildToken;
+    }
+    
+    /**
+     * Restore the text and tokens of a node read by
+     * {@link TreeSerializer}, after its children have
+     * been assigned.
+     */
+    void restore(String text, Token endToken, 
+            Token firstChildToken, Token lastChildToken) {
+        this.text = text;
+        this.endToken = endToken;
+        this.firstChildToken = firstChildToken;
+        this.lastChildToken = lastChildToken;
+    }
+    
+    /**
+     * A copy of this node, sharing its tokens, children
+     * and model, but not its list of errors.
+     * 
+     * @see TreeCopier
+     */
+    Node shallowCopy() {
+        try {
+            Node copy = (Node) clone();
+            if (errors!=null) {
+                copy.errors = new ArrayList<Message>(errors);
+            }
+            return copy;
+        }
+        catch (CloneNotSupportedException e) {
+            throw new InternalError(e.toString());
+        }
+    }
+    
     public abstract void visit(Visitor visitor);
     
     public abstract void visitChildren(Visitor visitor);
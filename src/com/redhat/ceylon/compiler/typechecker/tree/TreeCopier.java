@@ -0,0 +1,105 @@
+package com.redhat.ceylon.compiler.typechecker.tree;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Makes deep copies of trees, so that a tree which has
+ * never been analysed may serve as a template for any
+ * number of trees which are then analysed separately.
+ *
+ * A copy is an instance of the very same class as the
+ * original node, including the classes of
+ * {@link CustomTree}. Its children, and any lists of
+ * children, are copies, but its tokens, its text, and
+ * anything else it refers to, are shared with the
+ * original. So the original must not be modified once
+ * it has been copied, and the model of an analysed tree
+ * is shared by its copies.
+ */
+public final class TreeCopier {
+
+    private static final Map<Class<?>,Field[]> FIELDS =
+            new ConcurrentHashMap<Class<?>,Field[]>();
+
+    private final Map<Node,Node> copies =
+            new IdentityHashMap<Node,Node>();
+
+    private TreeCopier() {}
+
+    /**
+     * A deep copy of the given tree.
+     */
+    public static <N extends Node> N copy(N node) {
+        return new TreeCopier().copyNode(node);
+    }
+
+    @SuppressWarnings("unchecked")
+    private <N extends Node> N copyNode(N node) {
+        if (node==null) {
+            return null;
+        }
+        Node copy = copies.get(node);
+        if (copy==null) {
+            copy = node.shallowCopy();
+            //a node may occur more than once in the tree
+            copies.put(node, copy);
+            try {
+                for (Field field: getFields(node.getClass())) {
+                    Object value = field.get(node);
+                    if (value instanceof Node) {
+                        field.set(copy, copyNode((Node) value));
+                    }
+                    else if (value instanceof List) {
+                        field.set(copy, copyList((List<?>) value));
+                    }
+                }
+            }
+            catch (IllegalAccessException e) {
+                throw new RuntimeException(e);
+            }
+        }
+        return (N) copy;
+    }
+
+    private List<Object> copyList(List<?> list) {
+        List<Object> copy = new ArrayList<Object>(Math.max(3, list.size()));
+        for (Object element: list) {
+            copy.add(element instanceof Node ?
+                    copyNode((Node) element) : element);
+        }
+        return copy;
+    }
+
+    /**
+     * The fields of the given class of node, other than
+     * those of {@link Node} itself, which may hold a
+     * child node, or a list of them.
+     */
+    private static Field[] getFields(Class<?> type) {
+        Field[] fields = FIELDS.get(type);
+        if (fields==null) {
+            List<Field> list = new ArrayList<Field>();
+            for (Class<?> c = type; c!=Node.class; c = c.getSuperclass()) {
+                for (Field field: c.getDeclaredFields()) {
+                    Class<?> fieldType = field.getType();
+                    if (!Modifier.isStatic(field.getModifiers()) &&
+                            (Node.class.isAssignableFrom(fieldType) ||
+                            fieldType==List.class)) {
+                        field.setAccessible(true);
+                        list.add(field);
+                    }
+                }
+            }
+            fields = list.toArray(new Field[list.size()]);
+            FIELDS.put(type, fields);
+        }
+        return fields;
+    }
+
+}
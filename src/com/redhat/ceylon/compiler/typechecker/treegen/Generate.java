@@ -18,9 +18,11 @@ public class Generate {
         tree(file);
         //builder(file);
         walker(file);
+        fusedVisitor(file);
         visitor(file);
         visitorAdaptor(file);
         validator(file);
+        serializer(file);
     }
     
     private static void tree(File file) throws Exception {
@@ -59,6 +61,18 @@ public class Generate {
         parser.nodeList();
     }
     
+    private static void fusedVisitor(File file) throws Exception {
+        InputStream is = new FileInputStream( file );
+        ANTLRInputStream input = new ANTLRInputStream(is);
+        FusedVisitorgenLexer lexer = new FusedVisitorgenLexer(input);
+        CommonTokenStream tokens = new CommonTokenStream(lexer);
+        FusedVisitorgenParser parser = new FusedVisitorgenParser(tokens);
+        File out = new File( GENERATED_PACKAGE_DIR + "FusedVisitor.java" );
+        out.createNewFile();
+        Util.out=new PrintStream(out);
+        parser.nodeList();
+    }
+    
     private static void visitor(File file) throws Exception {
         InputStream is = new FileInputStream( file );
         ANTLRInputStream input = new ANTLRInputStream(is);
@@ -95,4 +109,16 @@ public class Generate {
         parser.nodeList();
     }
     
+    private static void serializer(File file) throws Exception {
+        InputStream is = new FileInputStream( file );
+        ANTLRInputStream input = new ANTLRInputStream(is);
+        SerializergenLexer lexer = new SerializergenLexer(input);
+        CommonTokenStream tokens = new CommonTokenStream(lexer);
+        SerializergenParser parser = new SerializergenParser(tokens);
+        File out = new File( GENERATED_PACKAGE_DIR + "TreeSerializer.java" );
+        out.createNewFile();
+        Util.out=new PrintStream(out);
+        parser.nodeList();
+    }
+    
 }
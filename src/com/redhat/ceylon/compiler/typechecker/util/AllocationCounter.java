@@ -0,0 +1,51 @@
+package com.redhat.ceylon.compiler.typechecker.util;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * The number of bytes allocated by the current thread, 
+ * on JVMs which count them. 
+ */
+public final class AllocationCounter {
+
+    private static final com.sun.management.ThreadMXBean threads;
+
+    static {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean &&
+                ((com.sun.management.ThreadMXBean) bean).isThreadAllocatedMemorySupported() &&
+                ((com.sun.management.ThreadMXBean) bean).isThreadAllocatedMemoryEnabled()) {
+            threads = (com.sun.management.ThreadMXBean) bean;
+        }
+        else {
+            threads = null;
+        }
+    }
+
+    private AllocationCounter() {}
+
+    public static boolean isSupported() {
+        return threads!=null;
+    }
+
+    /**
+     * The number of bytes allocated so far by the current
+     * thread, or -1 if they are not counted.
+     */
+    public static long getAllocatedBytes() {
+        return threads==null ? -1 : 
+            threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    /**
+     * The bytes allocated by the current thread since
+     * the given count was returned by 
+     * {@link #getAllocatedBytes()}, or -1 if they are
+     * not counted.
+     */
+    public static long getAllocatedBytesSince(long start) {
+        return start<0 ? -1 : getAllocatedBytes()-start;
+    }
+
+}
@@ -0,0 +1,66 @@
+package com.redhat.ceylon.compiler.typechecker.util;
+
+import com.redhat.ceylon.compiler.typechecker.context.PhasedUnit;
+
+/**
+ * Receives the time spent by the type checker in each
+ * phase, over all the units, and in each phase and each
+ * visitor of each unit, along with the number of bytes
+ * allocated, where the JVM counts allocations per 
+ * thread.
+ *
+ * The phases of different units may be run concurrently,
+ * so a listener must be thread safe. A phase of a unit 
+ * is only reported when it actually does some work, not
+ * when it was already complete.
+ *
+ * @see PhaseStatistics
+ * @see com.redhat.ceylon.compiler.typechecker.TypeCheckerBuilder#metricsListener(MetricsListener)
+ */
+public interface MetricsListener {
+
+    String VALIDATE_TREE = "validateTree";
+    String SCAN_DECLARATIONS = "scanDeclarations";
+    String SCAN_TYPE_DECLARATIONS = "scanTypeDeclarations";
+    String VALIDATE_REFINEMENT = "validateRefinement";
+    String ANALYSE_TYPES = "analyseTypes";
+    String ANALYSE_FLOW = "analyseFlow";
+    String ANALYSE_USAGE = "analyseUsage";
+
+    /**
+     * A visitor has walked the tree of a unit.
+     *
+     * @param unit the unit
+     * @param phase the phase which ran the visitor
+     * @param visitor the class of the visitor
+     * @param nanos the elapsed time
+     * @param allocatedBytes the bytes allocated by the
+     *        visitor, or -1 if they are not counted
+     */
+    void visitorCompleted(PhasedUnit unit, String phase, 
+            Class<?> visitor, long nanos, long allocatedBytes);
+
+    /**
+     * A phase is complete for a unit, including the time
+     * spent by its visitors.
+     *
+     * @param unit the unit
+     * @param phase the phase
+     * @param nanos the elapsed time
+     * @param allocatedBytes the bytes allocated by the
+     *        phase, or -1 if they are not counted
+     */
+    void unitPhaseCompleted(PhasedUnit unit, String phase, 
+            long nanos, long allocatedBytes);
+
+    /**
+     * A phase is complete for all the units checked by 
+     * a run of the type checker.
+     *
+     * @param phase the phase
+     * @param units the number of units
+     * @param nanos the elapsed wall clock time
+     */
+    void phaseCompleted(String phase, int units, long nanos);
+
+}
@@ -0,0 +1,178 @@
+package com.redhat.ceylon.compiler.typechecker.util;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.redhat.ceylon.compiler.typechecker.context.PhasedUnit;
+
+/**
+ * Accumulates the time spent, and the bytes allocated,
+ * by each phase, by each visitor of each phase, and by
+ * each unit, over any number of runs of the type checker,
+ * and reports them, along with the units which took the
+ * longest to check.
+ */
+public class PhaseStatistics implements MetricsListener {
+
+    /**
+     * The time spent, and the bytes allocated, by a
+     * phase, a visitor, or a unit.
+     */
+    public static class Totals {
+        private final String name;
+        private long nanos;
+        private long allocatedBytes;
+        private int count;
+
+        Totals(String name) {
+            this.name = name;
+        }
+
+        void add(long nanos, long allocatedBytes) {
+            this.nanos += nanos;
+            if (allocatedBytes>=0) {
+                this.allocatedBytes += allocatedBytes;
+            }
+            count++;
+        }
+
+        /**
+         * The name of the phase, the phase and class of
+         * the visitor, or the path of the unit.
+         */
+        public String getName() {
+            return name;
+        }
+
+        public long getNanos() {
+            return nanos;
+        }
+
+        /**
+         * The bytes allocated, or 0 if allocations are
+         * not counted.
+         */
+        public long getAllocatedBytes() {
+            return allocatedBytes;
+        }
+
+        /**
+         * The number of times the phase was run, the
+         * visitor walked a tree, or a phase of the unit
+         * was run.
+         */
+        public int getCount() {
+            return count;
+        }
+
+        @Override
+        public String toString() {
+            return name + ": " + nanos/1000000 + " ms" +
+                    (allocatedBytes>0 ? ", " + allocatedBytes/1024 + " KB allocated" : "");
+        }
+    }
+
+    private static final Comparator<Totals> SLOWEST_FIRST =
+            new Comparator<Totals>() {
+        @Override
+        public int compare(Totals x, Totals y) {
+            return Long.compare(y.nanos, x.nanos);
+        }
+    };
+
+    private final Map<String,Totals> phases =
+            new LinkedHashMap<String,Totals>();
+    private final Map<String,Totals> visitors =
+            new LinkedHashMap<String,Totals>();
+    private final Map<String,Totals> units =
+            new LinkedHashMap<String,Totals>();
+
+    private static Totals totals(Map<String,Totals> map, String name) {
+        Totals totals = map.get(name);
+        if (totals==null) {
+            totals = new Totals(name);
+            map.put(name, totals);
+        }
+        return totals;
+    }
+
+    @Override
+    public synchronized void visitorCompleted(PhasedUnit unit, String phase,
+            Class<?> visitor, long nanos, long allocatedBytes) {
+        totals(visitors, phase + "/" + visitor.getName())
+                .add(nanos, allocatedBytes);
+    }
+
+    @Override
+    public synchronized void unitPhaseCompleted(PhasedUnit unit, String phase,
+            long nanos, long allocatedBytes) {
+        totals(units, unit.getUnitFile().getPath())
+                .add(nanos, allocatedBytes);
+    }
+
+    @Override
+    public synchronized void phaseCompleted(String phase, int units, long nanos) {
+        totals(phases, phase).add(nanos, -1);
+    }
+
+    /**
+     * The totals of each phase, in the order in which
+     * the phases were first run.
+     */
+    public synchronized List<Totals> getPhases() {
+        return new ArrayList<Totals>(phases.values());
+    }
+
+    /**
+     * The totals of each visitor, slowest first.
+     */
+    public synchronized List<Totals> getVisitors() {
+        return slowest(visitors, visitors.size());
+    }
+
+    /**
+     * The totals of the given number of units which took
+     * the longest to check, slowest first.
+     */
+    public synchronized List<Totals> getSlowestUnits(int count) {
+        return slowest(units, count);
+    }
+
+    private static List<Totals> slowest(Map<String,Totals> map, int count) {
+        List<Totals> list = new ArrayList<Totals>(map.values());
+        Collections.sort(list, SLOWEST_FIRST);
+        return list.size()>count ?
+                new ArrayList<Totals>(list.subList(0, count)) : list;
+    }
+
+    public synchronized void clear() {
+        phases.clear();
+        visitors.clear();
+        units.clear();
+    }
+
+    /**
+     * Print the totals of each phase and each visitor,
+     * and of the given number of slowest units.
+     */
+    public void print(PrintStream out, int slowestUnits) {
+        out.println("Phases:");
+        for (Totals totals: getPhases()) {
+            out.println("  " + totals);
+        }
+        out.println("Visitors:");
+        for (Totals totals: getVisitors()) {
+            out.println("  " + totals);
+        }
+        out.println("Slowest units:");
+        for (Totals totals: getSlowestUnits(slowestUnits)) {
+            out.println("  " + totals);
+        }
+    }
+
+}
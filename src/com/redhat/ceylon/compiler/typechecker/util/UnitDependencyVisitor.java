@@ -0,0 +1,269 @@
+package com.redhat.ceylon.compiler.typechecker.util;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.redhat.ceylon.compiler.typechecker.context.PhasedUnits;
+import com.redhat.ceylon.compiler.typechecker.model.Declaration;
+import com.redhat.ceylon.compiler.typechecker.model.DeclarationDependencies;
+import com.redhat.ceylon.compiler.typechecker.model.IntersectionType;
+import com.redhat.ceylon.compiler.typechecker.model.NothingType;
+import com.redhat.ceylon.compiler.typechecker.model.ProducedType;
+import com.redhat.ceylon.compiler.typechecker.model.TypeDeclaration;
+import com.redhat.ceylon.compiler.typechecker.model.UnionType;
+import com.redhat.ceylon.compiler.typechecker.model.Unit;
+import com.redhat.ceylon.compiler.typechecker.model.UnknownType;
+import com.redhat.ceylon.compiler.typechecker.tree.EnteringVisitor;
+import com.redhat.ceylon.compiler.typechecker.tree.Node;
+import com.redhat.ceylon.compiler.typechecker.tree.Tree;
+import com.redhat.ceylon.compiler.typechecker.tree.Visitor;
+
+/**
+ * Records, in {@link Unit#getDependentsOf()}, that the
+ * visited compilation unit depends on each unit which
+ * declares a declaration it refers to, and, in 
+ * {@link Unit#getDeclarationDependencies()}, which 
+ * declarations the signature and the bodies of each 
+ * toplevel declaration refer to. Only dependencies on 
+ * the units of the given phased units are recorded, so 
+ * the units of the dependencies and of the language 
+ * module do not accumulate the paths of their 
+ * dependents.
+ *
+ * Must run after the ExpressionVisitor has resolved the
+ * references of the compilation unit. Keeps track of the
+ * declaration and body it is in, so when it is fused 
+ * with other visitors it is told when the walk enters
+ * them.
+ */
+public class UnitDependencyVisitor extends Visitor 
+        implements EnteringVisitor {
+
+    private final Unit unit;
+    private final String path;
+    private final PhasedUnits phasedUnits;
+    //the units, other than the visited unit, which
+    //belong to the phased units
+    private final Map<Unit,Boolean> recorded = 
+            new IdentityHashMap<Unit,Boolean>();
+    //the toplevel declaration being visited, or null
+    //outside the declarations of the unit
+    private Declaration declaration;
+    private boolean inBody;
+    //the declarations and bodies the walk is within,
+    //innermost last
+    private final List<Scope> scopes = new ArrayList<Scope>();
+    
+    private static final class Scope {
+        final Node node;
+        final Declaration outerDeclaration;
+        final boolean outerInBody;
+        Scope(Node node, Declaration outerDeclaration, 
+                boolean outerInBody) {
+            this.node = node;
+            this.outerDeclaration = outerDeclaration;
+            this.outerInBody = outerInBody;
+        }
+    }
+
+    public UnitDependencyVisitor(Unit unit, PhasedUnits phasedUnits) {
+        this.unit = unit;
+        this.path = unit.getFullPath();
+        this.phasedUnits = phasedUnits;
+    }
+    
+    private boolean isRecorded(Unit declarationUnit) {
+        if (declarationUnit==unit) {
+            return true;
+        }
+        Boolean result = recorded.get(declarationUnit);
+        if (result==null) {
+            String fullPath = declarationUnit.getFullPath();
+            result = fullPath!=null && 
+                    phasedUnits.getPhasedUnit(fullPath)!=null;
+            recorded.put(declarationUnit, result);
+        }
+        return result;
+    }
+
+    private void dependsOn(Declaration d) {
+        if (d!=null) {
+            Unit declarationUnit = d.getUnit();
+            if (declarationUnit!=null && isRecorded(declarationUnit)) {
+                if (declarationUnit!=unit && path!=null) {
+                    declarationUnit.getDependentsOf().add(path);
+                }
+                Declaration toplevel = 
+                        DeclarationDependencies.getToplevelDeclaration(d);
+                if (toplevel!=null && toplevel!=declaration) {
+                    DeclarationDependencies dependencies = 
+                            unit.getDeclarationDependencies();
+                    if (declaration==null) {
+                        dependencies.addImportDependency(toplevel);
+                    }
+                    else if (inBody) {
+                        dependencies.addBodyDependency(declaration, toplevel);
+                    }
+                    else {
+                        dependencies.addSignatureDependency(declaration, toplevel);
+                    }
+                }
+            }
+        }
+    }
+    
+    @Override
+    public void enter(Node that) {
+        if (that instanceof Tree.Declaration) {
+            scopes.add(new Scope(that, declaration, inBody));
+            Declaration d = ((Tree.Declaration) that).getDeclarationModel();
+            if (d!=null && d.isToplevel()) {
+                declaration = d;
+                inBody = false;
+            }
+        }
+        //the statements of a class body, other than its
+        //member declarations, are part of its body
+        else if (that instanceof Tree.Block ||
+                that instanceof Tree.SpecifierOrInitializerExpression ||
+                that instanceof Tree.ExecutableStatement) {
+            scopes.add(new Scope(that, declaration, inBody));
+            inBody = true;
+        }
+    }
+    
+    /**
+     * Enter the given node, unless a fused walk already
+     * entered it before it walked the children of the
+     * node.
+     */
+    private void enterIfNecessary(Node that) {
+        if (scopes.isEmpty() || 
+                scopes.get(scopes.size()-1).node!=that) {
+            enter(that);
+        }
+    }
+    
+    private void exit() {
+        Scope scope = scopes.remove(scopes.size()-1);
+        declaration = scope.outerDeclaration;
+        inBody = scope.outerInBody;
+    }
+    
+    private void dependsOn(ProducedType type) {
+        if (type!=null) {
+            TypeDeclaration td = type.getDeclaration();
+            if (td instanceof UnionType) {
+                for (ProducedType ct: td.getCaseTypes()) {
+                    dependsOn(ct);
+                }
+            }
+            else if (td instanceof IntersectionType) {
+                for (ProducedType st: td.getSatisfiedTypes()) {
+                    dependsOn(st);
+                }
+            }
+            else if (!(td instanceof NothingType) &&
+                    !(td instanceof UnknownType)) {
+                dependsOn(td);
+                dependsOn(type.getQualifyingType());
+                for (ProducedType ta: type.getTypeArgumentList()) {
+                    dependsOn(ta);
+                }
+            }
+        }
+    }
+    
+    @Override
+    public void visit(Tree.LocalModifier that) {
+        super.visit(that);
+        //an inferred type is part of the signature of
+        //a member or toplevel declaration, but does not
+        //name the declarations it refers to
+        if (!inBody) {
+            dependsOn(that.getTypeModel());
+        }
+    }
+    
+    @Override
+    public void visit(Tree.Block that) {
+        enterIfNecessary(that);
+        super.visit(that);
+        exit();
+    }
+    
+    @Override
+    public void visit(Tree.SpecifierOrInitializerExpression that) {
+        enterIfNecessary(that);
+        super.visit(that);
+        exit();
+    }
+    
+    @Override
+    public void visit(Tree.ExecutableStatement that) {
+        enterIfNecessary(that);
+        super.visit(that);
+        exit();
+    }
+
+    @Override
+    public void visit(Tree.MemberOrTypeExpression that) {
+        super.visit(that);
+        dependsOn(that.getDeclaration());
+    }
+
+    @Override
+    public void visit(Tree.SimpleType that) {
+        super.visit(that);
+        TypeDeclaration t = that.getDeclarationModel();
+        if (!(t instanceof UnionType) &&
+                !(t instanceof IntersectionType)) {
+            dependsOn(t);
+        }
+    }
+
+    @Override
+    public void visit(Tree.ImportMemberOrType that) {
+        super.visit(that);
+        dependsOn(that.getDeclarationModel());
+    }
+
+    @Override
+    public void visit(Tree.NamedArgument that) {
+        super.visit(that);
+        if (that.getParameter()!=null) {
+            dependsOn(that.getParameter().getModel());
+        }
+    }
+
+    @Override
+    public void visit(Tree.MemberLiteral that) {
+        super.visit(that);
+        dependsOn(that.getDeclaration());
+    }
+
+    @Override
+    public void visit(Tree.DocLink that) {
+        super.visit(that);
+        dependsOn(that.getBase());
+    }
+
+    @Override
+    public void visit(Tree.Declaration that) {
+        enterIfNecessary(that);
+        super.visit(that);
+        Declaration d = that.getDeclarationModel();
+        if (d!=null) {
+            //a refining declaration depends on the
+            //declaration it refines
+            Declaration refined = d.getRefinedDeclaration();
+            if (refined!=d) {
+                dependsOn(refined);
+            }
+        }
+        exit();
+    }
+
+}
@@ -2,6 +2,7 @@ package main;
 import java.io.File;
 
 import com.redhat.ceylon.compiler.typechecker.TypeCheckerBuilder;
+import com.redhat.ceylon.compiler.typechecker.util.PhaseStatistics;
 
 /**
  * Entry point for the type checker. Pass the source directory 
@@ -25,15 +26,22 @@ public class Main {
         }
         
         boolean noisy = "true".equals(System.getProperties().getProperty("verbose"));
+        //the timings of each phase, and the slowest files
+        PhaseStatistics metrics = "true".equals(System.getProperties().getProperty("metrics")) ?
+                new PhaseStatistics() : null;
         //ClosableVirtualFile latestZippedLanguageSourceFile = MainHelper.getLatestZippedLanguageSourceFile();
         TypeCheckerBuilder tcb = new TypeCheckerBuilder()
                 .verbose(noisy)
-                .statistics(true);
+                .statistics(true)
+                .metricsListener(metrics);
                 //.addSrcDirectory(latestZippedLanguageSourceFile);
         for (String path: args) {
             tcb.addSrcDirectory(new File(path));
         }
         tcb.getTypeChecker().process();
+        if (metrics!=null) {
+            metrics.print(System.out, 20);
+        }
         //latestZippedLanguageSourceFile.close();
     }
 }
@@ -1,11 +1,21 @@
 package main;
 import com.redhat.ceylon.compiler.typechecker.TypeChecker;
 import com.redhat.ceylon.compiler.typechecker.TypeCheckerBuilder;
+import com.redhat.ceylon.compiler.typechecker.context.PhasedUnit;
 import com.redhat.ceylon.compiler.typechecker.io.ClosableVirtualFile;
+import com.redhat.ceylon.compiler.typechecker.io.VFS;
 import com.redhat.ceylon.compiler.typechecker.model.Module;
+import com.redhat.ceylon.compiler.typechecker.tree.Message;
+import com.redhat.ceylon.compiler.typechecker.tree.Node;
 import com.redhat.ceylon.compiler.typechecker.tree.Tree;
+import com.redhat.ceylon.compiler.typechecker.tree.Visitor;
 
 import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
 
 /**
  * Some hack before a proper unit test harness is put in place
@@ -59,6 +69,10 @@ public class MainForTest {
                 .getTypeChecker();
         typeChecker.process();
 
+        checkUpdate("app/C.ceylon", "shared class C() satisfies Box {}", "shared class C() {}");
+        checkUpdate("app/A.ceylon", "shared interface Other {}", 
+                "shared interface Other {}\nshared interface Exception {}");
+
         ClosableVirtualFile latestZippedLanguageSourceFile = MainHelper.getLatestZippedLanguageSourceFile();
         typeChecker = new TypeCheckerBuilder()
                 .verbose(false)
@@ -68,4 +82,91 @@ public class MainForTest {
         latestZippedLanguageSourceFile.close();
         System.out.println("Tests took " + ( (System.nanoTime()-start) / 1000000 ) + " ms");
     }
+
+    /**
+     * Makes the given change to a copy of test/update, and 
+     * checks that TypeChecker.update() reports the same 
+     * errors as a type checker that starts from scratch.
+     */
+    private static void checkUpdate(String path, String from, String to) 
+            throws IOException {
+        File dir = Files.createTempDirectory("update").toFile();
+        try {
+            copy(new File("test/update"), dir);
+            TypeChecker typeChecker = new TypeCheckerBuilder()
+                    .verbose(false)
+                    .incrementalUpdates(true)
+                    .addSrcDirectory(dir)
+                    .getTypeChecker();
+            typeChecker.process();
+            File file = new File(dir, path);
+            String source = new String(Files.readAllBytes(file.toPath()), "UTF-8");
+            if ( !source.contains(from) ) {
+                throw new RuntimeException("Unable to find '" + from + "' in " + path);
+            }
+            Files.write(file.toPath(), source.replace(from, to).getBytes("UTF-8"));
+            typeChecker.update(Collections.singletonList(new VFS().getFromFile(file)), 
+                    Collections.<String>emptyList());
+            String updated = errors(typeChecker);
+            TypeChecker fresh = new TypeCheckerBuilder()
+                    .verbose(false)
+                    .addSrcDirectory(dir)
+                    .getTypeChecker();
+            fresh.process();
+            String expected = errors(fresh);
+            if ( !updated.equals(expected) ) {
+                throw new RuntimeException("Incremental update after changing " + path + 
+                        " reported:\n" + updated + "instead of:\n" + expected);
+            }
+        }
+        finally {
+            delete(dir);
+        }
+    }
+
+    private static String errors(TypeChecker typeChecker) {
+        Map<String,String> errors = new TreeMap<String,String>();
+        for (PhasedUnit pu: typeChecker.getPhasedUnits().getPhasedUnits()) {
+            final StringBuilder sb = new StringBuilder();
+            pu.getCompilationUnit().visit(new Visitor() {
+                @Override
+                public void visitAny(Node that) {
+                    for (Message error: that.getErrors()) {
+                        sb.append(that.getLocation()).append(' ')
+                                .append(error.getMessage()).append('\n');
+                    }
+                    super.visitAny(that);
+                }
+            });
+            errors.put(pu.getPathRelativeToSrcDir(), sb.toString());
+        }
+        StringBuilder result = new StringBuilder();
+        for (Map.Entry<String,String> entry: errors.entrySet()) {
+            result.append(entry.getKey()).append(":\n").append(entry.getValue());
+        }
+        return result.toString();
+    }
+
+    private static void copy(File from, File to) throws IOException {
+        for (File file: from.listFiles()) {
+            File target = new File(to, file.getName());
+            if ( file.isDirectory() ) {
+                target.mkdir();
+                copy(file, target);
+            }
+            else {
+                Files.copy(file.toPath(), target.toPath());
+            }
+        }
+    }
+
+    private static void delete(File file) {
+        File[] files = file.listFiles();
+        if ( files != null ) {
+            for (File child: files) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
 }
@@ -0,0 +1,159 @@
+grammar FusedVisitorgen;
+
+@parser::header {
+    package com.redhat.ceylon.compiler.typechecker.treegen;
+    import static com.redhat.ceylon.compiler.typechecker.treegen.Util.*;
+}
+@lexer::header {
+    package com.redhat.ceylon.compiler.typechecker.treegen;
+}
+
+@parser::members {
+    private int kind = 0;
+    private StringBuilder nodeClasses = new StringBuilder();
+}
+
+nodeList : {
+           println("package com.redhat.ceylon.compiler.typechecker.tree;\n");
+           println("import static com.redhat.ceylon.compiler.typechecker.tree.Tree.*;");
+           println("import static com.redhat.ceylon.compiler.typechecker.tree.Tree.Package;\n");
+           println("import java.lang.reflect.Method;");
+           println("import java.util.HashSet;");
+           println("import java.util.Set;\n");
+           println("/**");
+           println(" * Dispatches each node of a tree to several visitors");
+           println(" * in a single walk, instead of walking the tree once");
+           println(" * for each visitor. Each node is visited after its");
+           println(" * children, by each visitor in turn, and a visitor");
+           println(" * is only called for the kinds of node it overrides");
+           println(" * a visit() method for.");
+           println(" *");
+           println(" * A visitor may only be fused with others if it");
+           println(" * leaves the walk of the children of each node to");
+           println(" * super.visit(), does nothing that depends on the");
+           println(" * order in which it visits a node and the children");
+           println(" * of the node, and does not depend on the results of");
+           println(" * the other visitors it is fused with. A visitor");
+           println(" * which needs to know the nodes it is within may");
+           println(" * implement EnteringVisitor, and is then told when");
+           println(" * the walk enters each node it is dispatched.");
+           println(" */");
+           println("public class FusedVisitor extends Visitor {\n");
+           println("    private final Visitor[] visitors;");
+           println("    private final boolean[][] dispatches;");
+           println("    private final boolean[] entering;\n");
+           println("    public FusedVisitor(Visitor... visitors) {");
+           println("        this.visitors = visitors.clone();");
+           println("        dispatches = new boolean[visitors.length][];");
+           println("        entering = new boolean[visitors.length];");
+           println("        for (int i=0; i<visitors.length; i++) {");
+           println("            if (visitors[i] instanceof NaturalVisitor) {");
+           println("                throw new IllegalArgumentException(\"visitor walks the tree in its natural order: \" + ");
+           println("                        visitors[i].getClass().getName());");
+           println("            }");
+           println("            dispatches[i] = dispatches(visitors[i].getClass());");
+           println("            entering[i] = visitors[i] instanceof EnteringVisitor;");
+           println("        }");
+           println("    }\n");
+           println("    private void dispatch(Node that, int kind) {");
+           println("        for (int i=0; i<visitors.length; i++) {");
+           println("            if (entering[i] && dispatches[i][kind]) {");
+           println("                ((EnteringVisitor) visitors[i]).enter(that);");
+           println("            }");
+           println("        }");
+           println("        that.visitChildren(this);");
+           println("        for (int i=0; i<visitors.length; i++) {");
+           println("            if (dispatches[i][kind]) {");
+           println("                Visitor visitor = visitors[i];");
+           println("                visitor.fused = true;");
+           println("                try {");
+           println("                    that.visit(visitor);");
+           println("                }");
+           println("                finally {");
+           println("                    visitor.fused = false;");
+           println("                }");
+           println("            }");
+           println("        }");
+           println("    }\n");
+           println("    private static boolean[] dispatches(Class<?> visitorClass) {");
+           println("        Set<Class<?>> visited = new HashSet<Class<?>>();");
+           println("        boolean any = false;");
+           println("        for (Class<?> c = visitorClass; ");
+           println("                c!=Visitor.class && c!=VisitorAdaptor.class; ");
+           println("                c = c.getSuperclass()) {");
+           println("            if (VisitorAdaptor.class.isAssignableFrom(c)) {");
+           println("                any = true;");
+           println("            }");
+           println("            for (Method m: c.getDeclaredMethods()) {");
+           println("                Class<?>[] params = m.getParameterTypes();");
+           println("                if (params.length==1 && !m.isBridge()) {");
+           println("                    if (m.getName().equals(\"visit\")) {");
+           println("                        visited.add(params[0]);");
+           println("                    }");
+           println("                    else if (m.getName().equals(\"visitAny\")) {");
+           println("                        any = true;");
+           println("                    }");
+           println("                }");
+           println("            }");
+           println("        }");
+           println("        boolean[] result = new boolean[NODE_CLASSES.length];");
+           println("        for (int kind=0; kind<NODE_CLASSES.length; kind++) {");
+           println("            boolean dispatch = any;");
+           println("            for (Class<?> c = NODE_CLASSES[kind]; ");
+           println("                    !dispatch && c!=Node.class; ");
+           println("                    c = c.getSuperclass()) {");
+           println("                dispatch = visited.contains(c);");
+           println("            }");
+           println("            result[kind] = dispatch;");
+           println("        }");
+           println("        return result;");
+           println("    }\n");
+           }
+           (DESCRIPTION? node)+
+           EOF
+           {
+           println("\n    private static final Class<?>[] NODE_CLASSES = {");
+           print(nodeClasses.toString());
+           println("    };");
+           println("\n}");
+           }
+           ;
+
+node : '^' '('
+       'abstract'? n=NODE_NAME
+       {
+         println("    @Override public void visit(" + className($n.text) + " that) { dispatch(that, " + kind++ + "); }");
+         nodeClasses.append("        " + className($n.text) + ".class,\n");
+       }
+       (':' en=NODE_NAME)?
+       (DESCRIPTION? subnode)*
+       (DESCRIPTION? field)*
+       ')'
+     ;
+
+subnode : n=NODE_NAME '?'? f=FIELD_NAME?
+        | mn=NODE_NAME '*' f=FIELD_NAME?
+        ;
+
+field : 'abstract'? (TYPE_NAME|'boolean') FIELD_NAME ';';
+
+NODE_NAME : ('A'..'Z'|'_')+;
+
+FIELD_NAME : ('a'..'z') ('a'..'z'|'A'..'Z')*;
+TYPE_NAME : ('A'..'Z') ('a'..'z'|'A'..'Z'|'<'|'>')*;
+
+WS : (' ' | '\n' | '\t' | '\r' | '\u000C') { skip(); };
+
+CARAT : '^';
+
+LPAREN : '(';
+RPAREN : ')';
+
+MANY : '*'|'+';
+OPTIONAL : '?';
+
+EXTENDS : ':';
+
+SEMI : ';';
+
+DESCRIPTION : '\"' (~'\"')* '\"';
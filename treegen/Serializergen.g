@@ -0,0 +1,493 @@
+grammar Serializergen;
+
+@parser::header {
+    package com.redhat.ceylon.compiler.typechecker.treegen;
+    import static com.redhat.ceylon.compiler.typechecker.treegen.Util.*;
+}
+@lexer::header {
+    package com.redhat.ceylon.compiler.typechecker.treegen;
+}
+
+@parser::members {
+    private int kind = 0;
+    private StringBuilder creates = new StringBuilder();
+    private StringBuilder fills = new StringBuilder();
+    private StringBuilder reads = new StringBuilder();
+    private StringBuilder signature = new StringBuilder();
+}
+
+nodeList : {
+           println("package com.redhat.ceylon.compiler.typechecker.tree;\n");
+           println("import static com.redhat.ceylon.compiler.typechecker.tree.CustomTree.*;");
+           println("import static com.redhat.ceylon.compiler.typechecker.tree.CustomTree.Package;\n");
+           println("import java.io.ByteArrayInputStream;");
+           println("import java.io.ByteArrayOutputStream;");
+           println("import java.io.IOException;");
+           println("import java.io.InputStream;");
+           println("import java.io.OutputStream;");
+           println("import java.util.ArrayList;");
+           println("import java.util.IdentityHashMap;");
+           println("import java.util.List;");
+           println("import java.util.Map;\n");
+           println("import org.antlr.runtime.CommonToken;");
+           println("import org.antlr.runtime.Token;\n");
+           println("/**");
+           println(" * Writes trees in a compact binary format, and reads");
+           println(" * them back, so that the result of parsing a source");
+           println(" * file may be stored or sent elsewhere, instead of");
+           println(" * parsing the file again.");
+           println(" *");
+           println(" * The format records the kind of each node, its");
+           println(" * children, the boolean fields assigned by the");
+           println(" * parser, its text, and its tokens, with their text");
+           println(" * and offsets. A node or token which occurs more");
+           println(" * than once is written once, and referred to after");
+           println(" * that. The errors of the nodes, and everything");
+           println(" * assigned by the type checker, are not written, so");
+           println(" * trees should be written as soon as they are parsed.");
+           println(" *");
+           println(" * The format depends on the definition of the tree,");
+           println(" * and a tree written by a different version of the");
+           println(" * tree is rejected.");
+           println(" */");
+           println("public class TreeSerializer {\n");
+           println("    private static final int MAGIC = 0x43545245;\n");
+           println("    private TreeSerializer() {}\n");
+           println("    public static void write(Node node, OutputStream out) throws IOException {");
+           println("        Writer writer = new Writer(out);");
+           println("        writer.writeInt(MAGIC);");
+           println("        writer.writeInt(FORMAT);");
+           println("        try {");
+           println("            writer.writeNode(node);");
+           println("        }");
+           println("        catch (WriteFailure failure) {");
+           println("            Throwable cause = failure.getCause();");
+           println("            if (cause instanceof IOException) {");
+           println("                throw (IOException) cause;");
+           println("            }");
+           println("            throw failure;");
+           println("        }");
+           println("        writer.flush();");
+           println("    }\n");
+           println("    public static Node read(InputStream in) throws IOException {");
+           println("        Reader reader = new Reader(in);");
+           println("        if (reader.readInt()!=MAGIC) {");
+           println("            throw new IOException(\"not a serialized tree\");");
+           println("        }");
+           println("        if (reader.readInt()!=FORMAT) {");
+           println("            throw new IOException(\"tree serialized by a different version\");");
+           println("        }");
+           println("        return reader.readNode();");
+           println("    }\n");
+           println("    public static byte[] toBytes(Node node) {");
+           println("        ByteArrayOutputStream out = new ByteArrayOutputStream();");
+           println("        try {");
+           println("            write(node, out);");
+           println("        }");
+           println("        catch (IOException e) {");
+           println("            throw new RuntimeException(e);");
+           println("        }");
+           println("        return out.toByteArray();");
+           println("    }\n");
+           println("    public static Node fromBytes(byte[] bytes) throws IOException {");
+           println("        return read(new ByteArrayInputStream(bytes));");
+           println("    }\n");
+           println("    private static final class WriteFailure extends RuntimeException {");
+           println("        private static final long serialVersionUID = 1L;");
+           println("        WriteFailure(Throwable cause) {");
+           println("            super(cause);");
+           println("        }");
+           println("    }\n");
+           println("    private static final class Writer extends Visitor implements NaturalVisitor {\n");
+           println("        private final OutputStream out;");
+           println("        private final byte[] buffer = new byte[8192];");
+           println("        private int size;");
+           println("        private final Map<Node,Integer> nodes = new IdentityHashMap<Node,Integer>();");
+           println("        private final Map<Token,Integer> tokens = new IdentityHashMap<Token,Integer>();");
+           println("        private int lastToken;");
+           println("        private int lastIndex;");
+           println("        private int lastLine;");
+           println("        private int lastStart;\n");
+           println("        Writer(OutputStream out) {");
+           println("            this.out = out;");
+           println("        }\n");
+           println("        void flush() throws IOException {");
+           println("            out.write(buffer, 0, size);");
+           println("            size = 0;");
+           println("            out.flush();");
+           println("        }\n");
+           println("        private void writeByte(int b) throws IOException {");
+           println("            if (size==buffer.length) {");
+           println("                out.write(buffer, 0, size);");
+           println("                size = 0;");
+           println("            }");
+           println("            buffer[size++] = (byte) b;");
+           println("        }\n");
+           println("        /** an unsigned variable length int */");
+           println("        void writeInt(int i) throws IOException {");
+           println("            while ((i & ~0x7F)!=0) {");
+           println("                writeByte((i & 0x7F) | 0x80);");
+           println("                i >>>= 7;");
+           println("            }");
+           println("            writeByte(i);");
+           println("        }\n");
+           println("        /** a signed variable length int */");
+           println("        private void writeSignedInt(int i) throws IOException {");
+           println("            writeInt(zigzag(i));");
+           println("        }\n");
+           println("        private static int zigzag(int i) {");
+           println("            return (i << 1) ^ (i >> 31);");
+           println("        }\n");
+           println("        private void writeBoolean(boolean b) throws IOException {");
+           println("            writeByte(b ? 1 : 0);");
+           println("        }\n");
+           println("        private void writeString(String s) throws IOException {");
+           println("            if (s==null) {");
+           println("                writeInt(0);");
+           println("            }");
+           println("            else {");
+           println("                writeInt(s.length()+1);");
+           println("                for (int i=0, l=s.length(); i<l; i++) {");
+           println("                    writeInt(s.charAt(i));");
+           println("                }");
+           println("            }");
+           println("        }\n");
+           println("        private void writeToken(Token token) throws IOException {");
+           println("            if (token==null) {");
+           println("                writeInt(0);");
+           println("                return;");
+           println("            }");
+           println("            Integer id = tokens.get(token);");
+           println("            if (id!=null) {");
+           println("                //usually a token which was written recently");
+           println("                writeInt(zigzag(id-lastToken)+2);");
+           println("                lastToken = id;");
+           println("                return;");
+           println("            }");
+           println("            lastToken = tokens.size();");
+           println("            tokens.put(token, lastToken);");
+           println("            writeInt(1);");
+           println("            writeBoolean(token instanceof MissingToken);");
+           println("            writeSignedInt(token.getType());");
+           println("            writeSignedInt(token.getChannel());");
+           println("            //positions are mostly close to those of the");
+           println("            //previous token, so write the differences");
+           println("            writeSignedInt(token.getTokenIndex()-lastIndex);");
+           println("            writeSignedInt(token.getLine()-lastLine);");
+           println("            writeSignedInt(token.getCharPositionInLine());");
+           println("            int start = -1;");
+           println("            int stop = -1;");
+           println("            if (token instanceof CommonToken) {");
+           println("                CommonToken ct = (CommonToken) token;");
+           println("                start = ct.getStartIndex();");
+           println("                stop = ct.getStopIndex();");
+           println("            }");
+           println("            writeSignedInt(start-lastStart);");
+           println("            writeSignedInt(stop-start);");
+           println("            writeString(token.getText());");
+           println("            lastIndex = token.getTokenIndex();");
+           println("            lastLine = token.getLine();");
+           println("            lastStart = start;");
+           println("        }\n");
+           println("        void writeNode(Node node) throws IOException {");
+           println("            if (node==null) {");
+           println("                writeInt(0);");
+           println("                return;");
+           println("            }");
+           println("            Integer id = nodes.get(node);");
+           println("            if (id!=null) {");
+           println("                writeInt(1);");
+           println("                writeInt(id);");
+           println("                return;");
+           println("            }");
+           println("            nodes.put(node, nodes.size());");
+           println("            node.visit(this);");
+           println("        }\n");
+           println("        private void writeNodes(List<? extends Node> list) throws IOException {");
+           println("            writeInt(list.size());");
+           println("            for (int i=0, l=list.size(); i<l; i++) {");
+           println("                writeNode(list.get(i));");
+           println("            }");
+           println("        }\n");
+           println("        private void writeHeader(int kind, Node node) throws IOException {");
+           println("            writeInt(kind+2);");
+           println("            writeToken(node.getMainToken());");
+           println("            writeString(node.getOwnText());");
+           println("            writeToken(node.getMainEndToken());");
+           println("            writeToken(node.getOwnFirstChildToken());");
+           println("            writeToken(node.getOwnLastChildToken());");
+           println("        }\n");
+           println("        /** the children which are not described by Ceylon.nodes */");
+           println("        private void writeCustom(Node node) throws IOException {");
+           println("            if (node instanceof CustomTree.ExtendedTypeExpression) {");
+           println("                writeNode(((CustomTree.ExtendedTypeExpression) node).getType());");
+           println("            }");
+           println("        }\n");
+           println("        @Override");
+           println("        public void handleException(Exception e, Node that) {");
+           println("            //don't record the exception in the tree");
+           println("            throw e instanceof WriteFailure ? ");
+           println("                    (WriteFailure) e : new WriteFailure(e);");
+           println("        }\n");
+           println("        @Override");
+           println("        public void visitAny(Node that) {");
+           println("            throw new IllegalArgumentException(\"unknown node kind: \" + that.getClass().getName());");
+           println("        }\n");
+           }
+           (DESCRIPTION? node)+
+           EOF
+           {
+           println("    }\n");
+           println("    private static final class Reader {\n");
+           println("        private final InputStream in;");
+           println("        private final byte[] buffer = new byte[8192];");
+           println("        private int position;");
+           println("        private int limit;");
+           println("        private final List<Node> nodes = new ArrayList<Node>();");
+           println("        private final List<Token> tokens = new ArrayList<Token>();");
+           println("        private int lastToken;");
+           println("        private int lastIndex;");
+           println("        private int lastLine;");
+           println("        private int lastStart;\n");
+           println("        Reader(InputStream in) {");
+           println("            this.in = in;");
+           println("        }\n");
+           println("        private int readByte() throws IOException {");
+           println("            if (position==limit) {");
+           println("                limit = in.read(buffer, 0, buffer.length);");
+           println("                position = 0;");
+           println("                if (limit<=0) {");
+           println("                    limit = 0;");
+           println("                    throw new IOException(\"unexpected end of serialized tree\");");
+           println("                }");
+           println("            }");
+           println("            return buffer[position++] & 0xFF;");
+           println("        }\n");
+           println("        int readInt() throws IOException {");
+           println("            int result = 0;");
+           println("            for (int shift=0; shift<32; shift+=7) {");
+           println("                int b = readByte();");
+           println("                result |= (b & 0x7F) << shift;");
+           println("                if ((b & 0x80)==0) {");
+           println("                    return result;");
+           println("                }");
+           println("            }");
+           println("            throw new IOException(\"malformed serialized tree\");");
+           println("        }\n");
+           println("        private int readSignedInt() throws IOException {");
+           println("            int i = readInt();");
+           println("            return (i >>> 1) ^ -(i & 1);");
+           println("        }\n");
+           println("        private boolean readBoolean() throws IOException {");
+           println("            return readByte()!=0;");
+           println("        }\n");
+           println("        private String readString() throws IOException {");
+           println("            int length = readInt()-1;");
+           println("            if (length<0) {");
+           println("                return null;");
+           println("            }");
+           println("            char[] chars = new char[length];");
+           println("            for (int i=0; i<length; i++) {");
+           println("                chars[i] = (char) readInt();");
+           println("            }");
+           println("            return new String(chars);");
+           println("        }\n");
+           println("        private Token readToken() throws IOException {");
+           println("            int tag = readInt();");
+           println("            if (tag==0) {");
+           println("                return null;");
+           println("            }");
+           println("            if (tag>1) {");
+           println("                int i = tag-2;");
+           println("                int id = lastToken + ((i >>> 1) ^ -(i & 1));");
+           println("                if (id<0 || id>=tokens.size()) {");
+           println("                    throw new IOException(\"malformed serialized tree\");");
+           println("                }");
+           println("                lastToken = id;");
+           println("                return tokens.get(id);");
+           println("            }");
+           println("            lastToken = tokens.size();");
+           println("            boolean missing = readBoolean();");
+           println("            int type = readSignedInt();");
+           println("            int channel = readSignedInt();");
+           println("            int index = lastIndex + readSignedInt();");
+           println("            int line = lastLine + readSignedInt();");
+           println("            int column = readSignedInt();");
+           println("            int start = lastStart + readSignedInt();");
+           println("            int stop = start + readSignedInt();");
+           println("            String text = readString();");
+           println("            CommonToken token = missing ? ");
+           println("                    new MissingToken(type, text) : ");
+           println("                    new CommonToken(type, text);");
+           println("            token.setChannel(channel);");
+           println("            token.setTokenIndex(index);");
+           println("            token.setLine(line);");
+           println("            token.setCharPositionInLine(column);");
+           println("            token.setStartIndex(start);");
+           println("            token.setStopIndex(stop);");
+           println("            tokens.add(token);");
+           println("            lastIndex = index;");
+           println("            lastLine = line;");
+           println("            lastStart = start;");
+           println("            return token;");
+           println("        }\n");
+           println("        Node readNode() throws IOException {");
+           println("            int tag = readInt();");
+           println("            if (tag==0) {");
+           println("                return null;");
+           println("            }");
+           println("            if (tag==1) {");
+           println("                int id = readInt();");
+           println("                if (id>=nodes.size()) {");
+           println("                    throw new IOException(\"malformed serialized tree\");");
+           println("                }");
+           println("                return nodes.get(id);");
+           println("            }");
+           println("            int kind = tag-2;");
+           println("            Node node = create(kind, readToken());");
+           println("            nodes.add(node);");
+           println("            String text = readString();");
+           println("            Token endToken = readToken();");
+           println("            Token firstChildToken = readToken();");
+           println("            Token lastChildToken = readToken();");
+           println("            fill(kind, node);");
+           println("            readCustom(node);");
+           println("            node.restore(text, endToken, firstChildToken, lastChildToken);");
+           println("            return node;");
+           println("        }\n");
+           println("        @SuppressWarnings(\"unchecked\")");
+           println("        private <N extends Node> N readNode(Class<N> type) throws IOException {");
+           println("            Node node = readNode();");
+           println("            if (node!=null && !type.isInstance(node)) {");
+           println("                throw new IOException(\"malformed serialized tree\");");
+           println("            }");
+           println("            return (N) node;");
+           println("        }\n");
+           println("        /** the children which are not described by Ceylon.nodes */");
+           println("        private void readCustom(Node node) throws IOException {");
+           println("            if (node instanceof CustomTree.ExtendedTypeExpression) {");
+           println("                ((CustomTree.ExtendedTypeExpression) node)");
+           println("                        .setExtendedType(readNode(Tree.SimpleType.class));");
+           println("            }");
+           println("        }\n");
+           println("        private static Node create(int kind, Token token) throws IOException {");
+           println("            switch (kind) {");
+           print(creates.toString());
+           println("            default: throw new IOException(\"unknown node kind: \" + kind);");
+           println("            }");
+           println("        }\n");
+           println("        private void fill(int kind, Node node) throws IOException {");
+           println("            switch (kind) {");
+           print(fills.toString());
+           println("            }");
+           println("        }\n");
+           print(reads.toString());
+           println("    }\n");
+           println("    private static final int FORMAT = " + signature.toString().hashCode() + ";\n");
+           println("}");
+           }
+           ;
+
+node
+@init { boolean concrete = true; String cn = null; }
+     : '^' '('
+       ('abstract' { concrete = false; })?
+       n=NODE_NAME
+       {
+         cn = className($n.text);
+         signature.append(";").append($n.text);
+         println("        private void write" + cn + "(Tree." + cn + " node) throws IOException {");
+         reads.append("        private void read" + cn + "(Tree." + cn + " node) throws IOException {\n");
+       }
+       (':' en=NODE_NAME
+         {
+           signature.append(":").append($en.text);
+           println("            write" + className($en.text) + "(node);");
+           reads.append("            read" + className($en.text) + "(node);\n");
+         }
+       )?
+       (DESCRIPTION? subnode)*
+       (DESCRIPTION? field)*
+       ')'
+       {
+         println("        }\n");
+         reads.append("        }\n\n");
+         if (concrete) {
+             int k = kind++;
+             println("        @Override public void visit(Tree." + cn + " that) {");
+             println("            try {");
+             println("                writeHeader(" + k + ", that);");
+             println("                write" + cn + "(that);");
+             println("                writeCustom(that);");
+             println("            }");
+             println("            catch (IOException e) {");
+             println("                throw new WriteFailure(e);");
+             println("            }");
+             println("        }\n");
+             creates.append("            case " + k + ": return new " + cn + "(token);\n");
+             fills.append("            case " + k + ": read" + cn + "((Tree." + cn + ") node); break;\n");
+         }
+       }
+     ;
+
+subnode : n=NODE_NAME '?'? f=FIELD_NAME
+          {
+            signature.append(",").append($n.text).append(" ").append($f.text);
+            println("            writeNode(node.get" + initialUpper($f.text) + "());");
+            reads.append("            node.set" + initialUpper($f.text) + "(readNode(Tree." + className($n.text) + ".class));\n");
+          }
+        | n=NODE_NAME '?'?
+          {
+            signature.append(",").append($n.text);
+            println("            writeNode(node.get" + className($n.text) + "());");
+            reads.append("            node.set" + className($n.text) + "(readNode(Tree." + className($n.text) + ".class));\n");
+          }
+        | mn=NODE_NAME '*'
+          {
+            signature.append(",").append($mn.text).append("*");
+            println("            writeNodes(node.get" + className($mn.text) + "s());");
+            reads.append("            for (int i=0, l=readInt(); i<l; i++) {\n");
+            reads.append("                node.add" + className($mn.text) + "(readNode(Tree." + className($mn.text) + ".class));\n");
+            reads.append("            }\n");
+          }
+        | mn=NODE_NAME '*' f=FIELD_NAME
+          {
+            signature.append(",").append($mn.text).append("* ").append($f.text);
+            println("            writeNodes(node.get" + initialUpper($f.text) + "s());");
+            reads.append("            for (int i=0, l=readInt(); i<l; i++) {\n");
+            reads.append("                node.add" + initialUpper($f.text) + "(readNode(Tree." + className($mn.text) + ".class));\n");
+            reads.append("            }\n");
+          }
+        ;
+
+field : t=TYPE_NAME f=FIELD_NAME ';'
+      | 'boolean' f=FIELD_NAME ';'
+          {
+            signature.append(",boolean ").append($f.text);
+            println("            writeBoolean(node.get" + initialUpper($f.text) + "());");
+            reads.append("            node.set" + initialUpper($f.text) + "(readBoolean());\n");
+          }
+      | l=TYPE_NAME '<' t=TYPE_NAME '>' f=FIELD_NAME ';'
+      | 'abstract' t=TYPE_NAME f=FIELD_NAME ';'
+      ;
+
+NODE_NAME : ('A'..'Z'|'_')+;
+
+FIELD_NAME : ('a'..'z') ('a'..'z'|'A'..'Z')*;
+TYPE_NAME : ('A'..'Z') ('a'..'z'|'A'..'Z')*;
+
+WS : (' ' | '\n' | '\t' | '\r' | '\u000C') { skip(); };
+
+CARAT : '^';
+
+LPAREN : '(';
+RPAREN : ')';
+
+MANY : '*'|'+';
+OPTIONAL : '?';
+
+EXTENDS : ':';
+
+SEMI : ';';
+
+DESCRIPTION : '\"' (~'\"')* '\"';
@@ -14,7 +14,7 @@ nodeList : {
            println("import static com.redhat.ceylon.compiler.typechecker.tree.Tree.Package;\n");
            println("public abstract class VisitorAdaptor extends Visitor {\n");
            println("    public void handleException(Exception e, Node that) { that.handleException(e, this); }\n");
-           println("    public void visitAny(Node that) { that.visitChildren(this); }\n");
+           println("    public void visitAny(Node that) { if (!fused) that.visitChildren(this); }\n");
            }
            (DESCRIPTION? node)+ 
            EOF
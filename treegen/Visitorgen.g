@@ -14,7 +14,9 @@ nodeList : {
            println("import static com.redhat.ceylon.compiler.typechecker.tree.Tree.Package;\n");
            println("public abstract class Visitor {\n");
            println("    public void handleException(Exception e, Node that) { that.handleException(e, this); }\n");
-           println("    public void visitAny(Node that) { that.visitChildren(this); }\n");
+           println("    /** Set while a FusedVisitor dispatches a node to this visitor, after walking its children */");
+           println("    boolean fused;\n");
+           println("    public void visitAny(Node that) { if (!fused) that.visitChildren(this); }\n");
            }
            (DESCRIPTION? node)+ 
            EOF